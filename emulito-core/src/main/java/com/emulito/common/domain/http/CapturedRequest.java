@@ -0,0 +1,57 @@
+package com.emulito.common.domain.http;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import static org.apache.commons.lang3.builder.ToStringStyle.JSON_STYLE;
+
+/**
+ * An application request together with the request type it was captured under and when it was received, as sent
+ * to test clients which observe every request rather than just the last of each type.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class CapturedRequest {
+
+    public static final String TIMESTAMP_NODE_KEY = "timestamp";
+    public static final String REQUEST_TYPE_NODE_KEY = "requestType";
+    public static final String REQUEST_NODE_KEY = "request";
+
+    @JsonProperty(TIMESTAMP_NODE_KEY)
+    private long timestamp;
+
+    @JsonProperty(REQUEST_TYPE_NODE_KEY)
+    private String requestType;
+
+    @JsonProperty(REQUEST_NODE_KEY)
+    private HttpRequestContainer request;
+
+    public CapturedRequest() {
+    }
+
+    public CapturedRequest(long timestamp, String requestType, HttpRequestContainer request) {
+        this.timestamp = timestamp;
+        this.requestType = requestType;
+        this.request = request;
+    }
+
+    /**
+     * @return When the request was received, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getRequestType() {
+        return requestType;
+    }
+
+    public HttpRequestContainer getRequest() {
+        return request;
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this, JSON_STYLE);
+    }
+}
@@ -0,0 +1,377 @@
+package com.emulito.common.domain.http;
+
+import com.emulito.common.exception.EmulatorException;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpHeaders;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.lang.String.format;
+
+/**
+ * A {@link HttpResponseContainer} in the form it is written to the application: the body already encoded to bytes
+ * and the headers flattened into name/value pairs.
+ * <br/>
+ * <br/>
+ * Built once per response (see {@link HttpResponseContainer#encode(Path)}) so that a response which is served many times
+ * is not re-encoded every time. Instances are immutable and so are safe to share between threads.
+ * <br/>
+ * A response can instead take its body from a file (see {@link HttpResponseContainer#setBodyFile(String)}), in which
+ * case the body is never read onto the heap. It is sent straight from the file each time the response is served.
+ * Body files on the file system must be inside the body file directory the response is encoded with, so that a rule
+ * added over the REST API can't serve any other file the emulator can read.
+ * <br/>
+ * If the response asks for compression (see {@link HttpResponseContainer#setCompression(List)}) then a compressed
+ * copy of the body is also built up front for each requested content encoding, and
+ * {@link #selectContentEncoding(String)} picks which one to send based on the request's Accept-Encoding header.
+ */
+public final class EncodedResponse {
+
+    private static final String CHARSET_PARAMETER = "charset=";
+    private static final String CLASSPATH_PREFIX = "classpath:";
+    private static final String CLASSPATH_RESPONSES_DIRECTORY = "responses/";
+    private static final String GZIP_ENCODING = "gzip";
+    private static final String DEFLATE_ENCODING = "deflate";
+    private static final String ANY_ENCODING = "*";
+    private static final String QUALITY_PARAMETER = "q=";
+
+    private final int statusCode;
+    private final String[] headerNames;
+    private final String[] headerValues;
+    private final byte[] body;
+    private final Resource bodyResource;
+    private final Path bodyPath;
+    // the directory a body file on the file system was resolved against, null if there is no such body file
+    private final Path bodyFileDirectory;
+    // keyed by content encoding, in order of preference
+    private final Map<String, byte[]> compressedBodies;
+
+    EncodedResponse(int statusCode, Map<String, List<String>> headers, String body) {
+        this(statusCode, headers, body, null, null, null);
+    }
+
+    /**
+     * @param bodyFileDirectory The directory a body file on the file system is resolved against and must be inside of,
+     *                          or null if body files may only be on the classpath
+     */
+    EncodedResponse(int statusCode, Map<String, List<String>> headers, String body, String bodyFile,
+                    List<String> compression, Path bodyFileDirectory) {
+        if (body != null && bodyFile != null) {
+            throw new EmulatorException(format("A response can have a body or a body file but not both, body file [%s]", bodyFile));
+        }
+        if (bodyFile != null && CollectionUtils.isNotEmpty(compression)) {
+            throw new EmulatorException(format("A response with a body file can not be compressed, body file [%s]", bodyFile));
+        }
+        this.statusCode = statusCode;
+        List<String> names = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        Charset charset = StandardCharsets.UTF_8;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            // the content length is always worked out from the encoded body
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(header.getKey())) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                names.add(header.getKey());
+                values.add(value);
+                if (HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(header.getKey())) {
+                    charset = getCharset(value, charset);
+                }
+            }
+        }
+        this.headerNames = names.toArray(new String[0]);
+        this.headerValues = values.toArray(new String[0]);
+        this.body = body == null ? new byte[0] : body.getBytes(charset);
+        this.bodyFileDirectory = bodyFile == null || bodyFile.startsWith(CLASSPATH_PREFIX)
+                ? null : getBodyFileDirectory(bodyFile, bodyFileDirectory);
+        this.bodyResource = bodyFile == null ? null : getBodyResource(bodyFile, this.bodyFileDirectory);
+        this.bodyPath = bodyResource != null && bodyResource.isFile() ? getPath(bodyResource) : null;
+        this.compressedBodies = new LinkedHashMap<>();
+        if (compression != null) {
+            for (String contentEncoding : compression) {
+                compressedBodies.put(contentEncoding.toLowerCase(Locale.ROOT), compress(this.body, contentEncoding));
+            }
+        }
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public int getHeaderCount() {
+        return headerNames.length;
+    }
+
+    public String getHeaderName(int index) {
+        return headerNames[index];
+    }
+
+    public String getHeaderValue(int index) {
+        return headerValues[index];
+    }
+
+    /**
+     * @return true if the body can be sent in more than one content encoding, in which case the response should vary
+     * on the request's Accept-Encoding header
+     */
+    public boolean isCompressible() {
+        return !compressedBodies.isEmpty();
+    }
+
+    /**
+     * Picks the compressed body to send for the request's Accept-Encoding header. The encoding the request rates
+     * highest (by its "q" value) is picked, with ties going to whichever was listed first in the response setup.
+     * @return The content encoding to send the body in, or null if the body should be sent as is
+     */
+    public String selectContentEncoding(String acceptEncoding) {
+        if (compressedBodies.isEmpty() || acceptEncoding == null) {
+            return null;
+        }
+        String selectedEncoding = null;
+        double selectedQuality = 0;
+        for (String contentEncoding : compressedBodies.keySet()) {
+            double quality = getQuality(acceptEncoding, contentEncoding);
+            if (quality > selectedQuality) {
+                selectedEncoding = contentEncoding;
+                selectedQuality = quality;
+            }
+        }
+        return selectedEncoding;
+    }
+
+    /**
+     * @param contentEncoding A content encoding returned by {@link #selectContentEncoding(String)}, or null for the
+     *                        body as is
+     */
+    public long getContentLength(String contentEncoding) throws IOException {
+        return contentEncoding == null ? getContentLength() : compressedBodies.get(contentEncoding).length;
+    }
+
+    /**
+     * @param contentEncoding A content encoding returned by {@link #selectContentEncoding(String)}, or null for the
+     *                        body as is
+     */
+    public void writeBody(OutputStream outputStream, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            writeBody(outputStream);
+        } else {
+            outputStream.write(compressedBodies.get(contentEncoding));
+        }
+    }
+
+    /**
+     * @param contentEncoding A content encoding returned by {@link #selectContentEncoding(String)}, or null for the
+     *                        body as is
+     * @return A stream of the body, for callers which write it out a piece at a time. The caller must close it
+     */
+    public InputStream openBody(String contentEncoding) throws IOException {
+        if (contentEncoding != null) {
+            return new ByteArrayInputStream(compressedBodies.get(contentEncoding));
+        } else if (bodyPath != null) {
+            return Files.newInputStream(bodyPath);
+        } else if (bodyResource != null) {
+            return bodyResource.getInputStream();
+        }
+        return new ByteArrayInputStream(body);
+    }
+
+    public long getContentLength() throws IOException {
+        if (bodyPath != null) {
+            return Files.size(bodyPath);
+        } else if (bodyResource != null) {
+            return bodyResource.contentLength();
+        }
+        return body.length;
+    }
+
+    /**
+     * @return The file on the file system which holds the body, or null if the body is not held in such a file
+     */
+    public Path getBodyFile() {
+        return bodyPath;
+    }
+
+    public void writeBody(OutputStream outputStream) throws IOException {
+        if (bodyPath != null) {
+            // transferTo moves the file through a small buffer (or straight to the socket where the target allows it)
+            // so the body never has to fit on the heap
+            try (FileChannel fileChannel = FileChannel.open(bodyPath, StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(outputStream);
+                long size = fileChannel.size();
+                long position = 0;
+                while (position < size) {
+                    position += fileChannel.transferTo(position, size - position, target);
+                }
+            }
+        } else if (bodyResource != null) {
+            // e.g. a classpath resource inside a jar, which can only be streamed
+            try (InputStream inputStream = bodyResource.getInputStream()) {
+                IOUtils.copyLarge(inputStream, outputStream);
+            }
+        } else {
+            outputStream.write(body);
+        }
+    }
+
+    /**
+     * @return false if the response has a body file on the file system which was resolved against a different body
+     * file directory, and so has to be encoded again to be served from this one
+     */
+    boolean isEncodedFor(Path bodyFileDirectory) {
+        // the directory is normally passed in already absolute and normalised, so it is only normalised again if not
+        return this.bodyFileDirectory == null || this.bodyFileDirectory.equals(bodyFileDirectory)
+                || (bodyFileDirectory != null && this.bodyFileDirectory.equals(bodyFileDirectory.toAbsolutePath().normalize()));
+    }
+
+    private static Path getBodyFileDirectory(String bodyFile, Path bodyFileDirectory) {
+        if (bodyFileDirectory == null) {
+            throw new EmulatorException(format("Response body file [%s] can only be a classpath resource here", bodyFile));
+        }
+        return bodyFileDirectory.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Resolves a body file, which is either a path on the file system inside the body file directory or a
+     * "classpath:" resource under the {@value #CLASSPATH_RESPONSES_DIRECTORY} directory
+     */
+    private static Resource getBodyResource(String bodyFile, Path bodyFileDirectory) {
+        Resource resource;
+        if (bodyFile.startsWith(CLASSPATH_PREFIX)) {
+            String location = bodyFile.substring(CLASSPATH_PREFIX.length());
+            location = location.startsWith("/") ? location.substring(1) : location;
+            if (!location.startsWith(CLASSPATH_RESPONSES_DIRECTORY) || location.contains("..")) {
+                throw new EmulatorException(format("Classpath response body file [%s] must be under the '%s' directory",
+                        bodyFile, CLASSPATH_RESPONSES_DIRECTORY));
+            }
+            resource = new ClassPathResource(location);
+        } else {
+            resource = new FileSystemResource(resolveBodyFile(bodyFile, bodyFileDirectory));
+        }
+        if (!resource.exists() || !resource.isReadable()) {
+            throw new EmulatorException(format("Response body file [%s] does not exist or cannot be read", bodyFile));
+        }
+        return resource;
+    }
+
+    /**
+     * @return The body file resolved against the body file directory, so long as it is inside it once ".." segments
+     * and any symbolic links have been followed
+     */
+    private static Path resolveBodyFile(String bodyFile, Path directory) {
+        Path path = directory.resolve(bodyFile).normalize();
+        boolean inside = path.startsWith(directory);
+        try {
+            if (inside && Files.exists(path)) {
+                inside = path.toRealPath().startsWith(directory.toRealPath());
+            }
+        } catch (IOException e) {
+            throw new EmulatorException(format("Could not resolve response body file [%s]", bodyFile), e);
+        }
+        if (!inside) {
+            throw new EmulatorException(format("Response body file [%s] must be inside the body file directory [%s]",
+                    bodyFile, directory));
+        }
+        return path;
+    }
+
+    private static Path getPath(Resource resource) {
+        try {
+            return resource.getFile().toPath();
+        } catch (IOException e) {
+            throw new EmulatorException(format("Could not resolve response body file [%s]", resource), e);
+        }
+    }
+
+    private static byte[] compress(byte[] body, String contentEncoding) {
+        ByteArrayOutputStream compressedBody = new ByteArrayOutputStream();
+        try {
+            if (GZIP_ENCODING.equalsIgnoreCase(contentEncoding)) {
+                try (GZIPOutputStream outputStream = new GZIPOutputStream(compressedBody)) {
+                    outputStream.write(body);
+                }
+            } else if (DEFLATE_ENCODING.equalsIgnoreCase(contentEncoding)) {
+                try (DeflaterOutputStream outputStream = new DeflaterOutputStream(compressedBody)) {
+                    outputStream.write(body);
+                }
+            } else {
+                throw new EmulatorException(format("Compression [%s] is not supported, supported values are [%s, %s]",
+                        contentEncoding, GZIP_ENCODING, DEFLATE_ENCODING));
+            }
+        } catch (IOException e) {
+            throw new EmulatorException(format("Could not compress the response body with [%s]", contentEncoding), e);
+        }
+        return compressedBody.toByteArray();
+    }
+
+    /**
+     * @return The "q" value the Accept-Encoding header gives the content encoding (either by name or through "*"),
+     * or 0 if it isn't accepted
+     */
+    private static double getQuality(String acceptEncoding, String contentEncoding) {
+        double wildcardQuality = 0;
+        for (String acceptedEncoding : acceptEncoding.split(",")) {
+            String[] parameters = acceptedEncoding.split(";");
+            String name = parameters[0].trim();
+            double quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith(QUALITY_PARAMETER)) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(QUALITY_PARAMETER.length()));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase(contentEncoding)) {
+                return quality;
+            } else if (ANY_ENCODING.equals(name)) {
+                wildcardQuality = quality;
+            }
+        }
+        return wildcardQuality;
+    }
+
+    /**
+     * @return The charset named in the content type header value, or the default if it doesn't name a usable one
+     */
+    private static Charset getCharset(String contentType, Charset defaultCharset) {
+        if (contentType == null) {
+            return defaultCharset;
+        }
+        int charsetIndex = contentType.toLowerCase(Locale.ROOT).indexOf(CHARSET_PARAMETER);
+        if (charsetIndex < 0) {
+            return defaultCharset;
+        }
+        String charsetName = contentType.substring(charsetIndex + CHARSET_PARAMETER.length()).split(";")[0]
+                .trim().replace("\"", "");
+        try {
+            return Charset.forName(charsetName);
+        } catch (IllegalArgumentException e) {
+            return defaultCharset;
+        }
+    }
+}
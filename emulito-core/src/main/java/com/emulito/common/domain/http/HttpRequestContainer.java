@@ -1,13 +1,23 @@
 package com.emulito.common.domain.http;
 
+import com.emulito.common.exception.EmulatorException;
 import com.emulito.common.web.controller.EmulatorController;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.apache.commons.lang3.builder.ToStringBuilder;
-
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.apache.commons.lang3.builder.ToStringStyle.JSON_STYLE;
 
@@ -31,6 +41,13 @@ public class HttpRequestContainer {
     public static final String HEADERS_NODE_KEY = "headers";
     public static final String BODY_NODE_KEY = "body";
 
+    // rough sizes of the object headers, references and arrays behind each part of a request
+    private static final long REQUEST_OVERHEAD_BYTES = 96;
+    private static final long STRING_OVERHEAD_BYTES = 40;
+    private static final long MAP_ENTRY_OVERHEAD_BYTES = 64;
+    // a surrogate pair is two characters and four bytes, so no character takes more than three
+    private static final int MAX_UTF8_BYTES_PER_CHAR = 3;
+
     @JsonProperty(HTTP_METHOD_NODE_KEY)
     private String httpMethod;
 
@@ -40,26 +57,96 @@ public class HttpRequestContainer {
     @JsonProperty(URL_PARAMS_NODE_KEY)
     private Map<String, List<String>> params = new HashMap<>();
 
+    // volatile, along with the body, as they are swapped for compacted copies while the request is being stored,
+    // which may be while the thread which received the request is still reading it
     @JsonProperty(HEADERS_NODE_KEY)
-    private Map<String, List<String>> headers = new HashMap<>();
+    private volatile Map<String, List<String>> headers = new HashMap<>();
 
     @JsonProperty(BODY_NODE_KEY)
-    private String body;
+    private volatile String body;
+
+    // the body gzipped, in place of body, once compressed by compressBody, transient to keep it out of toString
+    private transient volatile byte[] compressedBody;
+
+    // created on first use and discarded whenever the request changes, transient to keep it out of toString
+    private transient volatile HttpRequestView view;
 
     public Map<String, List<String>> getHeaders() {
         return new HashMap<>(headers);
     }
 
     public void setBody(String body) {
+        // body first, so that the body is never read as null in between (see getBody)
         this.body = body;
+        this.compressedBody = null;
+        this.view = null;
     }
 
+    /**
+     * @return The body, decompressed again on every call if it has been compressed (see {@link #compressBody(int)})
+     */
     public String getBody() {
+        String current = body;
+        if (current != null) {
+            return current;
+        }
+        // compressBody sets the compressed body before clearing the body, so it is seen here if the body was cleared
+        byte[] compressed = compressedBody;
+        if (compressed != null) {
+            return decompress(compressed);
+        }
+        // or setBody replaced a compressed body after the body was read
         return body;
     }
 
+    /**
+     * Compresses the body, to save memory while the request is stored, if it is longer than the threshold. The body
+     * is only decompressed again when it is read.
+     * @param thresholdBytes Bodies longer than this many bytes, encoded as UTF-8, are compressed
+     */
+    public void compressBody(int thresholdBytes) {
+        String uncompressed = body;
+        // each character takes at least one byte and at most three, so only a body in between has to be encoded to tell
+        if (uncompressed == null || (long) uncompressed.length() * MAX_UTF8_BYTES_PER_CHAR <= thresholdBytes) {
+            return;
+        }
+        byte[] uncompressedBytes = uncompressed.getBytes(StandardCharsets.UTF_8);
+        if (uncompressedBytes.length <= thresholdBytes) {
+            return;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream outputStream = new GZIPOutputStream(compressed)) {
+            outputStream.write(uncompressedBytes);
+        } catch (IOException e) {
+            throw new EmulatorException("Could not compress the application request body", e);
+        }
+        // compressed body first, so that the body is never read as null in between (see getBody)
+        this.compressedBody = compressed.toByteArray();
+        this.body = null;
+        // the view holds on to the uncompressed body
+        this.view = null;
+    }
+
+    @JsonIgnore
+    public boolean isBodyCompressed() {
+        return compressedBody != null;
+    }
+
+    /**
+     * @return Roughly how many bytes of heap the request takes up, counting its strings (or its compressed body)
+     * as though none of them were shared with other requests
+     */
+    public long estimateSize() {
+        long size = REQUEST_OVERHEAD_BYTES + sizeOf(httpMethod) + sizeOf(url);
+        byte[] compressed = compressedBody;
+        size += compressed != null ? compressed.length : sizeOf(body);
+        size += sizeOf(params) + sizeOf(headers);
+        return size;
+    }
+
     public void setHeaders(Map<String, List<String>> headers) {
         this.headers = headers;
+        this.view = null;
     }
 
     public String getHttpMethod() {
@@ -68,10 +155,12 @@ public class HttpRequestContainer {
 
     public void setHttpMethod(String httpMethod) {
         this.httpMethod = httpMethod;
+        this.view = null;
     }
 
     public void setUrl(String url) {
         this.url = url;
+        this.view = null;
     }
 
     public String getUrl() {
@@ -80,14 +169,72 @@ public class HttpRequestContainer {
 
     public void setParams(Map<String, List<String>> params) {
         this.params = params;
+        this.view = null;
     }
 
     public Map<String, List<String>> getParams() {
         return params;
     }
 
+    /**
+     * @return The view to match this request against the installed rules with. The same view is returned until
+     * the request is changed.
+     */
+    public HttpRequestView asView() {
+        HttpRequestView current = view;
+        if (current == null) {
+            current = new HttpRequestView(this);
+            view = current;
+        }
+        return current;
+    }
+
+    List<String> headerValues(String name) {
+        Map<String, List<String>> current = headers;
+        return current == null ? null : current.get(name);
+    }
+
+    List<String> paramValues(String name) {
+        return params == null ? null : params.get(name);
+    }
+
+    private static String decompress(byte[] compressed) {
+        try (GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new EmulatorException("Could not decompress the application request body", e);
+        }
+    }
+
+    private static long sizeOf(String value) {
+        // a compact Latin-1 string takes a byte a character, others two
+        return value == null ? 0 : STRING_OVERHEAD_BYTES + value.length();
+    }
+
+    private static long sizeOf(Map<String, List<String>> values) {
+        if (values == null) {
+            return 0;
+        }
+        long size = 0;
+        for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+            size += MAP_ENTRY_OVERHEAD_BYTES + sizeOf(entry.getKey());
+            if (entry.getValue() != null) {
+                for (String value : entry.getValue()) {
+                    size += sizeOf(value);
+                }
+            }
+        }
+        return size;
+    }
+
     @Override
     public String toString() {
-        return ToStringBuilder.reflectionToString(this, JSON_STYLE);
+        return new ReflectionToStringBuilder(this, JSON_STYLE) {
+            @Override
+            protected Object getValue(Field field) throws IllegalAccessException {
+                // the body field is null once the body is compressed
+                return BODY_NODE_KEY.equals(field.getName()) ? getBody() : super.getValue(field);
+            }
+        }.toString();
     }
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+package com.emulito.common.domain.http;
+
+import org.apache.commons.collections4.CollectionUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read only view of a {@link HttpRequestContainer} used while matching the request against the installed rules.
+ * <br/>
+ * <br/>
+ * Header and url parameter values are looked up in the request's own maps (which are never copied) the first time a
+ * rule asks for them, and remembered so that every other rule asking for the same key gets the value straight back.
+ * Obtain the view with {@link HttpRequestContainer#asView()} so that all rules tested against a request share one.
+ * <br/>
+ * This class is not thread safe, a request is expected to be matched on a single thread.
+ */
+public final class HttpRequestView {
+
+    private final HttpRequestContainer requestContainer;
+    private Map<String, String> headerValues;
+    private Map<String, String> paramValues;
+
+    HttpRequestView(HttpRequestContainer requestContainer) {
+        this.requestContainer = requestContainer;
+    }
+
+    public String getHttpMethod() {
+        return requestContainer.getHttpMethod();
+    }
+
+    public String getUrl() {
+        return requestContainer.getUrl();
+    }
+
+    public String getBody() {
+        return requestContainer.getBody();
+    }
+
+    /**
+     * @return The first value of the header, or null if the request does not have the header
+     */
+    public String getHeader(String name) {
+        if (headerValues == null) {
+            headerValues = new HashMap<>();
+        }
+        // null values are remembered too, so the key has to be checked rather than the value
+        if (!headerValues.containsKey(name)) {
+            headerValues.put(name, getFirst(requestContainer.headerValues(name)));
+        }
+        return headerValues.get(name);
+    }
+
+    /**
+     * @return The first value of the url parameter, or null if the request does not have the parameter
+     */
+    public String getParam(String name) {
+        if (paramValues == null) {
+            paramValues = new HashMap<>();
+        }
+        if (!paramValues.containsKey(name)) {
+            paramValues.put(name, getFirst(requestContainer.paramValues(name)));
+        }
+        return paramValues.get(name);
+    }
+
+    private static String getFirst(List<String> values) {
+        return CollectionUtils.isEmpty(values) ? null : values.get(0);
+    }
+}
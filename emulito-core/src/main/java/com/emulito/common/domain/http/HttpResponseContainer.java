@@ -1,9 +1,11 @@
 package com.emulito.common.domain.http;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -20,6 +22,9 @@ import static org.apache.commons.lang3.builder.ToStringStyle.JSON_STYLE;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class HttpResponseContainer {
 
+    private static final String BODY_FILE_NODE_KEY = "bodyFile";
+    private static final String COMPRESSION_NODE_KEY = "compression";
+
     @JsonProperty("statusCode")
     private int statusCode;
 
@@ -29,8 +34,20 @@ public class HttpResponseContainer {
     @JsonProperty("body")
     private String body;
 
+    @JsonProperty(BODY_FILE_NODE_KEY)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String bodyFile;
+
+    @JsonProperty(COMPRESSION_NODE_KEY)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<String> compression;
+
+    // created on first use and discarded whenever the response changes, transient to keep it out of toString
+    private transient volatile EncodedResponse encodedResponse;
+
     public void setStatusCode(int statusCode) {
         this.statusCode = statusCode;
+        this.encodedResponse = null;
     }
 
     public int getStatusCode() {
@@ -39,6 +56,7 @@ public class HttpResponseContainer {
 
     public void setHeaders(Map<String, List<String>> headers) {
         this.headers = new HashMap<>(headers);
+        this.encodedResponse = null;
     }
 
     public Map<String, List<String>> getHeaders() {
@@ -50,18 +68,72 @@ public class HttpResponseContainer {
             headers.put(name, new ArrayList<>());
         }
         headers.get(name).add(value);
+        this.encodedResponse = null;
     }
 
     public void setBody(String body) {
         this.body = body;
+        this.encodedResponse = null;
     }
 
     public String getBody() {
         return body;
     }
 
+    /**
+     * Serves the body from a file rather than from {@link #getBody()}, for bodies too large to keep in memory.
+     * @param bodyFile A path on the file system, or a resource under the responses directory of the classpath
+     *                 prefixed with "classpath:" e.g. "classpath:responses/reports/large-report.json"
+     */
+    public void setBodyFile(String bodyFile) {
+        this.bodyFile = bodyFile;
+        this.encodedResponse = null;
+    }
+
+    public String getBodyFile() {
+        return bodyFile;
+    }
+
+    /**
+     * Compresses the body up front with each of the supplied content encodings, so that a compressed body can be
+     * returned to applications which accept one without compressing it on every request.
+     * @param compression The content encodings to offer, in order of preference e.g. ["gzip", "deflate"]
+     */
+    public void setCompression(List<String> compression) {
+        this.compression = compression;
+        this.encodedResponse = null;
+    }
+
+    public List<String> getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return This response ready to be written to the application. The same instance is returned until the response
+     * is changed, so the body is only encoded once however many times the response is served.
+     * @param bodyFileDirectory The directory a body file on the file system is resolved against and must be inside of
+     */
+    public EncodedResponse encode(Path bodyFileDirectory) {
+        EncodedResponse result = encodedResponse;
+        if (result == null || !result.isEncodedFor(bodyFileDirectory)) {
+            result = new EncodedResponse(statusCode, headers, body, bodyFile, compression, bodyFileDirectory);
+            encodedResponse = result;
+        }
+        return result;
+    }
+
     @Override
     public String toString() {
-        return ToStringBuilder.reflectionToString(this, JSON_STYLE);
+        // optional fields are left out until they are set so that responses which don't use them print as before
+        List<String> unsetOptionalFields = new ArrayList<>();
+        if (bodyFile == null) {
+            unsetOptionalFields.add(BODY_FILE_NODE_KEY);
+        }
+        if (compression == null) {
+            unsetOptionalFields.add(COMPRESSION_NODE_KEY);
+        }
+        return new ReflectionToStringBuilder(this, JSON_STYLE)
+                .setExcludeFieldNames(unsetOptionalFields.toArray(new String[0]))
+                .toString();
     }
 }
\ No newline at end of file
@@ -1,12 +1,20 @@
 package com.emulito.common.domain.http;
 
+import com.emulito.common.exception.EmulatorException;
 import com.emulito.common.web.controller.EmulatorController;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.lang.String.format;
 
 import static com.emulito.common.domain.http.HttpResponseRule.LifeTimes.FOREVER;
 import static org.apache.commons.lang3.builder.ToStringStyle.JSON_STYLE;
@@ -135,13 +143,33 @@ public class HttpResponseRule {
      * <br/>
      * <br/>
      * Object used to represent any delay based functionality related to this particular response.
+     * <br/>
+     * The delay is either fixed ({@link #setDelayTimeInMillis(long)}) or, if a {@link Distribution} is set, drawn
+     * afresh from the distribution every time the response is returned.
      */
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class Delay {
 
+        private static final String DISTRIBUTION_NODE_KEY = "distribution";
+        private static final String BYTES_PER_SECOND_NODE_KEY = "bytesPerSecond";
+        private static final String CHUNK_SIZE_NODE_KEY = "chunkSize";
+        private static final int DEFAULT_CHUNK_SIZE = 1024;
+
         @JsonProperty("delayTimeInMillis")
         private long delayTimeInMillis = 0L;
 
+        @JsonProperty(DISTRIBUTION_NODE_KEY)
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private Distribution distribution;
+
+        @JsonProperty(BYTES_PER_SECOND_NODE_KEY)
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private Long bytesPerSecond;
+
+        @JsonProperty(CHUNK_SIZE_NODE_KEY)
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private Integer chunkSize;
+
         public long getDelayTimeInMillis() {
             return delayTimeInMillis;
         }
@@ -151,6 +179,340 @@ public class HttpResponseRule {
             return this;
         }
 
+        public Distribution getDistribution() {
+            return distribution;
+        }
+
+        /**
+         * @param distribution The distribution to draw the delay from, in place of the fixed delay time
+         */
+        public Delay setDistribution(Distribution distribution) {
+            this.distribution = distribution;
+            return this;
+        }
+
+        public Long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        /**
+         * @param bytesPerSecond The rate to write the response body at once the delay has passed, or null to write
+         *                       it all at once
+         */
+        public Delay setBytesPerSecond(Long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        public Integer getChunkSize() {
+            return chunkSize;
+        }
+
+        /**
+         * @param chunkSize The number of bytes written at a time when the body is throttled, defaults to
+         *                  {@value #DEFAULT_CHUNK_SIZE} (or bytesPerSecond if that is lower)
+         */
+        public Delay setChunkSize(Integer chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @return true if the response body should be written no faster than {@link #getBytesPerSecond()}
+         */
+        @JsonIgnore
+        public boolean isThrottled() {
+            return bytesPerSecond != null;
+        }
+
+        /**
+         * @return The number of bytes to write at a time when the body is throttled
+         */
+        @JsonIgnore
+        public int getEffectiveChunkSize() {
+            if (chunkSize != null) {
+                return chunkSize;
+            }
+            return (int) Math.min(DEFAULT_CHUNK_SIZE, bytesPerSecond);
+        }
+
+        /**
+         * @return The number of milliseconds to delay the response by this time it is returned
+         */
+        public long sampleDelayMillis() {
+            if (distribution == null) {
+                return delayTimeInMillis;
+            }
+            return distribution.sample(ThreadLocalRandom.current());
+        }
+
+        /**
+         * Checks that the delay can be sampled, so that a bad distribution is rejected when the response is set up
+         * rather than when it is returned
+         */
+        public void validate() {
+            if (distribution != null) {
+                distribution.validate();
+            }
+            if (bytesPerSecond != null && bytesPerSecond <= 0) {
+                throw new EmulatorException(format("A throttled response must have a bytesPerSecond greater than 0 %s", this));
+            }
+            if (chunkSize != null && (chunkSize <= 0 || bytesPerSecond == null)) {
+                throw new EmulatorException(format("A chunkSize must be greater than 0 and only set along with bytesPerSecond %s", this));
+            }
+        }
+
+        @Override
+        public String toString() {
+            // optional fields are left out until they are set so that fixed delays print as before
+            List<String> unsetOptionalFields = new ArrayList<>();
+            if (distribution == null) {
+                unsetOptionalFields.add(DISTRIBUTION_NODE_KEY);
+            }
+            if (bytesPerSecond == null) {
+                unsetOptionalFields.add(BYTES_PER_SECOND_NODE_KEY);
+            }
+            if (chunkSize == null) {
+                unsetOptionalFields.add(CHUNK_SIZE_NODE_KEY);
+            }
+            return new ReflectionToStringBuilder(this, JSON_STYLE)
+                    .setExcludeFieldNames(unsetOptionalFields.toArray(new String[0]))
+                    .toString();
+        }
+    }
+
+    /**
+     * Object used to represent a spread of delay times, to emulate the latency of a real service rather than a
+     * fixed delay.
+     * <ul>
+     *     <li>{@link Types#UNIFORM} - any time between {@link #getMinMillis()} and {@link #getMaxMillis()}</li>
+     *     <li>{@link Types#NORMAL} - {@link #getMeanMillis()} give or take {@link #getStandardDeviationMillis()}</li>
+     *     <li>{@link Types#LOG_NORMAL} - centred on {@link #getMedianMillis()} with a long tail, the length of which
+     *     is set by {@link #getSigma()}</li>
+     *     <li>{@link Types#PERCENTILES} - half of all delays are under {@link #getP50Millis()}, 95% under
+     *     {@link #getP95Millis()}, 99% under {@link #getP99Millis()} and none over {@link #getMaxMillis()}</li>
+     * </ul>
+     * Sampled delays are never less than {@link #getMinMillis()} (0 if not set) or more than
+     * {@link #getMaxMillis()} (if set).
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Distribution {
+
+        public enum Types {
+            UNIFORM,
+            NORMAL,
+            LOG_NORMAL,
+            PERCENTILES
+        }
+
+        @JsonProperty("type")
+        private Types type;
+
+        @JsonProperty("minMillis")
+        private Long minMillis;
+
+        @JsonProperty("maxMillis")
+        private Long maxMillis;
+
+        @JsonProperty("meanMillis")
+        private Long meanMillis;
+
+        @JsonProperty("standardDeviationMillis")
+        private Long standardDeviationMillis;
+
+        @JsonProperty("medianMillis")
+        private Long medianMillis;
+
+        @JsonProperty("sigma")
+        private Double sigma;
+
+        @JsonProperty("p50Millis")
+        private Long p50Millis;
+
+        @JsonProperty("p95Millis")
+        private Long p95Millis;
+
+        @JsonProperty("p99Millis")
+        private Long p99Millis;
+
+        public Types getType() {
+            return type;
+        }
+
+        public Distribution setType(Types type) {
+            this.type = type;
+            return this;
+        }
+
+        public Long getMinMillis() {
+            return minMillis;
+        }
+
+        public Distribution setMinMillis(Long minMillis) {
+            this.minMillis = minMillis;
+            return this;
+        }
+
+        public Long getMaxMillis() {
+            return maxMillis;
+        }
+
+        public Distribution setMaxMillis(Long maxMillis) {
+            this.maxMillis = maxMillis;
+            return this;
+        }
+
+        public Long getMeanMillis() {
+            return meanMillis;
+        }
+
+        public Distribution setMeanMillis(Long meanMillis) {
+            this.meanMillis = meanMillis;
+            return this;
+        }
+
+        public Long getStandardDeviationMillis() {
+            return standardDeviationMillis;
+        }
+
+        public Distribution setStandardDeviationMillis(Long standardDeviationMillis) {
+            this.standardDeviationMillis = standardDeviationMillis;
+            return this;
+        }
+
+        public Long getMedianMillis() {
+            return medianMillis;
+        }
+
+        public Distribution setMedianMillis(Long medianMillis) {
+            this.medianMillis = medianMillis;
+            return this;
+        }
+
+        public Double getSigma() {
+            return sigma;
+        }
+
+        public Distribution setSigma(Double sigma) {
+            this.sigma = sigma;
+            return this;
+        }
+
+        public Long getP50Millis() {
+            return p50Millis;
+        }
+
+        public Distribution setP50Millis(Long p50Millis) {
+            this.p50Millis = p50Millis;
+            return this;
+        }
+
+        public Long getP95Millis() {
+            return p95Millis;
+        }
+
+        public Distribution setP95Millis(Long p95Millis) {
+            this.p95Millis = p95Millis;
+            return this;
+        }
+
+        public Long getP99Millis() {
+            return p99Millis;
+        }
+
+        public Distribution setP99Millis(Long p99Millis) {
+            this.p99Millis = p99Millis;
+            return this;
+        }
+
+        /**
+         * @param random The source of randomness, expected to belong to the calling thread
+         * @return A delay time in milliseconds drawn from this distribution
+         */
+        public long sample(Random random) {
+            double delayMillis;
+            switch (type) {
+                case UNIFORM:
+                    delayMillis = minMillis + random.nextDouble() * (maxMillis - minMillis);
+                    break;
+                case NORMAL:
+                    delayMillis = meanMillis + random.nextGaussian() * standardDeviationMillis;
+                    break;
+                case LOG_NORMAL:
+                    delayMillis = medianMillis * Math.exp(random.nextGaussian() * sigma);
+                    break;
+                default:
+                    delayMillis = samplePercentiles(random.nextDouble());
+            }
+            long lowest = minMillis == null ? 0 : minMillis;
+            long highest = maxMillis == null ? Long.MAX_VALUE : maxMillis;
+            return Math.max(lowest, Math.min(highest, Math.round(delayMillis)));
+        }
+
+        /**
+         * Interpolates linearly between the points of the percentile table
+         */
+        private double samplePercentiles(double quantile) {
+            double lowest = minMillis == null ? 0 : minMillis;
+            if (quantile < 0.5) {
+                return interpolate(quantile, 0, lowest, 0.5, p50Millis);
+            } else if (quantile < 0.95) {
+                return interpolate(quantile, 0.5, p50Millis, 0.95, p95Millis);
+            } else if (quantile < 0.99) {
+                return interpolate(quantile, 0.95, p95Millis, 0.99, p99Millis);
+            }
+            return interpolate(quantile, 0.99, p99Millis, 1, maxMillis);
+        }
+
+        private static double interpolate(double quantile, double fromQuantile, double fromMillis, double toQuantile, double toMillis) {
+            return fromMillis + (quantile - fromQuantile) / (toQuantile - fromQuantile) * (toMillis - fromMillis);
+        }
+
+        /**
+         * Checks that every value the distribution type needs is set, and that the values make sense together
+         */
+        public void validate() {
+            if (type == null) {
+                throw new EmulatorException("A delay distribution must have a type, one of [UNIFORM, NORMAL, LOG_NORMAL, PERCENTILES]");
+            }
+            switch (type) {
+                case UNIFORM:
+                    requireValues(minMillis, maxMillis);
+                    break;
+                case NORMAL:
+                    requireValues(meanMillis, standardDeviationMillis);
+                    break;
+                case LOG_NORMAL:
+                    requireValues(medianMillis, sigma);
+                    break;
+                default:
+                    requireValues(p50Millis, p95Millis, p99Millis, maxMillis);
+                    requireOrdered(minMillis == null ? 0 : minMillis, p50Millis, p95Millis, p99Millis, maxMillis);
+            }
+            requireOrdered(minMillis == null ? 0 : minMillis, maxMillis == null ? Long.MAX_VALUE : maxMillis);
+            if ((standardDeviationMillis != null && standardDeviationMillis < 0) || (sigma != null && sigma < 0)) {
+                throw new EmulatorException(format("The spread of a delay distribution can not be negative %s", this));
+            }
+        }
+
+        private void requireValues(Object... values) {
+            for (Object value : values) {
+                if (value == null) {
+                    throw new EmulatorException(format("A %s delay distribution is missing a required value %s", type, this));
+                }
+            }
+        }
+
+        private void requireOrdered(long... millis) {
+            for (int i = 1; i < millis.length; i++) {
+                if (millis[i - 1] < 0 || millis[i] < millis[i - 1]) {
+                    throw new EmulatorException(format("The times of a %s delay distribution must be positive and " +
+                            "in ascending order %s", type, this));
+                }
+            }
+        }
+
         @Override
         public String toString() {
             return ToStringBuilder.reflectionToString(this, JSON_STYLE);
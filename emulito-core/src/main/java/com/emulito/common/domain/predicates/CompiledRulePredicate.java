@@ -0,0 +1,92 @@
+package com.emulito.common.domain.predicates;
+
+import com.emulito.common.domain.http.HttpRequestContainer;
+import com.emulito.common.domain.http.HttpRequestView;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates a list of rules (all of which must match) with a single loop over flat arrays, rather than through the
+ * chain of nested lambdas built by {@link HttpRequestPredicateFactory#getPredicate(Rule)} and {@link Predicate#and}.
+ * <br/>
+ * <br/>
+ * Every instance runs the same {@link #test(HttpRequestContainer)} code no matter what the rules are, so the JIT sees
+ * one monomorphic method which it can inline and optimise, instead of a different lambda at every step of the chain.
+ * The result is always the same as the interpreted predicate for the same rules.
+ */
+final class CompiledRulePredicate implements Predicate<HttpRequestContainer> {
+
+    private final Rule.RuleTypes[] ruleTypes;
+    private final Rule.MatchTypes[] matchTypes;
+    private final String[] requiredKeys;
+    private final String[] requiredValues;
+    private final Pattern[] patterns;
+
+    /**
+     * @param rules The rules to compile, in the order they should be evaluated
+     */
+    CompiledRulePredicate(List<Rule> rules) {
+        int ruleCount = rules.size();
+        ruleTypes = new Rule.RuleTypes[ruleCount];
+        matchTypes = new Rule.MatchTypes[ruleCount];
+        requiredKeys = new String[ruleCount];
+        requiredValues = new String[ruleCount];
+        patterns = new Pattern[ruleCount];
+        for (int i = 0; i < ruleCount; i++) {
+            Rule rule = rules.get(i);
+            ruleTypes[i] = rule.getRuleType();
+            matchTypes[i] = HttpRequestPredicateFactory.getMatchType(rule);
+            requiredKeys[i] = rule.getRequiredKey();
+            requiredValues[i] = rule.getRequiredValue();
+            if (matchTypes[i] == Rule.MatchTypes.MATCHES && requiredValues[i] != null) {
+                patterns[i] = PatternCache.getPattern(requiredValues[i]);
+            }
+        }
+    }
+
+    @Override
+    public boolean test(HttpRequestContainer requestContainer) {
+        HttpRequestView requestView = requestContainer.asView();
+        for (int i = 0; i < ruleTypes.length; i++) {
+            if (!matches(i, getValue(i, requestView))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getValue(int rule, HttpRequestView requestView) {
+        switch (ruleTypes[rule]) {
+            case HTTP_METHOD:
+                return requestView.getHttpMethod();
+            case URL:
+                return requestView.getUrl();
+            case BODY:
+                return requestView.getBody();
+            case URL_PARAMETER:
+                return requestView.getParam(requiredKeys[rule]);
+            default:
+                return requestView.getHeader(requiredKeys[rule]);
+        }
+    }
+
+    private boolean matches(int rule, String value) {
+        String requiredValue = requiredValues[rule];
+        switch (matchTypes[rule]) {
+            case IS:
+                return StringUtils.equals(value, requiredValue);
+            case CONTAINS:
+                return StringUtils.contains(value, requiredValue);
+            case ENDS_WITH:
+                return StringUtils.endsWith(value, requiredValue);
+            case STARTS_WITH:
+                return StringUtils.startsWith(value, requiredValue);
+            default:
+                Pattern pattern = patterns[rule];
+                return value == null ? pattern == null : pattern != null && pattern.matcher(value).matches();
+        }
+    }
+}
@@ -2,7 +2,6 @@ package com.emulito.common.domain.predicates;
 
 import com.emulito.common.domain.http.HttpRequestContainer;
 import com.emulito.common.exception.EmulatorException;
-import org.apache.commons.collections4.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,6 +21,8 @@ public final class HttpRequestPredicateFactory {
     private static final String STARTS_WITH_KEYWORD = "starts with";
     private static final String MATCHES_KEYWORD = "matches";
 
+    private static final int REGULAR_EXPRESSION_EVALUATION_COST = 4;
+
     private HttpRequestPredicateFactory() {
     }
 
@@ -34,38 +35,89 @@ public final class HttpRequestPredicateFactory {
             case BODY:
                 return getPredicate(rule, HttpRequestContainer::getBody);
             case URL_PARAMETER:
-                return getPredicate(rule, x -> getFirst(x.getParams().get(rule.getRequiredKey())));
+                return getPredicate(rule, x -> x.asView().getParam(rule.getRequiredKey()));
             case HEADER:
-                return getPredicate(rule, x -> getFirst(x.getHeaders().get(rule.getRequiredKey())));
+                return getPredicate(rule, x -> x.asView().getHeader(rule.getRequiredKey()));
             default:
                 throw new EmulatorException(String.format("Rule [%s] is not supported", rule));
         }
     }
 
-    private static Predicate<HttpRequestContainer> getPredicate(Rule rule, ValueExtractor<HttpRequestContainer> valueExtractor) {
+    /**
+     * Compiles all of the supplied rules into a single predicate which matches only if every rule matches, and which
+     * the JIT can optimise far better than the equivalent chain of {@link #getPredicate(Rule)} predicates.
+     * @param rules The rules in the order they should be evaluated
+     */
+    public static Predicate<HttpRequestContainer> compile(List<Rule> rules) {
+        LOG.debug("Compiling predicate for rules {}", rules); // NOSONAR
+        return new CompiledRulePredicate(rules);
+    }
+
+    /**
+     * Works out which kind of matching the supplied rule asks for. This is the single place where the rule text
+     * keywords are interpreted so that anything which needs to reason about a rule (e.g. the rule index) agrees
+     * with the predicate that is actually built for it.
+     */
+    public static Rule.MatchTypes getMatchType(Rule rule) {
         if (rule.getRuleText().contains(IS_KEYWORD)) {
-            LOG.debug("Adding '{}' predicate for rule [{}]", IS_KEYWORD, rule); // NOSONAR
-            return Predicates.equalsPredicate(valueExtractor, rule.getRequiredValue());
+            return Rule.MatchTypes.IS;
         } else if (rule.getRuleText().contains(CONTAINS_KEYWORD)) {
-            LOG.debug("Adding '{}' predicate for rule [{}]", CONTAINS_KEYWORD, rule);
-            return Predicates.containsPredicate(valueExtractor, rule.getRequiredValue());
+            return Rule.MatchTypes.CONTAINS;
         } else if (rule.getRuleText().contains(ENDS_WITH_KEYWORD)) {
-            LOG.debug("Adding '{}' predicate for rule [{}]", ENDS_WITH_KEYWORD, rule);
-            return Predicates.endsWithPredicate(valueExtractor, rule.getRequiredValue());
+            return Rule.MatchTypes.ENDS_WITH;
         } else if (rule.getRuleText().contains(STARTS_WITH_KEYWORD)) {
-            LOG.debug("Adding '{}' predicate for rule [{}]", STARTS_WITH_KEYWORD, rule);
-            return Predicates.startsWithPredicate(valueExtractor, rule.getRequiredValue());
+            return Rule.MatchTypes.STARTS_WITH;
         } else if (rule.getRuleText().contains(MATCHES_KEYWORD)) {
-            LOG.debug("Adding '{}' predicate for rule [{}]", MATCHES_KEYWORD, rule);
-            return Predicates.matchesPredicate(valueExtractor, rule.getRequiredValue());
+            return Rule.MatchTypes.MATCHES;
         } else {
             LOG.debug("Rule [{}] is not supported, ignoring....", rule);
             throw new EmulatorException(String.format("Rule [%s] is not supported, ignoring....", rule));
         }
     }
 
-    private static String getFirst(List<String> list) {
-        return CollectionUtils.isEmpty(list) ? null : list.get(0);
+    /**
+     * Estimates how expensive the rule is to evaluate against a request, relative to the other rules, so that the
+     * cheapest rules of a predicate can be checked first. From cheapest to most expensive the order is http method,
+     * url, url parameters and headers, body, and then any regular expression match.
+     */
+    public static int getEvaluationCost(Rule rule) {
+        int attributeCost;
+        switch (rule.getRuleType()) {
+            case HTTP_METHOD:
+                attributeCost = 0;
+                break;
+            case URL:
+                attributeCost = 1;
+                break;
+            case URL_PARAMETER:
+            case HEADER:
+                attributeCost = 2;
+                break;
+            default:
+                attributeCost = 3;
+        }
+        return getMatchType(rule) == Rule.MatchTypes.MATCHES
+                ? REGULAR_EXPRESSION_EVALUATION_COST + attributeCost
+                : attributeCost;
+    }
+
+    private static Predicate<HttpRequestContainer> getPredicate(Rule rule, ValueExtractor<HttpRequestContainer> valueExtractor) {
+        Rule.MatchTypes matchType = getMatchType(rule);
+        LOG.debug("Adding '{}' predicate for rule [{}]", matchType, rule); // NOSONAR
+        switch (matchType) {
+            case IS:
+                return Predicates.equalsPredicate(valueExtractor, rule.getRequiredValue());
+            case CONTAINS:
+                return Predicates.containsPredicate(valueExtractor, rule.getRequiredValue());
+            case ENDS_WITH:
+                return Predicates.endsWithPredicate(valueExtractor, rule.getRequiredValue());
+            case STARTS_WITH:
+                return Predicates.startsWithPredicate(valueExtractor, rule.getRequiredValue());
+            case MATCHES:
+                return Predicates.matchesPredicate(valueExtractor, rule.getRequiredValue());
+            default:
+                throw new EmulatorException(String.format("Rule [%s] is not supported, ignoring....", rule));
+        }
     }
 
 }
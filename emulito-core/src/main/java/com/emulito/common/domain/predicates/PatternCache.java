@@ -0,0 +1,31 @@
+package com.emulito.common.domain.predicates;
+
+import com.emulito.common.exception.EmulatorException;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.regex.Pattern;
+
+/**
+ * Shared cache of compiled regular expressions so that rules using the same regex share one {@link Pattern}.
+ * Values are weakly referenced so patterns are released once no installed rule uses them anymore.
+ */
+final class PatternCache {
+
+    private static final LoadingCache<String, Pattern> PATTERNS = CacheBuilder.newBuilder()
+            .weakValues()
+            .build(CacheLoader.from(Pattern::compile));
+
+    private PatternCache() {
+    }
+
+    static Pattern getPattern(String regex) {
+        try {
+            return PATTERNS.getUnchecked(regex);
+        } catch (UncheckedExecutionException e) {
+            throw new EmulatorException(String.format("Rule value [%s] is not a valid regular expression", regex), e);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.emulito.common.domain.http.HttpRequestContainer;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 /**
  * Created by Ashley Waldron (e062130) on 1/10/2019.
@@ -14,8 +15,11 @@ final class Predicates {
     }
 
     static Predicate<HttpRequestContainer> matchesPredicate(ValueExtractor<HttpRequestContainer> valueExtractor, String requiredValue) {
-        return o -> (valueExtractor.get(o) == null && requiredValue == null) ||
-                (valueExtractor.get(o) != null && valueExtractor.get(o).matches(requiredValue));
+        Pattern pattern = requiredValue == null ? null : PatternCache.getPattern(requiredValue);
+        return o -> {
+            String value = valueExtractor.get(o);
+            return value == null ? pattern == null : pattern != null && pattern.matcher(value).matches();
+        };
     }
 
     static Predicate<HttpRequestContainer> startsWithPredicate(ValueExtractor<HttpRequestContainer> valueExtractor, String requiredValue) {
@@ -11,6 +11,12 @@ import java.util.function.Predicate;
  */
 public interface RequestPredicate extends Predicate<HttpRequestContainer> {
 
+    /**
+     * @return The id assigned to this predicate when it was built. Ids are unique for the lifetime of the emulator
+     * and identify the response rule that the predicate was built for.
+     */
+    long getId();
+
     List<String> getRules();
 
     HttpResponseRule.LifeTimes getTimeToLive();
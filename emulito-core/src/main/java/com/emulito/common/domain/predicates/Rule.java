@@ -24,6 +24,14 @@ public final class Rule {
         HEADER
     }
 
+    public enum MatchTypes {
+        IS,
+        CONTAINS,
+        ENDS_WITH,
+        STARTS_WITH,
+        MATCHES
+    }
+
     private String ruleText;
     private String ruleMatchText;
     private String requiredValue;
@@ -0,0 +1,11 @@
+package com.emulito.common.exception;
+
+/**
+ * Thrown when a test client refers to a response rule which is not installed in the emulator.
+ */
+public class ResponseRuleNotFoundException extends EmulatorException {
+
+    public ResponseRuleNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,140 @@
+package com.emulito.common.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton which finds which of a set of needles occur in a piece of text in a single pass over it.
+ * <br/>
+ * <br/>
+ * Each needle is supplied along with an id, and {@link #scan(String)} returns the ids of every needle found in the
+ * text. Instances are immutable once built and so are safe to share between threads.
+ */
+final class AhoCorasickAutomaton {
+
+    private static final int ROOT = 0;
+    private static final int NO_TRANSITION = -1;
+    private static final int[] NO_OUTPUTS = new int[0];
+
+    private final char[][] transitionCharacters;
+    private final int[][] transitionStates;
+    private final int[] failureStates;
+    private final int[][] outputs;
+    private final int maxNeedleId;
+
+    /**
+     * @param needles The needles to search for, keyed by their id. Empty needles are ignored.
+     */
+    AhoCorasickAutomaton(Map<Integer, String> needles) {
+        List<Map<Character, Integer>> gotoFunction = new ArrayList<>();
+        List<List<Integer>> stateOutputs = new ArrayList<>();
+        gotoFunction.add(new HashMap<>());
+        stateOutputs.add(new ArrayList<>());
+        int maxId = -1;
+        for (Map.Entry<Integer, String> needle : needles.entrySet()) {
+            if (needle.getValue().isEmpty()) {
+                continue;
+            }
+            int state = ROOT;
+            for (char character : needle.getValue().toCharArray()) {
+                Integer nextState = gotoFunction.get(state).get(character);
+                if (nextState == null) {
+                    nextState = gotoFunction.size();
+                    gotoFunction.add(new HashMap<>());
+                    stateOutputs.add(new ArrayList<>());
+                    gotoFunction.get(state).put(character, nextState);
+                }
+                state = nextState;
+            }
+            stateOutputs.get(state).add(needle.getKey());
+            maxId = Math.max(maxId, needle.getKey());
+        }
+        this.maxNeedleId = maxId;
+
+        int stateCount = gotoFunction.size();
+        transitionCharacters = new char[stateCount][];
+        transitionStates = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            Character[] characters = gotoFunction.get(state).keySet().toArray(new Character[0]);
+            Arrays.sort(characters);
+            transitionCharacters[state] = new char[characters.length];
+            transitionStates[state] = new int[characters.length];
+            for (int i = 0; i < characters.length; i++) {
+                transitionCharacters[state][i] = characters[i];
+                transitionStates[state][i] = gotoFunction.get(state).get(characters[i]);
+            }
+        }
+
+        // breadth first so that the failure state of every shallower state is known before it is needed
+        failureStates = new int[stateCount];
+        outputs = new int[stateCount][];
+        outputs[ROOT] = NO_OUTPUTS;
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : transitionStates[ROOT]) {
+            failureStates[child] = ROOT;
+            outputs[child] = toArray(stateOutputs.get(child), NO_OUTPUTS);
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int i = 0; i < transitionCharacters[state].length; i++) {
+                char character = transitionCharacters[state][i];
+                int child = transitionStates[state][i];
+                int failureState = failureStates[state];
+                while (failureState != ROOT && transition(failureState, character) == NO_TRANSITION) {
+                    failureState = failureStates[failureState];
+                }
+                int failureTarget = transition(failureState, character);
+                failureStates[child] = failureTarget == NO_TRANSITION ? ROOT : failureTarget;
+                outputs[child] = toArray(stateOutputs.get(child), outputs[failureStates[child]]);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * @return The ids of every needle which occurs somewhere in the text
+     */
+    BitSet scan(String text) {
+        BitSet found = new BitSet(maxNeedleId + 1);
+        if (text == null || maxNeedleId < 0) {
+            return found;
+        }
+        int state = ROOT;
+        for (int index = 0; index < text.length(); index++) {
+            char character = text.charAt(index);
+            int nextState = transition(state, character);
+            while (nextState == NO_TRANSITION && state != ROOT) {
+                state = failureStates[state];
+                nextState = transition(state, character);
+            }
+            state = nextState == NO_TRANSITION ? ROOT : nextState;
+            for (int needleId : outputs[state]) {
+                found.set(needleId);
+            }
+        }
+        return found;
+    }
+
+    private int transition(int state, char character) {
+        int index = Arrays.binarySearch(transitionCharacters[state], character);
+        return index < 0 ? NO_TRANSITION : transitionStates[state][index];
+    }
+
+    private static int[] toArray(List<Integer> ownOutputs, int[] inheritedOutputs) {
+        if (ownOutputs.isEmpty()) {
+            return inheritedOutputs;
+        }
+        int[] result = Arrays.copyOf(inheritedOutputs, inheritedOutputs.length + ownOutputs.size());
+        for (int i = 0; i < ownOutputs.size(); i++) {
+            result[inheritedOutputs.length + i] = ownOutputs.get(i);
+        }
+        return result;
+    }
+}
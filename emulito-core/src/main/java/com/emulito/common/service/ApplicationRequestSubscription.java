@@ -0,0 +1,124 @@
+package com.emulito.common.service;
+
+import com.emulito.common.domain.http.CapturedRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A test client's subscription to every application request captured, optionally of just one request type.
+ * <br/>
+ * <br/>
+ * Captured requests are offered to the subscription on the thread which received them, which only ever adds them
+ * to the subscription's own bounded buffer and never waits. They are then passed to the {@link Listener} one at a
+ * time on a separate thread, so however slowly the listener sends them on it never slows down the application's
+ * requests. If the listener falls so far behind that the buffer fills up, requests are dropped according to the
+ * {@link DropPolicy} and the listener is told how many were dropped along with the next request it is passed.
+ */
+public class ApplicationRequestSubscription {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ApplicationRequestSubscription.class);
+
+    /**
+     * What to drop when a subscription's buffer is full
+     */
+    public enum DropPolicy {
+        /** Drop the oldest buffered request to make room, so the listener always catches up with the latest */
+        OLDEST,
+        /** Drop the new request, so the listener sees an unbroken run of requests up to when it fell behind */
+        NEWEST
+    }
+
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @param dropped The number of requests dropped since the last request passed to the listener
+         * @throws IOException If the request could not be sent on, which cancels the subscription
+         */
+        void onRequest(CapturedRequest capturedRequest, long dropped) throws IOException;
+    }
+
+    private final String requestType;
+    private final BlockingQueue<CapturedRequest> buffer;
+    private final DropPolicy dropPolicy;
+    private final Listener listener;
+    private final Executor executor;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean cancelled;
+
+    /**
+     * @param requestType The request type to subscribe to, or null for every request type
+     * @param executor    Runs the listener, it must not run tasks on the calling thread
+     */
+    ApplicationRequestSubscription(String requestType, int bufferSize, DropPolicy dropPolicy, Listener listener, Executor executor) {
+        this.requestType = requestType;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.dropPolicy = dropPolicy;
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    /**
+     * Stops passing requests to the listener, any still buffered are discarded
+     */
+    public void cancel() {
+        cancelled = true;
+        buffer.clear();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void offer(CapturedRequest capturedRequest) {
+        if (cancelled || (requestType != null && !requestType.equals(capturedRequest.getRequestType()))) {
+            return;
+        }
+        if (dropPolicy == DropPolicy.NEWEST) {
+            if (!buffer.offer(capturedRequest)) {
+                dropped.incrementAndGet();
+            }
+        } else {
+            while (!buffer.offer(capturedRequest)) {
+                if (buffer.poll() != null) {
+                    dropped.incrementAndGet();
+                }
+            }
+        }
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Application request subscription cancelled as the emulator is shutting down");
+                cancel();
+            }
+        }
+    }
+
+    /**
+     * Passes buffered requests to the listener until there are none left. Only ever run by one thread at a time.
+     */
+    private void drain() {
+        do {
+            CapturedRequest capturedRequest;
+            while (!cancelled && (capturedRequest = buffer.poll()) != null) {
+                try {
+                    listener.onRequest(capturedRequest, dropped.getAndSet(0));
+                } catch (IOException | RuntimeException e) {
+                    LOG.debug("Cancelling application request subscription, the subscriber can not be sent requests", e);
+                    cancel();
+                }
+            }
+            draining.set(false);
+            // a request offered after the buffer was found empty, but before draining was unset, must not be stranded
+        } while (!cancelled && !buffer.isEmpty() && draining.compareAndSet(false, true));
+    }
+}
@@ -0,0 +1,112 @@
+package com.emulito.common.service;
+
+import com.emulito.common.domain.http.CapturedRequest;
+import com.emulito.common.domain.http.HttpRequestContainer;
+import com.emulito.common.domain.predicates.HttpRequestPredicateFactory;
+import com.emulito.common.domain.predicates.Rule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hash indexes over the stored application requests of one request type, on the first value of each of a set of
+ * header and url parameter keys. That is the same value a "headers contain entry" or "url parameters contain
+ * parameter" rule tests, so a query with an "is" rule on an indexed key only has to test the requests with that
+ * value rather than every stored request.
+ * <br/>
+ * <br/>
+ * Requests are added as they are stored and removed by whoever takes or evicts them, just after they are taken. A
+ * request found here may therefore have just been taken, so should be checked with
+ * {@link RequestCaptureBuffer#contains(RequestCaptureBuffer.Entry)} before it is used.
+ */
+final class CapturedRequestIndex {
+
+    // keyed by header name, then by the header's first value, then by the request (which is compared by identity),
+    // so that a request is removed without searching the other requests with the same value
+    private final Map<String, Map<String, Map<CapturedRequest, RequestCaptureBuffer.Entry>>> headerIndexes = new ConcurrentHashMap<>();
+    // keyed by url parameter name, then as for headerIndexes
+    private final Map<String, Map<String, Map<CapturedRequest, RequestCaptureBuffer.Entry>>> paramIndexes = new ConcurrentHashMap<>();
+
+    CapturedRequestIndex(Collection<String> headerKeys, Collection<String> paramKeys) {
+        headerKeys.forEach(key -> headerIndexes.put(key, new ConcurrentHashMap<>()));
+        paramKeys.forEach(key -> paramIndexes.put(key, new ConcurrentHashMap<>()));
+    }
+
+    void add(RequestCaptureBuffer.Entry entry) {
+        HttpRequestContainer request = entry.getCapturedRequest().getRequest();
+        // getHeaders returns a copy, so it is only read once however many headers are indexed
+        Map<String, List<String>> headers = headerIndexes.isEmpty() ? null : request.getHeaders();
+        Map<String, List<String>> params = request.getParams();
+        headerIndexes.forEach((key, index) -> add(index, getFirst(headers, key), entry));
+        paramIndexes.forEach((key, index) -> add(index, getFirst(params, key), entry));
+    }
+
+    void remove(CapturedRequest capturedRequest) {
+        HttpRequestContainer request = capturedRequest.getRequest();
+        Map<String, List<String>> headers = headerIndexes.isEmpty() ? null : request.getHeaders();
+        Map<String, List<String>> params = request.getParams();
+        headerIndexes.forEach((key, index) -> remove(index, getFirst(headers, key), capturedRequest));
+        paramIndexes.forEach((key, index) -> remove(index, getFirst(params, key), capturedRequest));
+    }
+
+    /**
+     * @return The requests which have the value the rule requires, oldest first, or null if the rule can't be
+     * answered from the indexes (it isn't an "is" rule on an indexed key)
+     */
+    List<RequestCaptureBuffer.Entry> find(Rule rule) {
+        Map<String, Map<CapturedRequest, RequestCaptureBuffer.Entry>> index;
+        if (rule.getRuleType() == Rule.RuleTypes.HEADER) {
+            index = headerIndexes.get(rule.getRequiredKey());
+        } else if (rule.getRuleType() == Rule.RuleTypes.URL_PARAMETER) {
+            index = paramIndexes.get(rule.getRequiredKey());
+        } else {
+            return null;
+        }
+        if (index == null || HttpRequestPredicateFactory.getMatchType(rule) != Rule.MatchTypes.IS) {
+            return null;
+        }
+        Map<CapturedRequest, RequestCaptureBuffer.Entry> entries = index.get(rule.getRequiredValue());
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+        List<RequestCaptureBuffer.Entry> found = new ArrayList<>(entries.values());
+        // a request put back after being taken is added again with a later sequence number
+        found.sort(Comparator.comparingLong(RequestCaptureBuffer.Entry::getSequence));
+        return found;
+    }
+
+    private static void add(Map<String, Map<CapturedRequest, RequestCaptureBuffer.Entry>> index, String value,
+                            RequestCaptureBuffer.Entry entry) {
+        if (value == null) {
+            return;
+        }
+        // computed, so that the value's requests are never added to just as they are being removed for being empty
+        index.compute(value, (k, entries) -> {
+            Map<CapturedRequest, RequestCaptureBuffer.Entry> result = entries == null ? new ConcurrentHashMap<>() : entries;
+            // a request put back after being taken replaces its old entry
+            result.put(entry.getCapturedRequest(), entry);
+            return result;
+        });
+    }
+
+    private static void remove(Map<String, Map<CapturedRequest, RequestCaptureBuffer.Entry>> index, String value,
+                               CapturedRequest capturedRequest) {
+        if (value == null) {
+            return;
+        }
+        index.computeIfPresent(value, (k, entries) -> {
+            entries.remove(capturedRequest);
+            return entries.isEmpty() ? null : entries;
+        });
+    }
+
+    private static String getFirst(Map<String, List<String>> values, String key) {
+        List<String> keyValues = values == null ? null : values.get(key);
+        return keyValues == null || keyValues.isEmpty() ? null : keyValues.get(0);
+    }
+}
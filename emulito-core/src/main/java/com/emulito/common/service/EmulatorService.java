@@ -1,25 +1,50 @@
 package com.emulito.common.service;
 
 import com.emulito.common.domain.predicates.RequestPredicate;
+import com.emulito.common.domain.predicates.Rule;
 import com.emulito.common.exception.EmulatorException;
+import com.emulito.common.exception.ResponseRuleNotFoundException;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.emulito.common.domain.http.CapturedRequest;
+import com.emulito.common.domain.http.EncodedResponse;
 import com.emulito.common.domain.http.HttpRequestContainer;
 import com.emulito.common.domain.http.HttpResponseRule;
 import com.emulito.common.domain.http.HttpResponseContainer;
+import com.emulito.common.utils.EmulatorClock;
+import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.Comparator;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static java.lang.String.format;
@@ -32,6 +57,8 @@ public class EmulatorService {
     private static final Logger LOG = LoggerFactory.getLogger(EmulatorService.class);
     private static final String EMULATOR_PRESET_RESPONSE_FILE_EXTENSION = ".json";
     private static final String DEFAULT_RESPONSES_DIRECTORY_PATTERN = "responses/defaults/**";
+    // how many used single use predicates can be left installed before a request thread removes them
+    private static final int CONSUMED_PREDICATE_BATCH_SIZE = 64;
 
     @Autowired
     private RequestResponseHandler requestResponseHandler;
@@ -39,23 +66,59 @@ public class EmulatorService {
     @Autowired
     private PredicateBuilder predicateBuilder;
 
-    private final Set<RequestPredicate> requestPredicates = new TreeSet<>(priorityComparator());
+    @Autowired
+    private EmulatorClock emulatorClock;
+
+    private final RequestPredicateIndex requestPredicateIndex = new RequestPredicateIndex();
+
+    private volatile RequestPredicateSnapshot requestPredicateSnapshot = new RequestPredicateSnapshot(0L, new RequestPredicateIndex());
+
+    /**
+     * When enabled, the rules of every installed predicate (other than single use ones) are compiled in the
+     * background once installed, see {@link PredicateBuilder#compile(RequestPredicate)}
+     */
+    @Value("${emulito.rules.compile:false}")
+    private boolean compileRules;
+
+    private ExecutorService ruleCompiler;
+
+    /**
+     * The only directory response body files on the file system can be served from, see {@link EncodedResponse}
+     */
+    @Value("${emulito.responses.bodyFileDirectory:responses}")
+    private String bodyFileDirectory = "responses";
+
+    // bodyFileDirectory resolved once, so that it isn't on every response served
+    private Path bodyFileDirectoryPath = Paths.get(bodyFileDirectory).toAbsolutePath().normalize();
+
+    private final AtomicBoolean ruleCompilationPending = new AtomicBoolean();
+
+    // single use predicates whose response has been used but which are still installed, see consumeSingleUseResponse
+    private final Queue<RequestPredicate> consumedPredicates = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger consumedPredicateCount = new AtomicInteger();
+    private final AtomicBoolean consumedPredicateRemovalPending = new AtomicBoolean();
 
     private ObjectMapper objectMapper = new ObjectMapper();
 
     @PostConstruct
     public void init() {
-        loadDefaultResponses();
+        bodyFileDirectoryPath = Paths.get(bodyFileDirectory).toAbsolutePath().normalize();
+        if (compileRules) {
+            ruleCompiler = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("emulito-rule-compiler").setDaemon(true).build());
+        }
+        synchronized (requestPredicateIndex) {
+            // default responses are all published together in a single snapshot
+            loadDefaultResponses();
+            publishSnapshot();
+        }
     }
 
-    private Comparator<RequestPredicate> priorityComparator() {
-        return (o1, o2) -> {
-            if(o1.equals(o2)) {
-                return 0;
-            } else {
-                return (o2.getPriority() > o1.getPriority()) ? 1 : -1;
-            }
-        };
+    @PreDestroy
+    public void destroy() {
+        if (ruleCompiler != null) {
+            ruleCompiler.shutdownNow();
+        }
     }
 
     private void loadDefaultResponses() {
@@ -84,12 +147,11 @@ public class EmulatorService {
 
 
     public void reset() {
-        synchronized (requestPredicates) {
-            Set<RequestPredicate> predicatesToRemove = requestPredicates.stream()
-                    .filter(requestPredicate -> requestPredicate.getTimeToLive() != HttpResponseRule.LifeTimes.FOREVER)
-                    .collect(Collectors.toSet());
+        synchronized (requestPredicateIndex) {
+            Set<RequestPredicate> predicatesToRemove = requestPredicateIndex.removeIf(
+                    requestPredicate -> requestPredicate.getTimeToLive() != HttpResponseRule.LifeTimes.FOREVER);
+            publishSnapshot();
             requestResponseHandler.reset(predicatesToRemove);
-            requestPredicates.removeAll(predicatesToRemove);
         }
     }
 
@@ -97,29 +159,178 @@ public class EmulatorService {
         return requestResponseHandler.getLastApplicationRequest(requestType);
     }
 
-    public void addResponseRule(HttpResponseRule responseRule) {
+    /**
+     * Writes out a page of the application requests held for the request types, oldest first, either as a JSON array
+     * or as newline delimited JSON (one request per line). Each request is serialised straight to the stream as it
+     * is written.
+     * @param offset The number of requests to skip, counting from the oldest
+     * @param limit  The most requests to write
+     * @param drain  true to take the requests written so that they aren't returned again, false to leave them
+     * @return The number of requests written
+     */
+    public int writeApplicationRequests(Collection<String> requestTypes, int offset, int limit, boolean drain,
+                                        boolean newlineDelimited, OutputStream outputStream) {
+        List<CapturedRequest> capturedRequests = requestResponseHandler.getApplicationRequests(requestTypes, offset, limit, drain);
+        ObjectWriter writer = objectMapper.writerFor(CapturedRequest.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream, JsonEncoding.UTF8)) {
+            // the caller owns the stream
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (newlineDelimited) {
+                generator.setRootValueSeparator(null);
+                for (CapturedRequest capturedRequest : capturedRequests) {
+                    writer.writeValue(generator, capturedRequest);
+                    generator.writeRaw('\n');
+                }
+            } else {
+                generator.writeStartArray();
+                for (CapturedRequest capturedRequest : capturedRequests) {
+                    writer.writeValue(generator, capturedRequest);
+                }
+                generator.writeEndArray();
+            }
+        } catch (IOException e) {
+            throw new EmulatorException(format("Could not write the application requests %s", requestTypes), e);
+        }
+        return capturedRequests.size();
+    }
+
+    /**
+     * Finds the application requests of the query's request type which match every one of its rules, oldest first.
+     * The rules are written just as they are for a response rule predicate.
+     * @param limit The most requests to return
+     * @param drain true to take the requests returned so that they aren't returned again, false to leave them
+     */
+    public List<CapturedRequest> queryApplicationRequests(HttpResponseRule.CustomRequestPredicateDefinition query, int limit, boolean drain) {
+        if (query == null || StringUtils.isEmpty(query.getRequestType()) || CollectionUtils.isEmpty(query.getRules())) {
+            throw new EmulatorException(
+                    format("A request type and at least one rule must be supplied to query application requests [%s]", query));
+        }
+        List<Rule> rules = query.getRules().stream()
+                .map(Rule.RuleBuilder::build)
+                .collect(Collectors.toList());
+        return requestResponseHandler.queryApplicationRequests(query.getRequestType(), rules, limit, drain);
+    }
+
+    /**
+     * Hands the waiter the last application request of the request type as soon as there is one, without blocking
+     * the calling thread. The waiter returns false if it no longer wants the request.
+     */
+    public void waitForApplicationRequest(String requestType, Predicate<HttpRequestContainer> waiter) {
+        requestResponseHandler.waitForApplicationRequest(requestType, waiter);
+    }
+
+    public void stopWaitingForApplicationRequest(String requestType, Predicate<HttpRequestContainer> waiter) {
+        requestResponseHandler.stopWaitingForApplicationRequest(requestType, waiter);
+    }
+
+    /**
+     * Subscribes to every application request captured from now on, optionally of just one request type. Cancel the
+     * returned subscription once done with it.
+     * @param requestType The request type to subscribe to, or null for every request type
+     * @param bufferSize  How many requests can be waiting to be passed to the listener before some are dropped
+     */
+    public ApplicationRequestSubscription subscribeToApplicationRequests(String requestType, int bufferSize,
+                                                                         ApplicationRequestSubscription.DropPolicy dropPolicy,
+                                                                         ApplicationRequestSubscription.Listener listener) {
+        return requestResponseHandler.subscribe(requestType, bufferSize, dropPolicy, listener);
+    }
+
+    /**
+     * @return true if every application request is being kept in the request journal
+     */
+    public boolean isRequestJournalEnabled() {
+        return requestResponseHandler.isRequestJournalEnabled();
+    }
+
+    /**
+     * Writes out, as a JSON array, the journalled requests of the request type received from fromMillis (inclusive)
+     * to toMillis (exclusive), oldest first
+     * @param limit The most requests to write
+     * @return The number of requests written
+     */
+    public int writeJournalledRequests(String requestType, long fromMillis, long toMillis, int limit, OutputStream outputStream) {
+        try {
+            return requestResponseHandler.writeJournalledRequests(requestType, fromMillis, toMillis, limit, outputStream);
+        } catch (IOException e) {
+            throw new EmulatorException(format("Could not write the journalled [%s] requests", requestType), e);
+        }
+    }
+
+    /**
+     * @return The id of the newly added rule, which can be used to remove it again
+     */
+    public long addResponseRule(HttpResponseRule responseRule) {
         LOG.info("Adding response rule:\n[{}]", responseRule);
-        synchronized (requestPredicates) {
-            addResponseForPredicate(responseRule);
+        synchronized (requestPredicateIndex) {
+            RequestPredicate requestPredicate = addResponseForPredicate(responseRule);
+            publishSnapshot();
+            return requestPredicate.getId();
+        }
+    }
+
+    /**
+     * Removes a single response rule regardless of its time to live
+     * @param id The id returned when the rule was added
+     */
+    public void removeResponseRule(long id) {
+        LOG.info("Removing response rule [{}]", id);
+        synchronized (requestPredicateIndex) {
+            // a single use rule which has been used is no longer installed, even if it hasn't been removed yet
+            removeConsumedPredicates();
+            RequestPredicate requestPredicate = requestPredicateIndex.get(id);
+            if (requestPredicate == null) {
+                throw new ResponseRuleNotFoundException(format("Response rule [%s] is not installed in the emulator", id));
+            }
+            requestPredicateIndex.remove(requestPredicate);
+            publishSnapshot();
+            requestResponseHandler.removeNextResponse(requestPredicate);
         }
     }
 
+    /**
+     * Finds the response for the application request and waits out any delay set up for it before returning it.
+     * Blocks the calling thread for the whole delay, see {@link #matchResponse(HttpRequestContainer)} to wait for
+     * the delay some other way
+     */
     public HttpResponseContainer getResponse(HttpRequestContainer requestContainer) {
-        LOG.info("Application Request received was: [{}]", requestContainer);
+        HttpResponseRule nextResponse = matchResponse(requestContainer);
+        waitForDelay(nextResponse);
+        LOG.info("Replying with response [{}]", nextResponse);
+        return nextResponse.getResponse();
+    }
 
+    /**
+     * Finds the response rule for the application request without waiting for its delay, leaving the caller to
+     * return the response once the delay (see {@link HttpResponseRule#getDelay()}) has passed
+     */
+    public HttpResponseRule matchResponse(HttpRequestContainer requestContainer) {
+        RequestPredicateSnapshot snapshot = requestPredicateSnapshot;
         RequestPredicate requestPredicate;
         HttpResponseRule nextResponse;
-        synchronized (requestPredicates) {
-            requestPredicate = getPredicateForRequest(requestContainer);
-            if (requestPredicate.getTimeToLive() == HttpResponseRule.LifeTimes.SINGLE_USE) {
-                LOG.debug("Getting temporary response set up for predicate [{}]", requestPredicate);
-                nextResponse = requestResponseHandler.removeNextResponse(requestPredicate);
-                requestPredicates.remove(requestPredicate);
-            } else {
+        boolean retry;
+        do {
+            requestPredicate = getPredicateForRequest(snapshot, requestContainer);
+            if (requestPredicate.getTimeToLive() != HttpResponseRule.LifeTimes.SINGLE_USE) {
                 LOG.debug("Getting default/permanent response set up for predicate [{}]", requestPredicate);
                 nextResponse = requestResponseHandler.getNextResponse(requestPredicate);
+                retry = false;
+            } else if (snapshot.claim(requestPredicate)) {
+                LOG.debug("Getting temporary response set up for predicate [{}]", requestPredicate);
+                nextResponse = consumeSingleUseResponse(requestPredicate);
+                retry = false;
+            } else {
+                // another request claimed this single use response first, so fall through to the next matching rule
+                LOG.debug("Temporary response for predicate [{}] was already used, trying the next match", requestPredicate);
+                nextResponse = null;
+                retry = true;
             }
-        }
+            if (nextResponse == null && snapshot != requestPredicateSnapshot) {
+                // the rules changed while matching (e.g. by a reset) so match again against the latest rules
+                snapshot = requestPredicateSnapshot;
+                retry = true;
+            }
+        } while (nextResponse == null && retry);
         requestResponseHandler.setLastApplicationRequest(requestPredicate.getRequestType(), requestContainer);
 
         if (nextResponse == null) {
@@ -128,40 +339,165 @@ public class EmulatorService {
                             "Received an unknown application request. Please ensure that there " +
                                     "is a default response set up which will match the following request [%s]", requestContainer));
 		}
-        sleep(nextResponse);
-        LOG.info("Replying with response [{}]", nextResponse);
-        return nextResponse.getResponse();
+        return nextResponse;
     }
 
-    private void sleep(HttpResponseRule nextResponse) {
+    /**
+     * Blocks the calling thread for the delay set up for the response, if any
+     */
+    private void waitForDelay(HttpResponseRule nextResponse) {
         HttpResponseRule.Delay delay = nextResponse.getDelay();
         if (delay == null) {
             LOG.debug("No delay set for response");
             return;
         }
-        LOG.debug("Waiting for preset [{}] milliseconds before returning.....", delay.getDelayTimeInMillis());
-        if (delay.getDelayTimeInMillis() > 0) {
+        waitForDelay(delay.sampleDelayMillis());
+    }
+
+    /**
+     * Blocks the calling thread for a delay already sampled from a response's delay setup, measured in emulator time
+     * (see {@link EmulatorClock})
+     */
+    public void waitForDelay(long delayMillis) {
+        LOG.debug("Waiting for preset [{}] milliseconds before returning.....", delayMillis);
+        if (delayMillis > 0) {
             try {
-                Thread.sleep(delay.getDelayTimeInMillis());
+                emulatorClock.sleep(delayMillis);
             } catch (Exception e) {
                 throw new EmulatorException("The thread was interrupted while implementing a response wait time", e);
             }
         }
     }
 
-    private RequestPredicate getPredicateForRequest(HttpRequestContainer requestContainer) {
-        return requestPredicates.stream()
-                .filter(requestPredicate -> requestPredicate.test(requestContainer))
-                .findFirst()
-                .orElseThrow(()-> new EmulatorException(format("Unknown application request %s", requestContainer)));
+    /**
+     * Changes how fast emulator time, which all response delays are measured in, runs compared to real time
+     * @param scale e.g. 100 to run delays 100 times faster than they are set up, or 1 to go back to real time
+     */
+    public void setClockScale(double scale) {
+        LOG.info("Setting emulator clock scale to [{}]", scale);
+        emulatorClock.setScale(scale);
     }
 
-    private void addResponseForPredicate(HttpResponseRule responseRule) {
+    /**
+     * Moves emulator time forward, ending any response delays due within that time straight away
+     */
+    public void advanceClock(long millis) {
+        LOG.info("Advancing emulator clock by [{}] milliseconds", millis);
+        emulatorClock.advance(millis);
+    }
+
+    public double getClockScale() {
+        return emulatorClock.getScale();
+    }
+
+    /**
+     * @return The directory response body files on the file system are resolved against, and must be inside of, to
+     * encode responses with (see {@link HttpResponseContainer#encode(Path)})
+     */
+    public Path getBodyFileDirectory() {
+        return bodyFileDirectoryPath;
+    }
+
+    /**
+     * Takes the response of a single use predicate which this request has already claimed. Claiming is what
+     * guarantees the response is only used once and hides the predicate from every later lookup, so the predicate is
+     * only removed from the installed rules later on, in batches. That happens on the rule compiler thread when there
+     * is one, otherwise whenever the rules next change or once {@value #CONSUMED_PREDICATE_BATCH_SIZE} have been used,
+     * so that requests don't each copy the installed rules.
+     */
+    private HttpResponseRule consumeSingleUseResponse(RequestPredicate requestPredicate) {
+        HttpResponseRule nextResponse = requestResponseHandler.removeNextResponse(requestPredicate);
+        consumedPredicates.add(requestPredicate);
+        int consumedCount = consumedPredicateCount.incrementAndGet();
+        if (ruleCompiler != null) {
+            if (consumedPredicateRemovalPending.compareAndSet(false, true)) {
+                ruleCompiler.execute(this::removeConsumedPredicatesAndPublish);
+            }
+        } else if (consumedCount >= CONSUMED_PREDICATE_BATCH_SIZE) {
+            removeConsumedPredicatesAndPublish();
+        }
+        return nextResponse;
+    }
+
+    private void removeConsumedPredicatesAndPublish() {
+        // cleared first so that anything consumed from here on is removed by another pass
+        consumedPredicateRemovalPending.set(false);
+        synchronized (requestPredicateIndex) {
+            if (!consumedPredicates.isEmpty()) {
+                publishSnapshot();
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the lock on {@link #requestPredicateIndex}
+     */
+    private void removeConsumedPredicates() {
+        RequestPredicate requestPredicate;
+        while ((requestPredicate = consumedPredicates.poll()) != null) {
+            consumedPredicateCount.decrementAndGet();
+            requestPredicateIndex.remove(requestPredicate);
+        }
+    }
+
+    /**
+     * Publishes the current state of the installed rules for application requests to match against, first removing
+     * any single use predicates which have been used. Must be called while holding the lock on
+     * {@link #requestPredicateIndex}
+     */
+    private void publishSnapshot() {
+        removeConsumedPredicates();
+        RequestPredicateSnapshot snapshot = new RequestPredicateSnapshot(
+                requestPredicateSnapshot.getVersion() + 1, requestPredicateIndex.copy());
+        requestPredicateSnapshot = snapshot;
+        LOG.debug("Published rule snapshot version [{}] containing [{}] predicates", snapshot.getVersion(), snapshot.size());
+        scheduleRuleCompilation();
+    }
+
+    /**
+     * Queues up compilation of the latest snapshot unless it is already queued, so that a burst of rule changes
+     * results in a single compilation pass
+     */
+    private void scheduleRuleCompilation() {
+        if (ruleCompiler != null && ruleCompilationPending.compareAndSet(false, true)) {
+            ruleCompiler.execute(this::compileRules);
+        }
+    }
+
+    private void compileRules() {
+        // cleared before reading the snapshot so that any change published from here on is compiled by another pass
+        ruleCompilationPending.set(false);
+        RequestPredicateSnapshot snapshot = requestPredicateSnapshot;
+        for (RequestPredicate requestPredicate : snapshot) {
+            if (requestPredicate.getTimeToLive() != HttpResponseRule.LifeTimes.SINGLE_USE) {
+                predicateBuilder.compile(requestPredicate);
+            }
+        }
+        LOG.debug("Compiled rules of snapshot version [{}]", snapshot.getVersion());
+    }
+
+    private RequestPredicate getPredicateForRequest(RequestPredicateSnapshot snapshot, HttpRequestContainer requestContainer) {
+        RequestPredicate requestPredicate = snapshot.find(requestContainer);
+        if (requestPredicate == null) {
+            throw new EmulatorException(format("Unknown application request %s", requestContainer));
+        }
+        return requestPredicate;
+    }
+
+    private RequestPredicate addResponseForPredicate(HttpResponseRule responseRule) {
         LOG.debug("Adding new predicate/response to emulator for:\n[{}]", responseRule);
         RequestPredicate requestPredicate = predicateBuilder.buildPredicate(responseRule);
-        requestPredicates.add(requestPredicate);
+        if (responseRule.getDelay() != null) {
+            responseRule.getDelay().validate();
+        }
+        if (responseRule.getResponse() != null) {
+            // encode up front rather than when the response is first served
+            responseRule.getResponse().encode(getBodyFileDirectory());
+        }
+        requestPredicateIndex.add(requestPredicate);
         LOG.debug("New predicate added to emulator:\n[{}]", requestPredicate);
         requestResponseHandler.setNextResponse(requestPredicate, responseRule);
         LOG.debug("New response added");
+        return requestPredicate;
     }
 }
@@ -8,15 +8,16 @@ import com.emulito.common.domain.http.HttpResponseRule;
 import com.emulito.common.domain.predicates.HttpRequestPredicateFactory;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import java.util.function.Predicate;
 
 /**
@@ -27,27 +28,51 @@ public class PredicateBuilder {
 
     private static final Logger LOG = LoggerFactory.getLogger(PredicateBuilder.class);
 
+    private final AtomicLong nextPredicateId = new AtomicLong(1L);
+
     public RequestPredicate buildPredicate(HttpResponseRule responseRule) {
         return new DefaultRequestPredicate(responseRule);
     }
 
+    /**
+     * Replaces the chain of rule predicates inside a predicate built by this class with a single compiled predicate
+     * (see {@link HttpRequestPredicateFactory#compile(List)}). The predicate keeps working throughout, requests tested
+     * while this runs just use the original rule chain. Predicates not built by this class are left alone.
+     */
+    void compile(RequestPredicate requestPredicate) {
+        if (requestPredicate instanceof DefaultRequestPredicate) {
+            ((DefaultRequestPredicate) requestPredicate).compile();
+        }
+    }
+
     private class DefaultRequestPredicate implements RequestPredicate {
+        private final long id;
         private final HttpResponseRule.CustomRequestPredicateDefinition predicateDefinition;
         private final int priority;
         private final HttpResponseRule.LifeTimes timeToLive;
-        private Predicate<HttpRequestContainer> predicate;
+        // the rule text in the order the rules are actually evaluated, cheapest first
+        private final List<String> evaluationOrder;
+        private volatile Predicate<HttpRequestContainer> predicate;
+        private volatile boolean compiled;
 
         private DefaultRequestPredicate(HttpResponseRule responseRule) {
             LOG.debug("Building Dynamic Custom Request Predicate for response rule:\n[{}]", responseRule);
             validateResponseContainer(responseRule);
+            this.id = nextPredicateId.getAndIncrement();
             this.predicateDefinition = responseRule.getPredicate();
             this.priority = responseRule.getPriority() < 1 ? 1 : responseRule.getPriority();
             this.timeToLive = responseRule.getTimeToLive();
 
-            for (String requestRule : getRules()) {
-                Rule rule = Rule.RuleBuilder.build(requestRule);
+            // rules of equal cost keep the order they were written in
+            List<Rule> rules = getRules().stream()
+                    .map(Rule.RuleBuilder::build)
+                    .sorted(Comparator.comparingInt(HttpRequestPredicateFactory::getEvaluationCost))
+                    .collect(Collectors.toList());
+            for (Rule rule : rules) {
                 addAndPredicate(HttpRequestPredicateFactory.getPredicate(rule));
             }
+            this.evaluationOrder = rules.stream().map(Rule::getRuleText).collect(Collectors.toList());
+            LOG.debug("Rules will be evaluated in the order {}", evaluationOrder);
             if (predicate == null) {
                 throw new EmulatorException("Custom predicate is not of the correct format");
             }
@@ -64,6 +89,16 @@ public class PredicateBuilder {
             }
         }
 
+        private void compile() {
+            if (compiled) {
+                return;
+            }
+            predicate = HttpRequestPredicateFactory.compile(
+                    evaluationOrder.stream().map(Rule.RuleBuilder::build).collect(Collectors.toList()));
+            compiled = true;
+            LOG.debug("Compiled predicate [{}]", id);
+        }
+
         private void addAndPredicate(Predicate<HttpRequestContainer> andPredicate) {
             if (predicate == null) {
                 predicate = andPredicate;
@@ -72,6 +107,11 @@ public class PredicateBuilder {
             }
         }
 
+        @Override
+        public long getId() {
+            return this.id;
+        }
+
         @Override
         public HttpResponseRule.LifeTimes getTimeToLive() {
             return this.timeToLive;
@@ -99,12 +139,12 @@ public class PredicateBuilder {
 
         @Override
         public int hashCode() {
-            return HashCodeBuilder.reflectionHashCode(this);
+            return Long.hashCode(id);
         }
 
         @Override
         public boolean equals(Object o) {
-            return EqualsBuilder.reflectionEquals(this, o);
+            return o instanceof DefaultRequestPredicate && ((DefaultRequestPredicate) o).id == id;
         }
 
         @Override
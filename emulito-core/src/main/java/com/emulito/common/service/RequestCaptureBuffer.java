@@ -0,0 +1,213 @@
+package com.emulito.common.service;
+
+import com.emulito.common.domain.http.CapturedRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds the most recent application requests of one request type, overwriting the oldest once full.
+ * <br/>
+ * <br/>
+ * Any number of threads can add and take requests at the same time without locking. Every request added is given
+ * the next sequence number and written into the slot for that number, unless a later request has already taken the
+ * slot. Requests are taken latest first ({@link #pollLast()}) by swapping their slot for a taken marker with a
+ * compare and set, so each request is only ever taken once.
+ * <br/>
+ * {@link #snapshot()} lists the requests held without taking them, any of which can then be taken with
+ * {@link #take(Entry)} unless someone else has taken it first.
+ * <br/>
+ * A count of the requests held and the sequence number of the oldest request which may still be held are kept, so
+ * that {@link #isEmpty()} and {@link #pollFirst()} don't have to look through every slot. A slot's taken marker
+ * tells a taken request apart from one whose slot simply hasn't been written yet, which is why taking a request
+ * doesn't just clear its slot.
+ */
+class RequestCaptureBuffer {
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLong nextSequence = new AtomicLong();
+    // every request before this one has been taken or overwritten
+    private final AtomicLong firstSequence = new AtomicLong();
+    // can be briefly behind the slots, as it is counted just after each one changes
+    private final AtomicInteger held = new AtomicInteger();
+
+    RequestCaptureBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("Request capture capacity [%s] must be greater than 0", capacity));
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * @return The request overwritten to make room, or null if there was room
+     */
+    CapturedRequest addLast(CapturedRequest capturedRequest) {
+        return addLast(newEntry(capturedRequest));
+    }
+
+    /**
+     * Gives the request the next sequence number, ready to be added with {@link #addLast(Entry)}. Lets the entry be
+     * indexed before it can be taken.
+     */
+    Entry newEntry(CapturedRequest capturedRequest) {
+        return new Entry(nextSequence.getAndIncrement(), capturedRequest);
+    }
+
+    /**
+     * @return The request overwritten to make room, or null if there was room
+     */
+    CapturedRequest addLast(Entry entry) {
+        long sequence = entry.sequence;
+        int slot = slotOf(sequence);
+        Entry current;
+        do {
+            current = slots.get(slot);
+            if (current != null && current.sequence > sequence) {
+                // a later request has already wrapped round into this slot, so this one has been evicted already
+                return entry.capturedRequest;
+            }
+        } while (!slots.compareAndSet(slot, current, entry));
+        if (current == null || current.isTaken()) {
+            held.incrementAndGet();
+            return null;
+        }
+        return current.capturedRequest;
+    }
+
+    /**
+     * @return The latest request which hasn't already been taken, or null if there are none left
+     */
+    CapturedRequest pollLast() {
+        long latest = nextSequence.get() - 1;
+        long oldest = Math.max(firstSequence.get(), latest - slots.length() + 1);
+        for (long sequence = latest; sequence >= oldest; sequence--) {
+            int slot = slotOf(sequence);
+            Entry entry = slots.get(slot);
+            // a slot can still hold an older request if the thread adding this sequence hasn't written it yet
+            if (entry != null && entry.sequence == sequence && !entry.isTaken() && markTaken(slot, entry)) {
+                return entry.capturedRequest;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if every request held has been taken (or none were ever added)
+     */
+    boolean isEmpty() {
+        return held.get() <= 0;
+    }
+
+    /**
+     * Takes the oldest request, to evict it. Moves the first sequence on past every request it finds has gone, so
+     * each slot is only looked at once however many requests are polled.
+     * @return The oldest request which hasn't already been taken, or null if there are none left
+     */
+    CapturedRequest pollFirst() {
+        long latest = nextSequence.get() - 1;
+        // sequences from here on have all gone, so long as none of them are still being written
+        boolean gone = true;
+        for (long sequence = Math.max(firstSequence.get(), latest - slots.length() + 1); sequence <= latest; sequence++) {
+            int slot = slotOf(sequence);
+            Entry entry = slots.get(slot);
+            if (entry == null || entry.sequence < sequence) {
+                // not written yet, so can't be skipped next time
+                gone = false;
+            } else if (entry.sequence == sequence && !entry.isTaken()) {
+                if (markTaken(slot, entry)) {
+                    if (gone) {
+                        advanceFirstSequence(sequence + 1);
+                    }
+                    return entry.capturedRequest;
+                }
+                // taken or overwritten just now, so look at the slot again
+                sequence--;
+            } else if (gone) {
+                // taken, or overwritten by a later request
+                advanceFirstSequence(sequence + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The requests held, oldest first, none of which are taken
+     */
+    List<Entry> snapshot() {
+        long latest = nextSequence.get() - 1;
+        long oldest = Math.max(firstSequence.get(), latest - slots.length() + 1);
+        List<Entry> entries = new ArrayList<>();
+        for (long sequence = oldest; sequence <= latest; sequence++) {
+            Entry entry = slots.get(slotOf(sequence));
+            if (entry != null && entry.sequence == sequence && !entry.isTaken()) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Takes a request listed by {@link #snapshot()}
+     * @return false if the request has already been taken, or overwritten by a newer one
+     */
+    boolean take(Entry entry) {
+        return markTaken(slotOf(entry.sequence), entry);
+    }
+
+    /**
+     * @return true if the request is still held, i.e. it hasn't been taken or overwritten
+     */
+    boolean contains(Entry entry) {
+        return slots.get(slotOf(entry.sequence)) == entry;
+    }
+
+    private boolean markTaken(int slot, Entry entry) {
+        if (slots.compareAndSet(slot, entry, new Entry(entry.sequence, null))) {
+            held.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void advanceFirstSequence(long sequence) {
+        long current;
+        do {
+            current = firstSequence.get();
+        } while (current < sequence && !firstSequence.compareAndSet(current, sequence));
+    }
+
+    private int slotOf(long sequence) {
+        return (int) (sequence % slots.length());
+    }
+
+    static final class Entry {
+        private final long sequence;
+        private final CapturedRequest capturedRequest;
+
+        private Entry(long sequence, CapturedRequest capturedRequest) {
+            this.sequence = sequence;
+            this.capturedRequest = capturedRequest;
+        }
+
+        long getSequence() {
+            return sequence;
+        }
+
+        CapturedRequest getCapturedRequest() {
+            return capturedRequest;
+        }
+
+        // a taken request's slot holds an entry with its sequence number but no request
+        private boolean isTaken() {
+            return capturedRequest == null;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.emulito.common.service;
+
+import com.emulito.common.domain.http.CapturedRequest;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Hands captured application requests from the threads which receive them to a single worker thread, which stores
+ * them, so that the application's requests are answered without waiting for them to be stored (or logged).
+ * <br/>
+ * <br/>
+ * Any number of threads submit requests to a lock free queue, and the worker takes them off in order and passes them
+ * to the consumer one at a time. The worker parks when there is nothing to do and is only woken by a submit if it
+ * is parked, so a busy pipeline costs each request no more than adding it to the queue.
+ * <br/>
+ * The queue holds at most its capacity of requests, so that a worker which falls behind can't fill the heap with
+ * requests waiting to be stored. Once it is full, each thread submitting a request stores it itself, which slows
+ * the application's responses down to the rate requests can be stored. Requests stored that way can be stored
+ * ahead of some requests still waiting in the queue.
+ * <br/>
+ * Stored requests therefore lag slightly behind the responses sent. {@link #flush()} is the barrier which catches
+ * them up: it returns once every request submitted before it was called has been passed to the consumer.
+ */
+final class RequestCapturePipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestCapturePipeline.class);
+    private static final long FLUSH_TIMEOUT_MILLIS = 10_000L;
+    static final int DEFAULT_CAPACITY = 10_000;
+
+    private final Consumer<CapturedRequest> consumer;
+    private final Queue<CapturedRequest> queue = new ConcurrentLinkedQueue<>();
+    private final int capacity;
+    // counted before a request is queued, and only uncounted once the worker has taken it off the queue
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong overflowed = new AtomicLong();
+    // counted before a request is queued, so a flush also waits for requests which are part way through being queued
+    private final AtomicLong submitted = new AtomicLong();
+    // only written by the worker
+    private volatile long processed;
+    private volatile boolean parked;
+    private volatile boolean stopped;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicInteger flushWaiters = new AtomicInteger();
+    private final Object flushLock = new Object();
+    private final Thread worker;
+
+    RequestCapturePipeline(Consumer<CapturedRequest> consumer) {
+        this(consumer, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The most requests which can be waiting in the queue to be stored
+     */
+    RequestCapturePipeline(Consumer<CapturedRequest> consumer, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("Request capture queue capacity [%s] must be greater than 0", capacity));
+        }
+        this.consumer = consumer;
+        this.capacity = capacity;
+        this.worker = new ThreadFactoryBuilder().setNameFormat("emulito-request-capture").setDaemon(true).build()
+                .newThread(this::run);
+    }
+
+    /**
+     * Queues the request to be passed to the consumer, or passes it to the consumer on the calling thread if the
+     * queue is full. The worker thread is started by the first call.
+     */
+    void submit(CapturedRequest capturedRequest) {
+        if (stopped) {
+            consumer.accept(capturedRequest);
+            return;
+        }
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            if (overflowed.getAndIncrement() == 0) {
+                LOG.warn("The request capture queue is full, application requests are being stored as they are received");
+            }
+            store(capturedRequest);
+            return;
+        }
+        submitted.incrementAndGet();
+        queue.add(capturedRequest);
+        if (started.compareAndSet(false, true)) {
+            worker.start();
+        } else if (parked) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * Waits until every request submitted before this call has been passed to the consumer
+     */
+    void flush() {
+        long target = submitted.get();
+        if (processed >= target || Thread.currentThread() == worker) {
+            return;
+        }
+        flushWaiters.incrementAndGet();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_TIMEOUT_MILLIS);
+            synchronized (flushLock) {
+                while (processed < target) {
+                    long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remainingMillis <= 0 || stopped) {
+                        LOG.warn("Gave up waiting for captured application requests to be stored, [{}] still to be stored",
+                                target - processed);
+                        return;
+                    }
+                    flushLock.wait(remainingMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            flushWaiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return How many requests have been stored on the thread which submitted them because the queue was full
+     */
+    long getOverflowed() {
+        return overflowed.get();
+    }
+
+    /**
+     * Stops the worker. Requests submitted from then on are passed straight to the consumer.
+     */
+    void stop() {
+        stopped = true;
+        LockSupport.unpark(worker);
+    }
+
+    private void run() {
+        while (!stopped) {
+            CapturedRequest capturedRequest = queue.poll();
+            if (capturedRequest == null) {
+                parked = true;
+                // a request queued after the poll above, but before parked was set, would not unpark the worker
+                if (queue.isEmpty() && !stopped) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+                continue;
+            }
+            queued.decrementAndGet();
+            store(capturedRequest);
+            processed++;
+            if (flushWaiters.get() > 0) {
+                synchronized (flushLock) {
+                    flushLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void store(CapturedRequest capturedRequest) {
+        try {
+            consumer.accept(capturedRequest);
+        } catch (RuntimeException e) {
+            LOG.error("Could not store captured [{}] application request", capturedRequest.getRequestType(), e);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.emulito.common.service;
+
+import com.emulito.common.domain.http.HttpRequestContainer;
+import com.emulito.common.exception.EmulatorException;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps every application request received, for as long as the emulator runs, when enabled by the property
+ * {@value #ENABLED_PROPERTY}.
+ * <br/>
+ * <br/>
+ * Requests are appended to memory mapped segment files of {@value #SEGMENT_MEGABYTES_PROPERTY} each, a new segment
+ * being started whenever the current one is full. The segments are written to a new directory of this journal's own
+ * inside the {@value #DIRECTORY_PROPERTY} directory, so that emulators sharing that directory never touch each other's
+ * segments. Only an index
+ * of where each request was written is kept on the heap, a timestamp and a position for each request grouped by
+ * request type, so a journal of millions of requests costs a few megabytes of heap and the rest is left to the
+ * operating system to page in and out.
+ * <br/>
+ * Each record is the length of the rest of the record, the time it was received, the request type and then the
+ * request as JSON. The JSON is written back out as it is when requests are read from the journal, see
+ * {@link #writeRequests(String, long, long, int, OutputStream)}.
+ * <br/>
+ * The journal's segments and directory are deleted when it is closed.
+ */
+@Component
+class RequestJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestJournal.class);
+    private static final String ENABLED_PROPERTY = "emulito.journal.enabled";
+    private static final String DIRECTORY_PROPERTY = "emulito.journal.directory";
+    private static final String SEGMENT_MEGABYTES_PROPERTY = "emulito.journal.segmentMegabytes";
+    private static final String JOURNAL_DIRECTORY_PREFIX = "emulito-journal-";
+    private static final String SEGMENT_FILE_PREFIX = "requests-";
+    private static final String SEGMENT_FILE_SUFFIX = ".journal";
+    // the record length, the timestamp and the request type length
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    // a segment is mapped into a single buffer, which holds at most Integer.MAX_VALUE bytes
+    private static final int MAX_SEGMENT_MEGABYTES = 2047;
+    private static final String TIMESTAMP_FIELD = "timestamp";
+    private static final String REQUEST_TYPE_FIELD = "requestType";
+    private static final String REQUEST_FIELD = "request";
+
+    @Value("${" + ENABLED_PROPERTY + ":false}")
+    private boolean enabled;
+
+    @Value("${" + DIRECTORY_PROPERTY + ":${java.io.tmpdir}}")
+    private String directory;
+
+    @Value("${" + SEGMENT_MEGABYTES_PROPERTY + ":64}")
+    private int segmentMegabytes = 64;
+
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    // segments are only ever added, so a record's segment number always finds it
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Map<String, TypeIndex> index = new ConcurrentHashMap<>();
+    // created by open, inside directory, and only ever written to by this journal
+    private Path journalDirectory;
+    // the rest are only used holding the lock on this journal
+    private Segment currentSegment;
+    private boolean closed;
+
+    @PostConstruct
+    public void open() {
+        if (!enabled) {
+            return;
+        }
+        if (segmentMegabytes <= 0 || segmentMegabytes > MAX_SEGMENT_MEGABYTES) {
+            throw new EmulatorException(format("Request journal segment size [%s] megabytes must be from 1 to %s",
+                    segmentMegabytes, MAX_SEGMENT_MEGABYTES));
+        }
+        try {
+            Path directoryPath = Paths.get(directory);
+            Files.createDirectories(directoryPath);
+            synchronized (this) {
+                journalDirectory = Files.createTempDirectory(directoryPath, JOURNAL_DIRECTORY_PREFIX);
+                startSegment(0);
+            }
+        } catch (IOException e) {
+            throw new EmulatorException(format("Could not open the request journal in directory [%s]", directory), e);
+        }
+        LOG.info("Journalling application requests to directory [{}]", journalDirectory.toAbsolutePath());
+    }
+
+    /**
+     * Closes and deletes the journal's segments and directory. Nothing else in {@link #directory} is touched.
+     */
+    @PreDestroy
+    public synchronized void close() {
+        closed = true;
+        for (Segment segment : segments) {
+            try {
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                LOG.debug("Could not close request journal segment [{}]", segment.path, e);
+            }
+        }
+        if (journalDirectory != null) {
+            try {
+                Files.deleteIfExists(journalDirectory);
+            } catch (IOException e) {
+                LOG.debug("Could not delete request journal directory [{}]", journalDirectory, e);
+            }
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds the request to the end of the journal. Does nothing if the journal isn't enabled.
+     * @param timestamp When the request was received, which is earlier than now when it has been waiting to be stored
+     */
+    void append(long timestamp, String requestType, HttpRequestContainer request) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            // encoded before taking the lock, so that only the copy into the segment is done one request at a time
+            byte[] requestTypeBytes = requestType.getBytes(UTF_8);
+            byte[] requestBytes = objectMapper.writeValueAsBytes(request);
+            int recordBytes = RECORD_HEADER_BYTES + requestTypeBytes.length + requestBytes.length;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (currentSegment.buffer.remaining() < recordBytes) {
+                    startSegment(recordBytes);
+                }
+                TypeIndex typeIndex = index.computeIfAbsent(requestType, k -> new TypeIndex());
+                long recordTimestamp = typeIndex.inOrder(timestamp);
+                MappedByteBuffer buffer = currentSegment.buffer;
+                long position = toPosition(currentSegment.number, buffer.position());
+                buffer.putInt(recordBytes - Integer.BYTES)
+                        .putLong(recordTimestamp)
+                        .putInt(requestTypeBytes.length)
+                        .put(requestTypeBytes)
+                        .put(requestBytes);
+                typeIndex.add(recordTimestamp, position);
+            }
+        } catch (IOException e) {
+            LOG.error("Could not add a [{}] application request to the request journal", requestType, e);
+        }
+    }
+
+    /**
+     * Writes out, as a JSON array, the requests of the request type received from fromMillis (inclusive) to toMillis
+     * (exclusive), oldest first. Each request is read from its segment as it is written, so any number of requests
+     * can be written without holding them all on the heap.
+     * @param limit The most requests to write
+     * @return The number of requests written
+     */
+    int writeRequests(String requestType, long fromMillis, long toMillis, int limit, OutputStream outputStream) throws IOException {
+        TypeIndex typeIndex = index.get(requestType);
+        int written = 0;
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream, JsonEncoding.UTF8)) {
+            // the caller owns the stream
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartArray();
+            if (typeIndex != null) {
+                int size = typeIndex.size;
+                long[] timestamps = typeIndex.timestamps;
+                long[] positions = typeIndex.positions;
+                for (int i = typeIndex.firstAtOrAfter(fromMillis, size);
+                     i < size && timestamps[i] < toMillis && written < limit; i++, written++) {
+                    generator.writeStartObject();
+                    generator.writeNumberField(TIMESTAMP_FIELD, timestamps[i]);
+                    generator.writeStringField(REQUEST_TYPE_FIELD, requestType);
+                    generator.writeFieldName(REQUEST_FIELD);
+                    generator.writeRawValue(readRequest(positions[i]));
+                    generator.writeEndObject();
+                }
+            }
+            generator.writeEndArray();
+        }
+        return written;
+    }
+
+    private String readRequest(long position) {
+        ByteBuffer record = segments.get((int) (position >>> Integer.SIZE)).buffer.duplicate();
+        record.position((int) position);
+        int recordBytes = record.getInt();
+        record.getLong();
+        int requestTypeBytes = record.getInt();
+        record.position(record.position() + requestTypeBytes);
+        byte[] requestBytes = new byte[recordBytes - Long.BYTES - Integer.BYTES - requestTypeBytes];
+        record.get(requestBytes);
+        return new String(requestBytes, UTF_8);
+    }
+
+    /**
+     * Starts a new segment, larger than usual if that's what it takes to hold the next record
+     */
+    private void startSegment(int recordBytes) throws IOException {
+        int number = segments.size();
+        Path path = journalDirectory.resolve(format("%s%05d%s", SEGMENT_FILE_PREFIX, number, SEGMENT_FILE_SUFFIX));
+        long size = Math.max((long) segmentMegabytes * 1024 * 1024, recordBytes);
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(number, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        segments.add(segment);
+        currentSegment = segment;
+        LOG.debug("Started request journal segment [{}]", path);
+    }
+
+    private static long toPosition(int segmentNumber, int offset) {
+        return ((long) segmentNumber << Integer.SIZE) | offset;
+    }
+
+    private static final class Segment {
+        private final int number;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(int number, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.number = number;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * The timestamps and positions of one request type's records, in the order they were written. Only added to
+     * holding the journal's lock. Readers read the size first, and so only ever look at entries which were written
+     * before it, and which are in whichever arrays they then see.
+     */
+    private static final class TypeIndex {
+        private volatile long[] timestamps = new long[64];
+        private volatile long[] positions = new long[64];
+        private volatile int size;
+
+        private void add(long timestamp, long position) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            timestamps[size] = timestamp;
+            positions[size] = position;
+            size++;
+        }
+
+        /**
+         * @return The timestamp, or the latest timestamp of this request type if that is later. A request of the type
+         * stored after a later one is journalled with the later timestamp, so that the type's timestamps stay in order
+         * to be searched. Requests of other types make no difference.
+         */
+        private long inOrder(long timestamp) {
+            return size == 0 ? timestamp : Math.max(timestamp, timestamps[size - 1]);
+        }
+
+        /**
+         * @return The index of the first entry at or after the timestamp, or size if there isn't one
+         */
+        private int firstAtOrAfter(long timestamp, int size) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (timestamps[middle] < timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
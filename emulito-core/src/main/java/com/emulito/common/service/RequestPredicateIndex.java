@@ -0,0 +1,357 @@
+package com.emulito.common.service;
+
+import com.emulito.common.domain.http.HttpRequestContainer;
+import com.emulito.common.domain.predicates.HttpRequestPredicateFactory;
+import com.emulito.common.domain.predicates.RequestPredicate;
+import com.emulito.common.domain.predicates.Rule;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Index over the installed {@link RequestPredicate}s which avoids testing every predicate against every request.
+ * <br/>
+ * <br/>
+ * Predicates which contain a "url is" rule are bucketed by that url, predicates which contain a "url starts with" rule
+ * are bucketed by that prefix in a {@link UrlPrefixTrie} and predicates which contain a "http method is" rule (but
+ * neither of the url rules) are bucketed by that method. Everything else is kept in a single un-indexed bucket.
+ * A lookup then only has to evaluate the bucket for the request url, the buckets for every prefix of the request url,
+ * the bucket for the request method and the un-indexed bucket. Each bucket is kept in priority order so the overall
+ * highest priority match is still returned.
+ * <br/>
+ * Every "body contains" value across the installed predicates is also compiled into one {@link AhoCorasickAutomaton}.
+ * The request body is scanned once per lookup (and only if a predicate with such a rule is reached), and any
+ * predicate whose "body contains" values were not all found is rejected without being evaluated. The automaton is
+ * rebuilt only when the set of values has changed, by the first {@link #copy()} (or lookup) after the change, and
+ * every copy made until the next change shares it.
+ * <br/>
+ * Single use predicates are consumed with {@link #claim(RequestPredicate)}, which atomically marks the predicate as
+ * claimed so that only one request is ever given its response. Claimed predicates are skipped by every later lookup,
+ * both in this index and in any copy of it, until they are removed.
+ * <br/>
+ * This class is not thread safe, callers are expected to synchronize any modifications to it. An index which is no
+ * longer modified (e.g. one returned from {@link #copy()} and published in a {@link RequestPredicateSnapshot}) can be
+ * searched by any number of threads at once.
+ */
+class RequestPredicateIndex implements Iterable<RequestPredicate> {
+
+    // keyed by predicate id
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final NavigableSet<Entry> allEntries = new TreeSet<>();
+    private final Map<String, NavigableSet<Entry>> urlBuckets = new HashMap<>();
+    private final UrlPrefixTrie<NavigableSet<Entry>> urlPrefixBuckets;
+    private final Map<String, NavigableSet<Entry>> httpMethodBuckets = new HashMap<>();
+    private final NavigableSet<Entry> unindexedBucket = new TreeSet<>();
+    private final Map<String, BodyNeedle> bodyNeedles = new HashMap<>();
+    private final Deque<Integer> freeBodyNeedleIds = new ArrayDeque<>();
+    private volatile AhoCorasickAutomaton bodyNeedleAutomaton;
+    private long sequence = 0L;
+
+    RequestPredicateIndex() {
+        urlPrefixBuckets = new UrlPrefixTrie<>();
+    }
+
+    private RequestPredicateIndex(RequestPredicateIndex source) {
+        entries.putAll(source.entries);
+        allEntries.addAll(source.allEntries);
+        source.urlBuckets.forEach((url, bucket) -> urlBuckets.put(url, new TreeSet<>(bucket)));
+        urlPrefixBuckets = new UrlPrefixTrie<>(source.urlPrefixBuckets, TreeSet::new);
+        source.httpMethodBuckets.forEach((httpMethod, bucket) -> httpMethodBuckets.put(httpMethod, new TreeSet<>(bucket)));
+        unindexedBucket.addAll(source.unindexedBucket);
+        source.bodyNeedles.forEach((needle, bodyNeedle) -> bodyNeedles.put(needle, new BodyNeedle(bodyNeedle)));
+        freeBodyNeedleIds.addAll(source.freeBodyNeedleIds);
+        // built on the source, so that it is built once per change of values rather than once per copy
+        bodyNeedleAutomaton = source.bodyNeedles.isEmpty() ? null : source.getBodyNeedleAutomaton();
+        sequence = source.sequence;
+    }
+
+    /**
+     * @return A copy of this index which is unaffected by any later predicates added to or removed from this index.
+     * The copy shares the claimed state of each predicate with this index.
+     */
+    RequestPredicateIndex copy() {
+        return new RequestPredicateIndex(this);
+    }
+
+    void add(RequestPredicate requestPredicate) {
+        if (entries.containsKey(requestPredicate.getId())) {
+            return;
+        }
+        Entry entry = new Entry(requestPredicate, sequence++);
+        entries.put(requestPredicate.getId(), entry);
+        allEntries.add(entry);
+        getBucket(entry, true).add(entry);
+        entry.bodyNeedleIds = entry.bodyNeedles.stream().mapToInt(this::addBodyNeedle).toArray();
+    }
+
+    boolean remove(RequestPredicate requestPredicate) {
+        Entry entry = entries.remove(requestPredicate.getId());
+        if (entry == null) {
+            return false;
+        }
+        allEntries.remove(entry);
+        NavigableSet<Entry> bucket = getBucket(entry, false);
+        bucket.remove(entry);
+        if (bucket.isEmpty()) {
+            removeBucket(entry);
+        }
+        entry.bodyNeedles.forEach(this::removeBodyNeedle);
+        return true;
+    }
+
+    /**
+     * Removes every predicate which satisfies the supplied filter
+     * @return The predicates which were removed
+     */
+    Set<RequestPredicate> removeIf(Predicate<RequestPredicate> filter) {
+        Set<RequestPredicate> removed = new HashSet<>();
+        for (Entry entry : allEntries) {
+            if (filter.test(entry.requestPredicate)) {
+                removed.add(entry.requestPredicate);
+            }
+        }
+        removed.forEach(this::remove);
+        return removed;
+    }
+
+    /**
+     * Finds the highest priority predicate which matches the request
+     * @return The matching predicate or null if none of the installed predicates match
+     */
+    RequestPredicate find(HttpRequestContainer requestContainer) {
+        Lookup lookup = new Lookup(requestContainer);
+        lookup.search(urlBuckets.get(requestContainer.getUrl()));
+        if (!urlPrefixBuckets.isEmpty()) {
+            urlPrefixBuckets.forEachPrefixOf(requestContainer.getUrl(), lookup::search);
+        }
+        lookup.search(httpMethodBuckets.get(requestContainer.getHttpMethod()));
+        lookup.search(unindexedBucket);
+        return lookup.match == null ? null : lookup.match.requestPredicate;
+    }
+
+    /**
+     * Atomically claims the predicate so that it is no longer returned by {@link #find(HttpRequestContainer)}.
+     * Safe to call from any number of threads at once, only one of which will succeed for a given predicate.
+     * @return true if this call claimed the predicate, false if it was already claimed or is not in this index
+     */
+    boolean claim(RequestPredicate requestPredicate) {
+        Entry entry = entries.get(requestPredicate.getId());
+        return entry != null && entry.claimed.compareAndSet(false, true);
+    }
+
+    boolean contains(RequestPredicate requestPredicate) {
+        return entries.containsKey(requestPredicate.getId());
+    }
+
+    /**
+     * @return The installed predicate with the supplied id, or null if there isn't one
+     */
+    RequestPredicate get(long id) {
+        Entry entry = entries.get(id);
+        return entry == null ? null : entry.requestPredicate;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    @Override
+    public Iterator<RequestPredicate> iterator() {
+        return allEntries.stream().map(entry -> entry.requestPredicate).iterator();
+    }
+
+    private int addBodyNeedle(String needle) {
+        BodyNeedle bodyNeedle = bodyNeedles.computeIfAbsent(needle, k -> {
+            bodyNeedleAutomaton = null;
+            return new BodyNeedle(freeBodyNeedleIds.isEmpty() ? bodyNeedles.size() : freeBodyNeedleIds.pop());
+        });
+        bodyNeedle.references++;
+        return bodyNeedle.id;
+    }
+
+    private void removeBodyNeedle(String needle) {
+        BodyNeedle bodyNeedle = bodyNeedles.get(needle);
+        if (--bodyNeedle.references == 0) {
+            bodyNeedles.remove(needle);
+            freeBodyNeedleIds.push(bodyNeedle.id);
+            bodyNeedleAutomaton = null;
+        }
+    }
+
+    private AhoCorasickAutomaton getBodyNeedleAutomaton() {
+        AhoCorasickAutomaton automaton = bodyNeedleAutomaton;
+        if (automaton == null) {
+            synchronized (bodyNeedles) {
+                automaton = bodyNeedleAutomaton;
+                if (automaton == null) {
+                    Map<Integer, String> needlesById = new HashMap<>();
+                    bodyNeedles.forEach((needle, bodyNeedle) -> needlesById.put(bodyNeedle.id, needle));
+                    automaton = new AhoCorasickAutomaton(needlesById);
+                    bodyNeedleAutomaton = automaton;
+                }
+            }
+        }
+        return automaton;
+    }
+
+    private NavigableSet<Entry> getBucket(Entry entry, boolean create) {
+        switch (entry.indexType) {
+            case URL:
+                return create ? urlBuckets.computeIfAbsent(entry.indexKey, k -> new TreeSet<>()) : urlBuckets.get(entry.indexKey);
+            case URL_PREFIX:
+                return create ? urlPrefixBuckets.computeIfAbsent(entry.indexKey, k -> new TreeSet<>()) : urlPrefixBuckets.get(entry.indexKey);
+            case HTTP_METHOD:
+                return create ? httpMethodBuckets.computeIfAbsent(entry.indexKey, k -> new TreeSet<>()) : httpMethodBuckets.get(entry.indexKey);
+            default:
+                return unindexedBucket;
+        }
+    }
+
+    private void removeBucket(Entry entry) {
+        switch (entry.indexType) {
+            case URL:
+                urlBuckets.remove(entry.indexKey);
+                break;
+            case URL_PREFIX:
+                urlPrefixBuckets.remove(entry.indexKey);
+                break;
+            case HTTP_METHOD:
+                httpMethodBuckets.remove(entry.indexKey);
+                break;
+            default:
+                // the un-indexed bucket is always kept
+        }
+    }
+
+    /**
+     * Holds the state of a single {@link #find(HttpRequestContainer)} call
+     */
+    private final class Lookup {
+        private final HttpRequestContainer requestContainer;
+        private BitSet bodyNeedlesFound;
+        private Entry match;
+
+        private Lookup(HttpRequestContainer requestContainer) {
+            this.requestContainer = requestContainer;
+        }
+
+        /**
+         * Tests the bucket in priority order, keeping the first match if it takes precedence over the current match
+         */
+        private void search(NavigableSet<Entry> bucket) {
+            if (bucket == null) {
+                return;
+            }
+            for (Entry entry : bucket) {
+                if (match != null && entry.compareTo(match) > 0) {
+                    // nothing left in this bucket can take precedence over the match we already have
+                    return;
+                }
+                if (!entry.claimed.get() && containsBodyNeedles(entry) && entry.requestPredicate.test(requestContainer)) {
+                    match = entry;
+                    return;
+                }
+            }
+        }
+
+        private boolean containsBodyNeedles(Entry entry) {
+            if (entry.bodyNeedleIds.length == 0) {
+                return true;
+            }
+            if (bodyNeedlesFound == null) {
+                bodyNeedlesFound = getBodyNeedleAutomaton().scan(requestContainer.getBody());
+            }
+            for (int bodyNeedleId : entry.bodyNeedleIds) {
+                if (!bodyNeedlesFound.get(bodyNeedleId)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class BodyNeedle {
+        private final int id;
+        private int references;
+
+        private BodyNeedle(int id) {
+            this.id = id;
+        }
+
+        private BodyNeedle(BodyNeedle source) {
+            this.id = source.id;
+            this.references = source.references;
+        }
+    }
+
+    private enum IndexTypes {
+        URL,
+        URL_PREFIX,
+        HTTP_METHOD,
+        NONE
+    }
+
+    /**
+     * Wraps a predicate along with the index key it was stored under and the "body contains" values it requires. Entries are ordered by highest priority first
+     * and then by most recently added first, which is the order the emulator has always tested predicates in.
+     */
+    private static final class Entry implements Comparable<Entry> {
+        private final RequestPredicate requestPredicate;
+        private final long sequence;
+        private final List<String> bodyNeedles = new ArrayList<>();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private int[] bodyNeedleIds;
+        private IndexTypes indexType = IndexTypes.NONE;
+        private String indexKey;
+
+        private Entry(RequestPredicate requestPredicate, long sequence) {
+            this.requestPredicate = requestPredicate;
+            this.sequence = sequence;
+            if (requestPredicate.getRules() == null) {
+                return;
+            }
+            for (String requestRule : requestPredicate.getRules()) {
+                Rule rule = Rule.RuleBuilder.build(requestRule);
+                Rule.MatchTypes matchType = HttpRequestPredicateFactory.getMatchType(rule);
+                if (rule.getRuleType() == Rule.RuleTypes.URL && matchType == Rule.MatchTypes.IS) {
+                    setIndex(IndexTypes.URL, rule.getRequiredValue());
+                } else if (rule.getRuleType() == Rule.RuleTypes.URL && matchType == Rule.MatchTypes.STARTS_WITH) {
+                    setIndex(IndexTypes.URL_PREFIX, rule.getRequiredValue());
+                } else if (rule.getRuleType() == Rule.RuleTypes.HTTP_METHOD && matchType == Rule.MatchTypes.IS) {
+                    setIndex(IndexTypes.HTTP_METHOD, rule.getRequiredValue());
+                } else if (rule.getRuleType() == Rule.RuleTypes.BODY && matchType == Rule.MatchTypes.CONTAINS
+                        && !rule.getRequiredValue().isEmpty()) {
+                    bodyNeedles.add(rule.getRequiredValue());
+                }
+            }
+        }
+
+        /**
+         * Keeps the most selective index seen so far, where selectivity follows the declaration order of {@link IndexTypes}
+         */
+        private void setIndex(IndexTypes candidateIndexType, String candidateIndexKey) {
+            if (candidateIndexType.ordinal() < indexType.ordinal()) {
+                indexType = candidateIndexType;
+                indexKey = candidateIndexKey;
+            }
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = Integer.compare(other.requestPredicate.getPriority(), requestPredicate.getPriority());
+            return result != 0 ? result : Long.compare(other.sequence, sequence);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.emulito.common.service;
+
+import com.emulito.common.domain.http.HttpRequestContainer;
+import com.emulito.common.domain.predicates.RequestPredicate;
+
+import java.util.Iterator;
+
+/**
+ * Immutable, versioned view of the installed {@link RequestPredicate}s.
+ * <br/>
+ * <br/>
+ * A new snapshot is built and published every time the installed predicates change, so application requests can be
+ * matched against the current snapshot without taking any lock. The predicates in a snapshot never change once it
+ * has been created, only whether a single use predicate has been claimed.
+ */
+final class RequestPredicateSnapshot implements Iterable<RequestPredicate> {
+
+    private final long version;
+    private final RequestPredicateIndex requestPredicateIndex;
+
+    /**
+     * @param requestPredicateIndex The index to publish. This must not be modified after being passed in.
+     */
+    RequestPredicateSnapshot(long version, RequestPredicateIndex requestPredicateIndex) {
+        this.version = version;
+        this.requestPredicateIndex = requestPredicateIndex;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * @see RequestPredicateIndex#find(HttpRequestContainer)
+     */
+    RequestPredicate find(HttpRequestContainer requestContainer) {
+        return requestPredicateIndex.find(requestContainer);
+    }
+
+    /**
+     * @see RequestPredicateIndex#claim(RequestPredicate)
+     */
+    boolean claim(RequestPredicate requestPredicate) {
+        return requestPredicateIndex.claim(requestPredicate);
+    }
+
+    boolean contains(RequestPredicate requestPredicate) {
+        return requestPredicateIndex.contains(requestPredicate);
+    }
+
+    int size() {
+        return requestPredicateIndex.size();
+    }
+
+    @Override
+    public Iterator<RequestPredicate> iterator() {
+        return requestPredicateIndex.iterator();
+    }
+}
@@ -1,19 +1,49 @@
 package com.emulito.common.service;
 
 import com.emulito.common.domain.predicates.RequestPredicate;
-import com.google.common.collect.Queues;
+import com.emulito.common.domain.http.CapturedRequest;
 import com.emulito.common.domain.http.HttpRequestContainer;
 import com.emulito.common.domain.http.HttpResponseRule;
+import com.emulito.common.domain.predicates.HttpRequestPredicateFactory;
+import com.emulito.common.domain.predicates.Rule;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /**
  * Created by Ashley Waldron (e062130) on 12/14/2018.
@@ -26,10 +56,91 @@ import java.util.concurrent.ConcurrentHashMap;
 @Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
 class RequestResponseHandler {
 
-    private static final int MAX_STORED_APPLICATION_REQUESTS = 100;
+    private static final Logger LOG = LoggerFactory.getLogger(RequestResponseHandler.class);
 
-    private Map<String, Deque<HttpRequestContainer>> applicationRequests = new ConcurrentHashMap<>();
-    private Map<RequestPredicate, HttpResponseRule> nextResponses = new HashMap<>();
+    private static final int DEFAULT_STORED_APPLICATION_REQUESTS = 100;
+    private static final String STORED_APPLICATION_REQUESTS_PROPERTY = "emulito.requests.capacity";
+    // longer header values are rarely repeated, so aren't worth interning
+    private static final int MAX_INTERNED_VALUE_LENGTH = 64;
+    // header names and common values are the same in most requests, so only one copy of each is kept
+    private static final Interner<String> HEADER_INTERNER = Interners.newWeakInterner();
+
+    /**
+     * How many requests of each request type are kept, unless overridden for the request type by the property
+     * {@value #STORED_APPLICATION_REQUESTS_PROPERTY}.&lt;requestType&gt;
+     */
+    @Value("${" + STORED_APPLICATION_REQUESTS_PROPERTY + ":" + DEFAULT_STORED_APPLICATION_REQUESTS + "}")
+    private int storedApplicationRequests = DEFAULT_STORED_APPLICATION_REQUESTS;
+
+    @Autowired(required = false)
+    private Environment environment;
+
+    /**
+     * Roughly how many bytes of heap all the stored requests together may take up (see
+     * {@link HttpRequestContainer#estimateSize()}). Beyond that the oldest requests of whichever request type was
+     * least recently used are evicted.
+     */
+    @Value("${emulito.requests.maxBytes:268435456}")
+    private long maxStoredBytes = 256L * 1024 * 1024;
+
+    /**
+     * Bodies longer than this many bytes (encoded as UTF-8) are compressed while they are stored, a negative value turns
+     * compression off
+     */
+    @Value("${emulito.requests.compressBodiesOverBytes:8192}")
+    private int compressBodiesOver = 8192;
+
+    // the estimated size of every request stored
+    private final AtomicLong storedBytes = new AtomicLong();
+    // set by whichever thread is evicting requests to bring storedBytes back within the budget
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * Headers whose first value is indexed, so that queries with a "headers contain entry" rule on one of them don't
+     * have to test every stored request (see {@link CapturedRequestIndex})
+     */
+    @Value("${emulito.requests.indexedHeaders:}")
+    private String[] indexedHeaders = {};
+
+    /**
+     * Url parameters whose first value is indexed, as for {@link #indexedHeaders}
+     */
+    @Value("${emulito.requests.indexedParams:}")
+    private String[] indexedParams = {};
+
+    /**
+     * When enabled, application requests are stored on a separate thread rather than the one which answers them,
+     * see {@link RequestCapturePipeline}
+     */
+    @Value("${emulito.capture.async:true}")
+    private boolean asyncCapture = true;
+
+    /**
+     * The most application requests which can be waiting to be stored, see {@link RequestCapturePipeline}
+     */
+    @Value("${emulito.capture.queueCapacity:" + RequestCapturePipeline.DEFAULT_CAPACITY + "}")
+    private int captureQueueCapacity = RequestCapturePipeline.DEFAULT_CAPACITY;
+
+    // replaced by one of the configured capacity once configured, before any request has been submitted to it
+    private RequestCapturePipeline capturePipeline = new RequestCapturePipeline(this::storeApplicationRequest);
+
+    // a disabled journal until the configured one is injected
+    @Autowired
+    private RequestJournal requestJournal = new RequestJournal();
+
+    private Map<String, RequestCaptureBuffer> applicationRequests = new ConcurrentHashMap<>();
+    // each request type's requests, least recently stored or taken first, for choosing which type to evict from
+    private final Map<RequestCaptureBuffer, Boolean> usageOrder = new LinkedHashMap<>(16, 0.75f, true);
+    // only kept when there is something to index
+    private final Map<String, CapturedRequestIndex> requestIndexes = new ConcurrentHashMap<>();
+    // test clients waiting for a request of each type, oldest first
+    private final Map<String, Queue<Predicate<HttpRequestContainer>>> applicationRequestWaiters = new ConcurrentHashMap<>();
+    private final Set<ApplicationRequestSubscription> subscriptions = new CopyOnWriteArraySet<>();
+    // sends captured requests on to subscribers, so that a slow subscriber never holds up an application request
+    private final ExecutorService subscriptionExecutor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("emulito-request-subscription-%d").setDaemon(true).build());
+    // keyed by predicate id
+    private Map<Long, HttpResponseRule> nextResponses = new ConcurrentHashMap<>();
 
     /**
      * Returns the last application request that came in to the emulator for the specified request type.
@@ -37,49 +148,419 @@ class RequestResponseHandler {
      * @return A {@link HttpRequestContainer} object containing the request data
      */
     HttpRequestContainer getLastApplicationRequest(String requestType) {
-        return getApplicationRequests(requestType).pollLast();
+        capturePipeline.flush();
+        RequestCaptureBuffer requests = getCaptureBuffer(requestType);
+        CapturedRequest capturedRequest = requests.pollLast();
+        used(requests);
+        if (capturedRequest == null) {
+            return null;
+        }
+        release(capturedRequest);
+        return capturedRequest.getRequest();
+    }
+
+    /**
+     * Returns a page of the application requests held for the request types, oldest first, optionally taking them
+     * so that they aren't returned again (as {@link #getLastApplicationRequest(String)} does).
+     * @param offset The number of requests to skip, counting from the oldest
+     * @param limit  The most requests to return
+     * @param drain  true to take the requests returned, false to leave them where they are
+     */
+    List<CapturedRequest> getApplicationRequests(Collection<String> requestTypes, int offset, int limit, boolean drain) {
+        capturePipeline.flush();
+        List<RequestCaptureBuffer.Entry> entries = new ArrayList<>();
+        for (String requestType : new LinkedHashSet<>(requestTypes)) {
+            RequestCaptureBuffer requests = applicationRequests.get(requestType);
+            if (requests != null) {
+                entries.addAll(requests.snapshot());
+            }
+        }
+        // each type's requests are already in order, sorting merges them
+        entries.sort(Comparator.comparingLong(entry -> entry.getCapturedRequest().getTimestamp()));
+        List<CapturedRequest> page = new ArrayList<>();
+        for (int i = offset; i < entries.size() && page.size() < limit; i++) {
+            RequestCaptureBuffer.Entry entry = entries.get(i);
+            if (!drain || takeApplicationRequest(entry)) {
+                page.add(entry.getCapturedRequest());
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Finds the application requests of the request type which match every one of the rules, oldest first. The rules
+     * are written just as they are for a response rule predicate. When one of them is an "is" rule on an indexed
+     * header or url parameter only the requests with that value are tested, otherwise every stored request is.
+     * @param limit The most requests to return
+     * @param drain true to take the requests returned, false to leave them where they are
+     */
+    List<CapturedRequest> queryApplicationRequests(String requestType, List<Rule> rules, int limit, boolean drain) {
+        // cheapest first, as for a response rule predicate
+        List<Rule> evaluationOrder = new ArrayList<>(rules);
+        evaluationOrder.sort(Comparator.comparingInt(HttpRequestPredicateFactory::getEvaluationCost));
+        Predicate<HttpRequestContainer> predicate = HttpRequestPredicateFactory.compile(evaluationOrder);
+        capturePipeline.flush();
+        RequestCaptureBuffer requests = applicationRequests.get(requestType);
+        if (requests == null) {
+            return Collections.emptyList();
+        }
+        List<RequestCaptureBuffer.Entry> candidates = null;
+        CapturedRequestIndex index = requestIndexes.get(requestType);
+        for (int i = 0; index != null && candidates == null && i < rules.size(); i++) {
+            candidates = index.find(rules.get(i));
+        }
+        if (candidates == null) {
+            candidates = requests.snapshot();
+        }
+        List<CapturedRequest> found = new ArrayList<>();
+        for (RequestCaptureBuffer.Entry entry : candidates) {
+            if (found.size() >= limit) {
+                break;
+            }
+            HttpRequestContainer request = entry.getCapturedRequest().getRequest();
+            boolean matches;
+            // a request's view remembers the values the rules have looked up, so it can't be used by two queries at once
+            synchronized (request) {
+                matches = requests.contains(entry) && predicate.test(request);
+            }
+            if (matches && (!drain || takeApplicationRequest(entry))) {
+                found.add(entry.getCapturedRequest());
+            }
+        }
+        return found;
     }
 
+    /**
+     * Stores the application request, on another thread when {@link #asyncCapture} is enabled. Requests stored
+     * that way are not seen straight away by everything here, only by anything which flushes the capture pipeline
+     * first.
+     */
     void setLastApplicationRequest(String requestType, HttpRequestContainer request) {
-        getApplicationRequests(requestType).addLast(request);
+        CapturedRequest capturedRequest = new CapturedRequest(System.currentTimeMillis(), requestType, request);
+        if (asyncCapture) {
+            capturePipeline.submit(capturedRequest);
+        } else {
+            storeApplicationRequest(capturedRequest);
+        }
+    }
+
+    private void storeApplicationRequest(CapturedRequest capturedRequest) {
+        String requestType = capturedRequest.getRequestType();
+        HttpRequestContainer request = capturedRequest.getRequest();
+        LOG.info("Application Request received was: [{}]", request);
+        // journalled first, so that the body doesn't have to be decompressed again to journal it
+        requestJournal.append(capturedRequest.getTimestamp(), requestType, request);
+        compact(request);
+        hold(getCaptureBuffer(requestType), capturedRequest);
+        evictOverBudget();
+        Queue<Predicate<HttpRequestContainer>> waiters = applicationRequestWaiters.get(requestType);
+        if (waiters != null && !waiters.isEmpty()) {
+            handOverApplicationRequests(requestType, waiters);
+        }
+        if (!subscriptions.isEmpty()) {
+            for (ApplicationRequestSubscription subscription : subscriptions) {
+                if (subscription.isCancelled()) {
+                    subscriptions.remove(subscription);
+                } else {
+                    subscription.offer(capturedRequest);
+                }
+            }
+        }
+    }
+
+    /**
+     * Subscribes to every application request captured from now on, see {@link ApplicationRequestSubscription}
+     * @param requestType The request type to subscribe to, or null for every request type
+     * @param bufferSize  How many requests can be waiting to be passed to the listener before some are dropped
+     */
+    ApplicationRequestSubscription subscribe(String requestType, int bufferSize,
+                                             ApplicationRequestSubscription.DropPolicy dropPolicy,
+                                             ApplicationRequestSubscription.Listener listener) {
+        ApplicationRequestSubscription subscription = new ApplicationRequestSubscription(
+                requestType, bufferSize, dropPolicy, listener, subscriptionExecutor);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    @PostConstruct
+    public void init() {
+        capturePipeline = new RequestCapturePipeline(this::storeApplicationRequest, captureQueueCapacity);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        capturePipeline.stop();
+        subscriptions.forEach(ApplicationRequestSubscription::cancel);
+        subscriptionExecutor.shutdownNow();
+    }
+
+    /**
+     * Hands the waiter the last application request of the request type as soon as there is one, straight away if
+     * there already is. The request is taken just as {@link #getLastApplicationRequest(String)} would take it.
+     * <br/>
+     * The waiter is called on whichever thread stores the request, so it must be quick. It returns false if it no
+     * longer wants the request (e.g. because it has given up waiting), in which case the request is kept for someone
+     * else. Once handed a request the waiter is not called again.
+     */
+    void waitForApplicationRequest(String requestType, Predicate<HttpRequestContainer> waiter) {
+        capturePipeline.flush();
+        Queue<Predicate<HttpRequestContainer>> waiters =
+                applicationRequestWaiters.computeIfAbsent(requestType, k -> new ConcurrentLinkedQueue<>());
+        waiters.add(waiter);
+        // a request stored just before the waiter was added won't have been handed to it
+        handOverApplicationRequests(requestType, waiters);
+    }
+
+    /**
+     * Stops the waiter from being handed a request, e.g. once it has timed out
+     */
+    void stopWaitingForApplicationRequest(String requestType, Predicate<HttpRequestContainer> waiter) {
+        Queue<Predicate<HttpRequestContainer>> waiters = applicationRequestWaiters.get(requestType);
+        if (waiters != null) {
+            waiters.remove(waiter);
+        }
+    }
+
+    boolean isRequestJournalEnabled() {
+        return requestJournal.isEnabled();
+    }
+
+    /**
+     * Writes out the journalled requests of the request type received within the time range, see
+     * {@link RequestJournal#writeRequests(String, long, long, int, OutputStream)}
+     * @return The number of requests written
+     */
+    int writeJournalledRequests(String requestType, long fromMillis, long toMillis, int limit, OutputStream outputStream) throws IOException {
+        capturePipeline.flush();
+        return requestJournal.writeRequests(requestType, fromMillis, toMillis, limit, outputStream);
     }
 
     void setNextResponse(RequestPredicate requestPredicate, HttpResponseRule response) {
-        nextResponses.put(requestPredicate, response);
+        nextResponses.put(requestPredicate.getId(), response);
     }
 
     HttpResponseRule getNextResponse(RequestPredicate requestPredicate) {
-        return nextResponses.get(requestPredicate);
+        return nextResponses.get(requestPredicate.getId());
     }
 
     HttpResponseRule removeNextResponse(RequestPredicate requestPredicate) {
-        return nextResponses.remove(requestPredicate);
+        return nextResponses.remove(requestPredicate.getId());
     }
 
-    private Deque<HttpRequestContainer> getApplicationRequests(String requestType) {
-        return applicationRequests.computeIfAbsent(
-                requestType,
-                k -> Queues.synchronizedDeque(new EvictingDequeue(MAX_STORED_APPLICATION_REQUESTS)));
+    private RequestCaptureBuffer getCaptureBuffer(String requestType) {
+        RequestCaptureBuffer requests = applicationRequests.get(requestType);
+        if (requests == null) {
+            // only the first request of each type gets this far, after that the buffer is found without locking
+            requests = applicationRequests.computeIfAbsent(
+                    requestType, k -> new RequestCaptureBuffer(getStoredApplicationRequests(requestType)));
+        }
+        return requests;
     }
 
-    void reset(Set<RequestPredicate> tempRequestPredicates) {
-        applicationRequests.clear();
-        nextResponses.keySet().removeIf(tempRequestPredicates::contains);
+    /**
+     * Hands stored requests to the waiters, the longest waiting first, until there are no requests or no waiters
+     * left. Both a new request and a new waiter end up here, so whichever comes second hands the request over.
+     */
+    private void handOverApplicationRequests(String requestType, Queue<Predicate<HttpRequestContainer>> waiters) {
+        RequestCaptureBuffer requests = getCaptureBuffer(requestType);
+        Predicate<HttpRequestContainer> waiter;
+        while ((waiter = waiters.peek()) != null) {
+            CapturedRequest capturedRequest = requests.pollLast();
+            used(requests);
+            if (capturedRequest == null) {
+                return;
+            }
+            release(capturedRequest);
+            // only the thread which removes the waiter may hand it a request
+            if (!waiters.remove(waiter) || !waiter.test(capturedRequest.getRequest())) {
+                hold(requests, capturedRequest);
+            }
+        }
+    }
+
+    /**
+     * Shrinks the request before it is stored, interning its header names and short header values and compressing
+     * a large body. The headers and body are swapped for their compacted copies in a way that anything still reading
+     * the request (e.g. the thread which received it) sees either the old or the new copy, never neither.
+     */
+    private void compact(HttpRequestContainer request) {
+        if (request.getHeaders() != null) {
+            Map<String, List<String>> headers = new HashMap<>();
+            request.getHeaders().forEach((name, values) -> headers.put(intern(name), internAll(values)));
+            request.setHeaders(headers);
+        }
+        if (compressBodiesOver >= 0) {
+            request.compressBody(compressBodiesOver);
+        }
+    }
+
+    private static List<String> internAll(List<String> values) {
+        if (values == null) {
+            return null;
+        }
+        List<String> interned = new ArrayList<>(values.size());
+        for (String value : values) {
+            interned.add(value != null && value.length() <= MAX_INTERNED_VALUE_LENGTH ? intern(value) : value);
+        }
+        return interned;
+    }
+
+    private static String intern(String value) {
+        return value == null ? null : HEADER_INTERNER.intern(value);
+    }
+
+    /**
+     * Evicts the oldest requests of the least recently used request type until the stored requests are back within
+     * {@link #maxStoredBytes}. Requests are stored on the thread which received them when {@link #asyncCapture} is
+     * off (or the capture pipeline is full), so only one thread evicts at a time. Any other thread over the budget
+     * leaves it to that one, which checks the budget again once it has finished.
+     */
+    private void evictOverBudget() {
+        while (storedBytes.get() > maxStoredBytes && evicting.compareAndSet(false, true)) {
+            try {
+                if (!evictUntilWithinBudget()) {
+                    return;
+                }
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    /**
+     * @return false if there was nothing left to evict
+     */
+    private boolean evictUntilWithinBudget() {
+        while (storedBytes.get() > maxStoredBytes) {
+            RequestCaptureBuffer leastRecentlyUsed = getLeastRecentlyUsed();
+            CapturedRequest evicted = leastRecentlyUsed == null ? null : leastRecentlyUsed.pollFirst();
+            if (evicted == null) {
+                return false;
+            }
+            LOG.debug("Evicted a [{}] application request to keep within [{}] bytes",
+                    evicted.getRequestType(), maxStoredBytes);
+            release(evicted);
+        }
+        return true;
     }
 
-    private class EvictingDequeue extends ArrayDeque<HttpRequestContainer> {
-        private final int maxSize;
+    /**
+     * Moves the request type's requests to the most recently used end of {@link #usageOrder}, just after a request
+     * has been stored or taken
+     */
+    private void used(RequestCaptureBuffer requests) {
+        synchronized (usageOrder) {
+            usageOrder.put(requests, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * @return The least recently used request type's requests which aren't empty, or null if they all are. Empty
+     * ones passed over on the way are dropped from {@link #usageOrder} until a request of their type is next stored.
+     */
+    private RequestCaptureBuffer getLeastRecentlyUsed() {
+        synchronized (usageOrder) {
+            Iterator<RequestCaptureBuffer> leastRecentlyUsedFirst = usageOrder.keySet().iterator();
+            while (leastRecentlyUsedFirst.hasNext()) {
+                RequestCaptureBuffer requests = leastRecentlyUsedFirst.next();
+                // a request is counted before its buffer is used, so one stored since can't be missed here
+                if (!requests.isEmpty()) {
+                    return requests;
+                }
+                leastRecentlyUsedFirst.remove();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Adds the request to the stored total and the request type's indexes as it is stored
+     */
+    private void hold(RequestCaptureBuffer requests, CapturedRequest capturedRequest) {
+        storedBytes.addAndGet(capturedRequest.getRequest().estimateSize());
+        RequestCaptureBuffer.Entry entry = requests.newEntry(capturedRequest);
+        CapturedRequestIndex index = getRequestIndex(capturedRequest.getRequestType());
+        if (index != null) {
+            // indexed before it is added, so that it is never taken before it has been indexed
+            index.add(entry);
+        }
+        release(requests.addLast(entry));
+        used(requests);
+        // a reset removed the request type's requests while this one was being added, so it won't release it
+        if (applicationRequests.get(capturedRequest.getRequestType()) != requests && requests.take(entry)) {
+            release(capturedRequest);
+        }
+    }
+
+    /**
+     * Takes a request which is no longer stored off the stored total and out of the request type's indexes
+     */
+    private void release(CapturedRequest capturedRequest) {
+        if (capturedRequest != null) {
+            storedBytes.addAndGet(-capturedRequest.getRequest().estimateSize());
+            CapturedRequestIndex index = requestIndexes.get(capturedRequest.getRequestType());
+            if (index != null) {
+                index.remove(capturedRequest);
+            }
+        }
+    }
+
+    /**
+     * @return The request type's indexes, or null if no headers or url parameters are indexed
+     */
+    private CapturedRequestIndex getRequestIndex(String requestType) {
+        if (indexedHeaders.length == 0 && indexedParams.length == 0) {
+            return null;
+        }
+        return requestIndexes.computeIfAbsent(requestType, k -> new CapturedRequestIndex(
+                Arrays.asList(indexedHeaders), Arrays.asList(indexedParams)));
+    }
 
-        EvictingDequeue(int maxSize) {
-            this.maxSize = maxSize;
+    long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    /**
+     * @return false if the request has already been taken, or its request type's requests cleared by a reset
+     */
+    private boolean takeApplicationRequest(RequestCaptureBuffer.Entry entry) {
+        RequestCaptureBuffer requests = applicationRequests.get(entry.getCapturedRequest().getRequestType());
+        if (requests != null && requests.take(entry)) {
+            used(requests);
+            release(entry.getCapturedRequest());
+            return true;
         }
+        return false;
+    }
 
-        @Override
-        public void addLast(HttpRequestContainer httpRequestContainer) {
-            if (size() >= maxSize) {
-               removeFirst();
+    private int getStoredApplicationRequests(String requestType) {
+        if (environment == null) {
+            return storedApplicationRequests;
+        }
+        return environment.getProperty(
+                STORED_APPLICATION_REQUESTS_PROPERTY + "." + requestType, Integer.class, storedApplicationRequests);
+    }
+
+    void reset(Set<RequestPredicate> tempRequestPredicates) {
+        // so that requests received before the reset aren't stored after it
+        capturePipeline.flush();
+        for (String requestType : applicationRequests.keySet()) {
+            RequestCaptureBuffer requests = applicationRequests.remove(requestType);
+            if (requests != null) {
+                synchronized (usageOrder) {
+                    usageOrder.remove(requests);
+                }
+                // every request is released, including any added since the buffer was removed (see hold)
+                CapturedRequest capturedRequest;
+                while ((capturedRequest = requests.pollFirst()) != null) {
+                    release(capturedRequest);
+                }
             }
-            super.addLast(httpRequestContainer);
+            requestIndexes.remove(requestType);
         }
+        Set<Long> tempRequestPredicateIds = tempRequestPredicates.stream()
+                .map(RequestPredicate::getId)
+                .collect(Collectors.toSet());
+        nextResponses.keySet().removeIf(tempRequestPredicateIds::contains);
     }
 }
\ No newline at end of file
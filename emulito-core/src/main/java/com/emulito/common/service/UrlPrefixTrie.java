@@ -0,0 +1,183 @@
+package com.emulito.common.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Compressed radix tree keyed on url prefixes.
+ * <br/>
+ * <br/>
+ * Used to find every value stored against a prefix of a url in a single walk of that url, rather than checking each
+ * stored prefix one at a time. Prefixes are matched character by character (not by path segment) to keep the same
+ * semantics as the "url starts with" rule, e.g. a value stored against '/boo' is found for the url '/books'.
+ * <br/>
+ * This class is not thread safe, callers are expected to synchronize access to it.
+ */
+class UrlPrefixTrie<V> {
+
+    private final Node<V> root;
+    private int size;
+
+    UrlPrefixTrie() {
+        this.root = new Node<>("");
+        this.size = 0;
+    }
+
+    /**
+     * Creates a deep copy of the supplied trie, copying each stored value with the supplied function
+     */
+    UrlPrefixTrie(UrlPrefixTrie<V> source, UnaryOperator<V> valueCopier) {
+        this.root = copy(source.root, valueCopier);
+        this.size = source.size;
+    }
+
+    V get(String prefix) {
+        Node<V> node = findNode(prefix);
+        return node == null ? null : node.value;
+    }
+
+    V computeIfAbsent(String prefix, Function<String, V> mappingFunction) {
+        Node<V> node = insertNode(prefix);
+        if (node.value == null) {
+            node.value = mappingFunction.apply(prefix);
+            size++;
+        }
+        return node.value;
+    }
+
+    V remove(String prefix) {
+        return remove(root, prefix, 0);
+    }
+
+    /**
+     * Passes every stored value whose prefix is a prefix of the supplied url to the consumer, shortest prefix first
+     */
+    void forEachPrefixOf(String url, Consumer<V> consumer) {
+        if (url == null) {
+            return;
+        }
+        Node<V> node = root;
+        int offset = 0;
+        while (node != null) {
+            if (node.value != null) {
+                consumer.accept(node.value);
+            }
+            if (offset == url.length()) {
+                return;
+            }
+            Node<V> child = node.children.get(url.charAt(offset));
+            if (child == null || !url.startsWith(child.label, offset)) {
+                return;
+            }
+            offset += child.label.length();
+            node = child;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private Node<V> findNode(String prefix) {
+        Node<V> node = root;
+        int offset = 0;
+        while (offset < prefix.length()) {
+            Node<V> child = node.children.get(prefix.charAt(offset));
+            if (child == null || !prefix.startsWith(child.label, offset)) {
+                return null;
+            }
+            offset += child.label.length();
+            node = child;
+        }
+        return node;
+    }
+
+    private Node<V> insertNode(String prefix) {
+        Node<V> node = root;
+        int offset = 0;
+        while (offset < prefix.length()) {
+            Node<V> child = node.children.get(prefix.charAt(offset));
+            if (child == null) {
+                Node<V> leaf = new Node<>(prefix.substring(offset));
+                node.children.put(leaf.firstCharacter(), leaf);
+                return leaf;
+            }
+            int common = commonPrefixLength(child.label, prefix, offset);
+            if (common < child.label.length()) {
+                // split the existing edge so that the new prefix ends on (or branches from) a node
+                Node<V> splitNode = new Node<>(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                splitNode.children.put(child.firstCharacter(), child);
+                node.children.put(splitNode.firstCharacter(), splitNode);
+                child = splitNode;
+            }
+            offset += common;
+            node = child;
+        }
+        return node;
+    }
+
+    private V remove(Node<V> node, String prefix, int offset) {
+        if (offset == prefix.length()) {
+            V removed = node.value;
+            if (removed != null) {
+                node.value = null;
+                size--;
+            }
+            return removed;
+        }
+        Node<V> child = node.children.get(prefix.charAt(offset));
+        if (child == null || !prefix.startsWith(child.label, offset)) {
+            return null;
+        }
+        V removed = remove(child, prefix, offset + child.label.length());
+        if (removed != null && child.value == null) {
+            if (child.children.isEmpty()) {
+                node.children.remove(child.firstCharacter());
+            } else if (child.children.size() == 1) {
+                // merge the now redundant node into its only child
+                Node<V> grandChild = child.children.values().iterator().next();
+                grandChild.label = child.label + grandChild.label;
+                node.children.put(grandChild.firstCharacter(), grandChild);
+            }
+        }
+        return removed;
+    }
+
+    private static <V> Node<V> copy(Node<V> source, UnaryOperator<V> valueCopier) {
+        Node<V> node = new Node<>(source.label);
+        node.value = source.value == null ? null : valueCopier.apply(source.value);
+        source.children.forEach((character, child) -> node.children.put(character, copy(child, valueCopier)));
+        return node;
+    }
+
+    private static int commonPrefixLength(String label, String prefix, int offset) {
+        int length = Math.min(label.length(), prefix.length() - offset);
+        int index = 0;
+        while (index < length && label.charAt(index) == prefix.charAt(offset + index)) {
+            index++;
+        }
+        return index;
+    }
+
+    private static final class Node<V> {
+        private final Map<Character, Node<V>> children = new HashMap<>(4);
+        private String label;
+        private V value;
+
+        private Node(String label) {
+            this.label = label;
+        }
+
+        private char firstCharacter() {
+            return label.charAt(0);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.emulito.common.utils;
+
+/**
+ * The clock which response delays are measured against.
+ * <br/>
+ * <br/>
+ * Emulator time normally runs at the same rate as real time, but can be sped up or slowed down
+ * ({@link #setScale(double)}) or jumped forward ({@link #advance(long)}) so that tests of slow or timing out services
+ * don't have to wait for real. Every delay (see {@link com.emulito.common.domain.http.HttpResponseRule.Delay}) is
+ * worked out in emulator time, so the delays of different responses keep the same ratios to each other whatever the
+ * scale.
+ */
+public interface EmulatorClock {
+
+    /**
+     * @return The current emulator time in nanoseconds, only meaningful relative to other calls (like
+     * {@link System#nanoTime()})
+     */
+    long nanoTime();
+
+    /**
+     * Blocks the calling thread until the given amount of emulator time has passed, waking up early if the clock is
+     * advanced past the end of the wait
+     */
+    void sleep(long millis) throws InterruptedException;
+
+    /**
+     * @return How many real nanoseconds the given number of emulator nanoseconds currently take to pass
+     */
+    long toRealNanos(long nanos);
+
+    /**
+     * @return How many times faster than real time emulator time is running
+     */
+    double getScale();
+
+    /**
+     * @param scale How many times faster than real time emulator time should run e.g. 100, or 0.5 for half speed
+     */
+    void setScale(double scale);
+
+    /**
+     * Moves emulator time forward straight away, so that any delay due within that time ends now
+     */
+    void advance(long millis);
+}
@@ -0,0 +1,197 @@
+package com.emulito.common.utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks after a delay using a single thread, however many tasks are waiting.
+ * <br/>
+ * <br/>
+ * Tasks are dropped into one of a ring of buckets (the wheel) according to when they are due. The worker thread
+ * moves on one bucket every tick and runs whatever is due in that bucket, so scheduling and expiring a task are
+ * both constant time and thousands of waiting tasks cost nothing but their place in a bucket. Tasks due further
+ * ahead than one turn of the wheel wait in their bucket for the number of turns remaining.
+ * <br/>
+ * Tasks run no earlier than their delay, and at most about one tick later. They run on the worker thread and so
+ * must be quick, anything slow should be handed off to another thread by the task.
+ * <br/>
+ * Delays and ticks are measured in {@link EmulatorClock} time. When the clock runs faster than real time the worker
+ * wakes up more often so that a tick still covers the same amount of emulator time, and when the clock is advanced
+ * every tick it skipped over is caught up at once.
+ */
+@Component
+public class HashedTimerWheel {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HashedTimerWheel.class);
+    // the worker never sleeps for less than this, however fast the clock is running
+    private static final long MIN_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final EmulatorClock clock;
+    private final long tickNanos;
+    private final List<Deque<Timeout>> wheel;
+    private final int mask;
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean stopped;
+
+    /**
+     * @param clock      The clock delays are measured against
+     * @param tickMillis How far apart (in emulator time) tasks due at different times can be run
+     * @param wheelSize  The number of buckets, rounded up to a power of two
+     */
+    @Autowired
+    public HashedTimerWheel(EmulatorClock clock,
+                            @Value("${emulito.delay.tickMillis:10}") long tickMillis,
+                            @Value("${emulito.delay.wheelSize:512}") int wheelSize) {
+        if (tickMillis <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Timer wheel tick [%s] and size [%s] must both be greater than 0", tickMillis, wheelSize));
+        }
+        this.clock = clock;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        this.wheel = new ArrayList<>(Math.max(size, 1));
+        for (int i = 0; i < Math.max(size, 1); i++) {
+            wheel.add(new ArrayDeque<>());
+        }
+        this.mask = wheel.size() - 1;
+        this.worker = new ThreadFactoryBuilder().setNameFormat("emulito-timer-wheel").setDaemon(true).build()
+                .newThread(this::run);
+        this.startTime = clock.nanoTime();
+    }
+
+    /**
+     * Schedules the task to run once the delay (in emulator time) has passed. The worker thread is started by the
+     * first call.
+     * @return A handle which can be used to cancel the task before it runs
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new IllegalStateException("The timer wheel has been stopped");
+        }
+        if (started.compareAndSet(false, true)) {
+            worker.start();
+        }
+        long deadline = clock.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0));
+        Timeout timeout = new Timeout(task, deadline);
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (!stopped) {
+            long elapsed = clock.nanoTime() - startTime;
+            // every tick which has passed since the last pass, which is many after the clock has been advanced
+            while (tickNanos * (tick + 1) <= elapsed) {
+                addPendingTimeouts(tick);
+                expireTimeouts(wheel.get((int) (tick & mask)), tickNanos * (tick + 1));
+                tick++;
+            }
+            // no longer than a real tick, so that changes to the clock are picked up promptly
+            long sleepNanos = Math.min(clock.toRealNanos(tickNanos * (tick + 1) - elapsed), tickNanos);
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.max(sleepNanos, MIN_SLEEP_NANOS));
+            } catch (InterruptedException e) {
+                if (stopped) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void addPendingTimeouts(long currentTick) {
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            // anything already overdue goes in the current bucket so that it runs this tick
+            long dueTick = Math.max(timeout.deadline / tickNanos, currentTick);
+            timeout.remainingRounds = (dueTick - currentTick) / wheel.size();
+            wheel.get((int) (dueTick & mask)).addLast(timeout);
+        }
+    }
+
+    private void expireTimeouts(Deque<Timeout> bucket, long tickDeadline) {
+        Iterator<Timeout> timeouts = bucket.iterator();
+        while (timeouts.hasNext()) {
+            Timeout timeout = timeouts.next();
+            if (timeout.isCancelled()) {
+                timeouts.remove();
+            } else if (timeout.remainingRounds <= 0 && timeout.deadline <= tickDeadline) {
+                timeouts.remove();
+                timeout.expire();
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    /**
+     * A task waiting on the wheel
+     */
+    public static final class Timeout {
+
+        private final Runnable task;
+        // nanoseconds from when the wheel was started
+        private final long deadline;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile boolean cancelled;
+        // only used by the worker thread
+        private long remainingRounds;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return true if the task was cancelled, false if it has already run
+         */
+        public boolean cancel() {
+            if (done.compareAndSet(false, true)) {
+                cancelled = true;
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void expire() {
+            if (done.compareAndSet(false, true)) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Scheduled task failed", e);
+                }
+            }
+        }
+    }
+}
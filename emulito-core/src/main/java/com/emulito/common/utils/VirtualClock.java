@@ -0,0 +1,81 @@
+package com.emulito.common.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EmulatorClock} which runs at a scale of real time, plus however far it has been advanced.
+ * <br/>
+ * <br/>
+ * Reading the time doesn't take a lock, the scale and offset are held together in a single immutable object which is
+ * replaced whenever either changes.
+ */
+@Component
+public class VirtualClock implements EmulatorClock {
+
+    private volatile State state = new State(System.nanoTime(), 0L, 1.0);
+
+    @Override
+    public long nanoTime() {
+        State current = state;
+        return current.virtualBaseNanos + (long) ((System.nanoTime() - current.realBaseNanos) * current.scale);
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        long deadline = nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        synchronized (this) {
+            long remainingNanos;
+            while ((remainingNanos = deadline - nanoTime()) > 0) {
+                // woken early by any change to the clock, after which the remaining time is worked out again
+                TimeUnit.NANOSECONDS.timedWait(this, toRealNanos(remainingNanos));
+            }
+        }
+    }
+
+    @Override
+    public long toRealNanos(long nanos) {
+        return (long) Math.ceil(nanos / state.scale);
+    }
+
+    @Override
+    public double getScale() {
+        return state.scale;
+    }
+
+    @Override
+    public synchronized void setScale(double scale) {
+        if (!(scale > 0) || Double.isInfinite(scale)) {
+            throw new IllegalArgumentException(String.format("Clock scale [%s] must be greater than 0", scale));
+        }
+        // rebase so that emulator time carries on from where it is now at the new rate
+        long realNow = System.nanoTime();
+        State current = state;
+        long virtualNow = current.virtualBaseNanos + (long) ((realNow - current.realBaseNanos) * current.scale);
+        state = new State(realNow, virtualNow, scale);
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void advance(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException(String.format("Clock can not be advanced by [%s] milliseconds", millis));
+        }
+        State current = state;
+        state = new State(current.realBaseNanos, current.virtualBaseNanos + TimeUnit.MILLISECONDS.toNanos(millis), current.scale);
+        notifyAll();
+    }
+
+    private static final class State {
+        private final long realBaseNanos;
+        private final long virtualBaseNanos;
+        private final double scale;
+
+        private State(long realBaseNanos, long virtualBaseNanos, double scale) {
+            this.realBaseNanos = realBaseNanos;
+            this.virtualBaseNanos = virtualBaseNanos;
+            this.scale = scale;
+        }
+    }
+}
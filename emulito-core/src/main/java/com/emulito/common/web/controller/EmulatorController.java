@@ -2,10 +2,15 @@ package com.emulito.common.web.controller;
 
 import com.emulito.common.exception.ApplicationRequestNotFoundException;
 import com.emulito.common.exception.EmulatorException;
+import com.emulito.common.service.ApplicationRequestSubscription;
 import com.emulito.common.service.EmulatorService;
+import com.emulito.common.domain.http.CapturedRequest;
+import com.emulito.common.domain.http.EncodedResponse;
 import com.emulito.common.domain.http.HttpRequestContainer;
 import com.emulito.common.domain.http.HttpResponseContainer;
 import com.emulito.common.domain.http.HttpResponseRule;
+import com.emulito.common.utils.EmulatorClock;
+import com.emulito.common.utils.HashedTimerWheel;
 import com.emulito.common.utils.RequestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpHeaders;
@@ -15,8 +20,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -24,16 +32,25 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 import static java.lang.String.format;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE;
 
 /**
  * Global Controller.
@@ -44,10 +61,25 @@ public class EmulatorController {
 
     private static final Logger LOG = LoggerFactory.getLogger(EmulatorController.class);
     private static final String APP_REQUESTS_URL = "/applicationRequest";
+    private static final String APP_REQUESTS_JOURNAL_URL = APP_REQUESTS_URL + "/journal";
+    private static final String APP_REQUESTS_STREAM_URL = APP_REQUESTS_URL + "/stream";
+    private static final String APP_REQUESTS_BULK_URL = APP_REQUESTS_URL + "/bulk";
+    private static final String APP_REQUESTS_QUERY_URL = APP_REQUESTS_URL + "/query";
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+    private static final String APP_REQUEST_EVENT_NAME = "applicationRequest";
+    private static final String DROPPED_EVENT_NAME = "dropped";
     private static final String PRESET_RESPONSE_URL = "/presetResponse";
+    private static final String PRESET_RESPONSE_ID_URL = PRESET_RESPONSE_URL + "/{ruleId}";
     private static final String RESET_URL = "/reset";
+    private static final String CLOCK_SCALE_URL = "/clock/scale";
+    private static final String CLOCK_ADVANCE_URL = "/clock/advance";
     private static final String REQUEST_TYPE_URL_PARAM_KEY = "requestType";
+    private static final String WAIT_MILLIS_URL_PARAM_KEY = "waitMillis";
     private static final String URI_OVERRIDE_HEADER = "X-Request-URI-Override";
+    private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
 
     @Autowired
     private EmulatorService emulatorService;
@@ -55,6 +87,12 @@ public class EmulatorController {
     @Autowired
     private RequestUtils requestUtils;
 
+    @Autowired
+    private HashedTimerWheel responseDelayTimer;
+
+    @Autowired
+    private EmulatorClock emulatorClock;
+
     @RequestMapping(
             value = "/**",
             method = {RequestMethod.POST, RequestMethod.PUT,
@@ -74,29 +112,158 @@ public class EmulatorController {
         } else {
             requestContainer = requestUtils.buildRequestContainer(httpRequest);
         }
-        HttpResponseContainer response = emulatorService.getResponse(requestContainer);
-        returnResponse(httpResponse, response);
+        HttpResponseRule responseRule = emulatorService.matchResponse(requestContainer);
+        HttpResponseRule.Delay delay = responseRule.getDelay();
+        // sampled once here, as a delay drawn from a distribution is different every time
+        long delayMillis = delay == null ? 0 : delay.sampleDelayMillis();
+        boolean throttled = delay != null && delay.isThrottled();
+        if ((delayMillis > 0 || throttled) && httpRequest.isAsyncSupported()) {
+            delayResponse(httpRequest, httpResponse, responseRule.getResponse(), delayMillis, delay);
+            return;
+        }
+        if (throttled) {
+            LOG.warn("Request does not support async processing, the response body will not be throttled");
+        }
+        emulatorService.waitForDelay(delayMillis);
+        returnResponse(httpRequest, httpResponse, responseRule.getResponse());
     }
 
-    private void returnResponse(HttpServletResponse httpResponse, HttpResponseContainer response) {
-        httpResponse.setStatus(response.getStatusCode());
-        for (Map.Entry<String, List<String>> headers : response.getHeaders().entrySet()) {
-            for (String headerValue : headers.getValue()) {
-                //don't add any content-length header as that will be populated automatically
-                if (!HttpHeaders.CONTENT_LENGTH.equals(headerValue)) {
-                    httpResponse.addHeader(headers.getKey(), headerValue);
+    /**
+     * Frees up the servlet container thread while the response is delayed, rather than holding it for the whole
+     * delay. The response is written once the delay has passed, from the timer wheel via the container's own
+     * threads, so any number of delayed responses can be waiting at once.
+     * <br/>
+     * A throttled response body is then written a chunk at a time, see {@link ThrottledBodyWriter}.
+     */
+    private void delayResponse(HttpServletRequest httpRequest, HttpServletResponse httpResponse,
+                               HttpResponseContainer response, long delayMillis, HttpResponseRule.Delay delay) {
+        LOG.debug("Delaying response for [{}] milliseconds", delayMillis);
+        AsyncContext asyncContext = httpRequest.startAsync(httpRequest, httpResponse);
+        // never timed out by the servlet container, whose timeout is in real time and so can't follow the clock's
+        // scale changing while the response waits. The timer wheel always writes the response once its delay is up.
+        asyncContext.setTimeout(0);
+        ThrottledBodyWriter throttledBodyWriter = delay.isThrottled()
+                ? new ThrottledBodyWriter(asyncContext, responseDelayTimer, emulatorClock,
+                        delay.getBytesPerSecond(), delay.getEffectiveChunkSize())
+                : null;
+        HashedTimerWheel.Timeout timeout = responseDelayTimer.schedule(
+                () -> asyncContext.start(() -> returnDelayedResponse(asyncContext, httpRequest, httpResponse, response, throttledBodyWriter)),
+                delayMillis, TimeUnit.MILLISECONDS);
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                if (timeout.cancel()) {
+                    LOG.warn("Delayed response timed out before it could be written");
+                    httpResponse.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+                    asyncContext.complete();
+                } else if (throttledBodyWriter != null) {
+                    LOG.warn("Throttled response timed out before its body was written");
+                    // otherwise the writer is part way through a chunk and completes the request once it stops
+                    if (throttledBodyWriter.cancel()) {
+                        asyncContext.complete();
+                    }
                 }
             }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                if (timeout.cancel()) {
+                    LOG.warn("Application request failed while its response was delayed", event.getThrowable());
+                    asyncContext.complete();
+                } else if (throttledBodyWriter != null) {
+                    LOG.warn("Application request failed while its response body was throttled", event.getThrowable());
+                    if (throttledBodyWriter.cancel()) {
+                        asyncContext.complete();
+                    }
+                }
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+    }
+
+    private void returnDelayedResponse(AsyncContext asyncContext, HttpServletRequest httpRequest, HttpServletResponse httpResponse,
+                                       HttpResponseContainer response, ThrottledBodyWriter throttledBodyWriter) {
+        if (throttledBodyWriter != null) {
+            returnThrottledResponse(asyncContext, httpRequest, httpResponse, response, throttledBodyWriter);
+            return;
+        }
+        try {
+            returnResponse(httpRequest, httpResponse, response);
+        } catch (RuntimeException e) {
+            // the request has left the dispatcher so there is no exception handler to report this to the application
+            LOG.error("There was an error returning a delayed response", e);
+        } finally {
+            asyncContext.complete();
+        }
+    }
+
+    /**
+     * Writes the status and headers straight away and leaves the body to the {@link ThrottledBodyWriter}, which
+     * completes the async request once it is done
+     */
+    private void returnThrottledResponse(AsyncContext asyncContext, HttpServletRequest httpRequest, HttpServletResponse httpResponse,
+                                         HttpResponseContainer response, ThrottledBodyWriter throttledBodyWriter) {
+        try {
+            EncodedResponse encodedResponse = response.encode(emulatorService.getBodyFileDirectory());
+            String contentEncoding = writeStatusAndHeaders(httpRequest, httpResponse, encodedResponse);
+            httpResponse.setContentLengthLong(encodedResponse.getContentLength(contentEncoding));
+            throttledBodyWriter.start(encodedResponse.openBody(contentEncoding), httpResponse.getOutputStream());
+        } catch (IOException | RuntimeException e) {
+            LOG.error("There was an error returning a throttled response", e);
+            asyncContext.complete();
         }
+    }
+
+    private void returnResponse(HttpServletRequest httpRequest, HttpServletResponse httpResponse, HttpResponseContainer response) {
+        EncodedResponse encodedResponse = response.encode(emulatorService.getBodyFileDirectory());
+        String contentEncoding = writeStatusAndHeaders(httpRequest, httpResponse, encodedResponse);
         try {
-            httpResponse.getWriter().write(response.getBody());
-            httpResponse.getWriter().flush();
+            long contentLength = encodedResponse.getContentLength(contentEncoding);
+            httpResponse.setContentLengthLong(contentLength);
+            if (encodedResponse.getBodyFile() != null && Boolean.TRUE.equals(httpRequest.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+                // let the servlet container send the file straight to the socket once this method returns
+                httpRequest.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, encodedResponse.getBodyFile().toAbsolutePath().toString());
+                httpRequest.setAttribute(SENDFILE_START_ATTRIBUTE, 0L);
+                httpRequest.setAttribute(SENDFILE_END_ATTRIBUTE, contentLength);
+                LOG.info("Response handed to the servlet container to send from file [{}]", encodedResponse.getBodyFile());
+                return;
+            }
+            OutputStream outputStream = httpResponse.getOutputStream();
+            encodedResponse.writeBody(outputStream, contentEncoding);
+            outputStream.flush();
             LOG.info("Response sent");
         } catch (IOException e) {
             throw new EmulatorException("There was an error writing the http response body", e);
         }
     }
 
+    /**
+     * @return The content encoding the body should be written in, or null to write it as is
+     */
+    private static String writeStatusAndHeaders(HttpServletRequest httpRequest, HttpServletResponse httpResponse,
+                                                EncodedResponse encodedResponse) {
+        httpResponse.setStatus(encodedResponse.getStatusCode());
+        // any content-length header in the response setup has already been dropped in favour of the real length
+        for (int header = 0; header < encodedResponse.getHeaderCount(); header++) {
+            httpResponse.addHeader(encodedResponse.getHeaderName(header), encodedResponse.getHeaderValue(header));
+        }
+        String contentEncoding = encodedResponse.selectContentEncoding(httpRequest.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        if (encodedResponse.isCompressible()) {
+            httpResponse.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (contentEncoding != null) {
+            httpResponse.addHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        }
+        return contentEncoding;
+    }
+
     /**
      * API call to clear out the stored emulator state. Should be called at the start of every application test
      */
@@ -108,6 +275,44 @@ public class EmulatorController {
         LOG.info("Emulator state reset");
     }
 
+    /**
+     * API call to change how fast response delays run, e.g. a factor of 100 turns a 30 second delay into 0.3 seconds
+     * while keeping every delay in proportion. A factor of 1 goes back to real time.
+     */
+    @PutMapping(
+            value = CLOCK_SCALE_URL)
+    public void setClockScale(@RequestParam("factor") double factor) {
+        LOG.info("Emulator Request received from test client to set the clock scale to [{}]", factor);
+        if (!(factor > 0) || Double.isInfinite(factor)) {
+            throw new HttpClientErrorException(BAD_REQUEST, format("Clock scale factor [%s] must be greater than 0", factor));
+        }
+        emulatorService.setClockScale(factor);
+    }
+
+    /**
+     * API call to return the current clock scale factor, see {@link #setClockScale(double)}
+     */
+    @GetMapping(
+            value = CLOCK_SCALE_URL,
+            produces = APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public double getClockScale() {
+        return emulatorService.getClockScale();
+    }
+
+    /**
+     * API call to move emulator time forward, ending any response delays due within that time straight away
+     */
+    @PostMapping(
+            value = CLOCK_ADVANCE_URL)
+    public void advanceClock(@RequestParam("millis") long millis) {
+        LOG.info("Emulator Request received from test client to advance the clock by [{}] milliseconds", millis);
+        if (millis < 0) {
+            throw new HttpClientErrorException(BAD_REQUEST, format("Clock can not be advanced by [%s] milliseconds", millis));
+        }
+        emulatorService.advanceClock(millis);
+    }
+
     /**
      * API call to obtain the last request received by this emulator for the specified request type.
      * Request type passed in by the {@value #REQUEST_TYPE_URL_PARAM_KEY} URL parameter.
@@ -131,15 +336,202 @@ public class EmulatorController {
         return lastRequest;
     }
 
+    /**
+     * As {@link #getLastApplicationRequest(String)}, but when the request hasn't been received yet waits up to
+     * {@value #WAIT_MILLIS_URL_PARAM_KEY} milliseconds for it to arrive rather than returning a 404 straight away.
+     * <br/>
+     * No thread is held while waiting: the call is completed by whichever thread stores the request, or by the servlet
+     * container once the wait is over, so test clients don't need to poll for requests the application sends
+     * asynchronously.
+     */
+    @GetMapping(
+            value = APP_REQUESTS_URL,
+            params = WAIT_MILLIS_URL_PARAM_KEY,
+            produces = APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public DeferredResult<HttpRequestContainer> getLastApplicationRequest(@RequestParam(REQUEST_TYPE_URL_PARAM_KEY) String requestType,
+                                                                          @RequestParam(WAIT_MILLIS_URL_PARAM_KEY) long waitMillis) {
+        LOG.info("Emulator Request received from test client to wait up to [{}] milliseconds for application request [{}]",
+                waitMillis, requestType);
+        if (StringUtils.isEmpty(requestType)) {
+            throw new HttpClientErrorException(BAD_REQUEST, format("'%s' URL param was not set", REQUEST_TYPE_URL_PARAM_KEY));
+        }
+        if (waitMillis <= 0) {
+            throw new HttpClientErrorException(BAD_REQUEST, format("'%s' URL param [%s] must be greater than 0",
+                    WAIT_MILLIS_URL_PARAM_KEY, waitMillis));
+        }
+        DeferredResult<HttpRequestContainer> lastRequest = new DeferredResult<>(waitMillis, () -> new ApplicationRequestNotFoundException(
+                format("[%s] request was not sent to the emulator within [%s] milliseconds", requestType, waitMillis)));
+        // false once the call has timed out, so that the request is left for the next call
+        Predicate<HttpRequestContainer> waiter = request -> {
+            boolean returned = lastRequest.setResult(request);
+            if (returned) {
+                LOG.info("Returning last application request:\n [{}]", request);
+            }
+            return returned;
+        };
+        lastRequest.onCompletion(() -> emulatorService.stopWaitingForApplicationRequest(requestType, waiter));
+        emulatorService.waitForApplicationRequest(requestType, waiter);
+        return lastRequest;
+    }
+
+    /**
+     * API call to obtain many requests received by this emulator in one call, oldest first, for one or more request
+     * types (the {@value #REQUEST_TYPE_URL_PARAM_KEY} URL param can be repeated). Requests of different types are
+     * merged in the order they were received.
+     * <br/>
+     * "offset" and "limit" URL params return a page of the requests rather than all of them. With "drain=true" the
+     * requests returned are removed, as {@link #getLastApplicationRequest(String)} removes them, otherwise they are
+     * left to be returned again. The requests are returned as a JSON array, or as newline delimited JSON when the
+     * Accept header asks for {@value #NDJSON_VALUE}.
+     */
+    @GetMapping(
+            value = APP_REQUESTS_BULK_URL,
+            produces = {APPLICATION_JSON_VALUE, NDJSON_VALUE})
+    public void getApplicationRequests(@RequestParam(REQUEST_TYPE_URL_PARAM_KEY) List<String> requestTypes,
+                                       @RequestParam(value = "offset", defaultValue = "0") int offset,
+                                       @RequestParam(value = "limit", required = false) Integer limit,
+                                       @RequestParam(value = "drain", defaultValue = "false") boolean drain,
+                                       @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                       HttpServletResponse httpResponse) throws IOException {
+        LOG.info("Emulator Request received from test client for application requests {}, offset [{}], limit [{}], drain [{}]",
+                requestTypes, offset, limit, drain);
+        if (requestTypes == null || requestTypes.stream().allMatch(StringUtils::isEmpty)) {
+            throw new HttpClientErrorException(BAD_REQUEST, format("'%s' URL param was not set", REQUEST_TYPE_URL_PARAM_KEY));
+        }
+        if (offset < 0 || (limit != null && limit < 0)) {
+            throw new HttpClientErrorException(BAD_REQUEST, format("Offset [%s] and limit [%s] can not be negative", offset, limit));
+        }
+        boolean newlineDelimited = accept != null && accept.contains(NDJSON_VALUE);
+        httpResponse.setContentType(newlineDelimited ? NDJSON_VALUE : APPLICATION_JSON_VALUE);
+        int written = emulatorService.writeApplicationRequests(requestTypes, offset, limit == null ? Integer.MAX_VALUE : limit,
+                drain, newlineDelimited, httpResponse.getOutputStream());
+        LOG.info("Returned [{}] application requests", written);
+    }
+
+    /**
+     * API call to find the requests received by this emulator which match a set of rules, oldest first, rather than
+     * retrieving them all and filtering them in the test client. The request body is a predicate just as in a
+     * response rule, i.e. a "requestType" and the "rules" which every request returned must match.
+     * <br/>
+     * "limit" and "drain" URL params work as they do for {@link #getApplicationRequests}. Rules asking for a header
+     * or url parameter to be a value are answered from an index when the emulator has been configured to index that
+     * header or url parameter. A HTTP 400 is returned if the predicate is missing or any of its rules are invalid.
+     */
+    @PostMapping(
+            value = APP_REQUESTS_QUERY_URL,
+            produces = APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public List<CapturedRequest> queryApplicationRequests(@RequestBody HttpResponseRule.CustomRequestPredicateDefinition query,
+                                                          @RequestParam(value = "limit", required = false) Integer limit,
+                                                          @RequestParam(value = "drain", defaultValue = "false") boolean drain) {
+        LOG.info("Emulator Request received from test client to query application requests [{}], limit [{}], drain [{}]",
+                query, limit, drain);
+        if (limit != null && limit < 0) {
+            throw new HttpClientErrorException(BAD_REQUEST, format("Limit [%s] can not be negative", limit));
+        }
+        List<CapturedRequest> capturedRequests;
+        try {
+            capturedRequests = emulatorService.queryApplicationRequests(query, limit == null ? Integer.MAX_VALUE : limit, drain);
+        } catch (EmulatorException e) {
+            throw new HttpClientErrorException(BAD_REQUEST, e.getMessage());
+        }
+        LOG.info("Returned [{}] application requests", capturedRequests.size());
+        return capturedRequests;
+    }
+
+    /**
+     * API call to observe every request received by this emulator from now on, as a stream of Server-Sent Events,
+     * optionally of just the request type passed in by the {@value #REQUEST_TYPE_URL_PARAM_KEY} URL param.
+     * <br/>
+     * Each request is sent as an "{@value #APP_REQUEST_EVENT_NAME}" event as soon as it is received. Up to
+     * "bufferSize" requests are held for a subscriber which can't keep up, beyond that requests are dropped (the
+     * "drop" URL param chooses whether the oldest or newest go) and a "{@value #DROPPED_EVENT_NAME}" event with the
+     * number dropped is sent before the next request. The application's requests are never held up by subscribers.
+     */
+    @GetMapping(
+            value = APP_REQUESTS_STREAM_URL,
+            produces = TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamApplicationRequests(@RequestParam(value = REQUEST_TYPE_URL_PARAM_KEY, required = false) String requestType,
+                                                @RequestParam(value = "bufferSize", defaultValue = "1000") int bufferSize,
+                                                @RequestParam(value = "drop", defaultValue = "OLDEST") ApplicationRequestSubscription.DropPolicy dropPolicy) {
+        LOG.info("Emulator Request received from test client to stream application requests [{}]", requestType);
+        if (bufferSize <= 0) {
+            throw new HttpClientErrorException(BAD_REQUEST, format("Buffer size [%s] must be greater than 0", bufferSize));
+        }
+        // never times out, the stream lasts until the test client goes away
+        SseEmitter emitter = new SseEmitter(0L);
+        ApplicationRequestSubscription subscription = emulatorService.subscribeToApplicationRequests(
+                StringUtils.isEmpty(requestType) ? null : requestType, bufferSize, dropPolicy, (capturedRequest, dropped) -> {
+                    if (dropped > 0) {
+                        emitter.send(SseEmitter.event().name(DROPPED_EVENT_NAME).data(dropped));
+                    }
+                    emitter.send(SseEmitter.event().name(APP_REQUEST_EVENT_NAME).data(capturedRequest, APPLICATION_JSON));
+                });
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return emitter;
+    }
+
+    /**
+     * API call to obtain every request received by this emulator for the specified request type within a time range,
+     * as a JSON array, oldest first. Needs the request journal to be enabled.
+     * <br/>
+     * The range is from the "from" URL param (inclusive) to the "to" URL param (exclusive), both in milliseconds since
+     * the epoch, and at most "limit" requests are returned. Requests are streamed from the journal as they are written
+     * out, however many there are. Unlike {@link #getLastApplicationRequest(String)} requests are not removed once
+     * returned.
+     */
+    @GetMapping(
+            value = APP_REQUESTS_JOURNAL_URL,
+            produces = APPLICATION_JSON_VALUE)
+    public void getJournalledApplicationRequests(@RequestParam(REQUEST_TYPE_URL_PARAM_KEY) String requestType,
+                                                 @RequestParam(value = "from", defaultValue = "0") long fromMillis,
+                                                 @RequestParam(value = "to", required = false) Long toMillis,
+                                                 @RequestParam(value = "limit", required = false) Integer limit,
+                                                 HttpServletResponse httpResponse) throws IOException {
+        LOG.info("Emulator Request received from test client for journalled application requests [{}] from [{}] to [{}]",
+                requestType, fromMillis, toMillis);
+        if (StringUtils.isEmpty(requestType)) {
+            throw new HttpClientErrorException(BAD_REQUEST, format("'%s' URL param was not set", REQUEST_TYPE_URL_PARAM_KEY));
+        }
+        if (limit != null && limit < 0) {
+            throw new HttpClientErrorException(BAD_REQUEST, format("Limit [%s] can not be negative", limit));
+        }
+        if (!emulatorService.isRequestJournalEnabled()) {
+            throw new HttpClientErrorException(BAD_REQUEST, "The request journal is not enabled, see property 'emulito.journal.enabled'");
+        }
+        httpResponse.setContentType(APPLICATION_JSON_VALUE);
+        int written = emulatorService.writeJournalledRequests(requestType, fromMillis,
+                toMillis == null ? Long.MAX_VALUE : toMillis, limit == null ? Integer.MAX_VALUE : limit,
+                httpResponse.getOutputStream());
+        LOG.info("Returned [{}] journalled application requests", written);
+    }
+
     /**
      * API call to add a response rule which defines what the emulator should return for requests that match the rule predicate.
      * For a sample response setup file see resources/responses/sampleResponseSetupTemplate.json
+     * <br/>
+     * Returns the id of the new rule, which can be passed to {@link #removeResponseRule(long)} to remove it again.
      */
     @PostMapping(
-            value = PRESET_RESPONSE_URL)
-    public void addResponseRule(@RequestBody HttpResponseRule responseRule) {
+            value = PRESET_RESPONSE_URL,
+            produces = APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public long addResponseRule(@RequestBody HttpResponseRule responseRule) {
         LOG.info("Emulator Request received from test client to add a response rule");
-        emulatorService.addResponseRule(responseRule);
+        return emulatorService.addResponseRule(responseRule);
+    }
+
+    /**
+     * API call to remove a single response rule, identified by the id returned when it was added.
+     */
+    @DeleteMapping(
+            value = PRESET_RESPONSE_ID_URL)
+    public void removeResponseRule(@PathVariable("ruleId") long ruleId) {
+        LOG.info("Emulator Request received from test client to remove response rule [{}]", ruleId);
+        emulatorService.removeResponseRule(ruleId);
     }
 
     @ResponseStatus(HttpStatus.NOT_FOUND)  // 404
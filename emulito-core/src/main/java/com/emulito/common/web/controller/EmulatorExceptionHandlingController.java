@@ -1,6 +1,7 @@
 package com.emulito.common.web.controller;
 
 import com.emulito.common.exception.ApplicationRequestNotFoundException;
+import com.emulito.common.exception.ResponseRuleNotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -20,4 +21,12 @@ public class EmulatorExceptionHandlingController {
 		LOGGER.debug("Handling application request not found exception");
 		return String.format("{\"message\":\"%s\"}", e.getMessage());
 	}
+
+	@ResponseStatus(HttpStatus.NOT_FOUND)  // 404
+	@ResponseBody
+	@ExceptionHandler(ResponseRuleNotFoundException.class)
+	public String handleResponseRuleNotFound(ResponseRuleNotFoundException e) {
+		LOGGER.debug("Handling response rule not found exception");
+		return String.format("{\"message\":\"%s\"}", e.getMessage());
+	}
 }
\ No newline at end of file
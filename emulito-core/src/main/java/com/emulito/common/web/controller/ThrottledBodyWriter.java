@@ -0,0 +1,147 @@
+package com.emulito.common.web.controller;
+
+import com.emulito.common.utils.EmulatorClock;
+import com.emulito.common.utils.HashedTimerWheel;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a response body a chunk at a time, no faster than a set number of bytes per second, to emulate a service
+ * which streams its responses slowly.
+ * <br/>
+ * <br/>
+ * No thread waits between chunks. Each chunk is written on a servlet container thread, which then schedules the
+ * next chunk on the {@link HashedTimerWheel} and returns. Chunks are timed from when the first one was written, so
+ * the overall rate holds however late an individual chunk is. The async request is completed once the whole body
+ * has been written, or once the writer has stopped after being cancelled, unless whoever cancelled it is told to
+ * complete it instead (see {@link #cancel()}). Either way only one of them ever writes to or completes the response.
+ * <br/>
+ * The rate is in {@link EmulatorClock} time, so a body throttled to 1 KB/s is written at 100 KB/s when the clock runs
+ * 100 times faster than real time.
+ */
+final class ThrottledBodyWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThrottledBodyWriter.class);
+
+    private final AsyncContext asyncContext;
+    private final HashedTimerWheel timer;
+    private final EmulatorClock clock;
+    private final long bytesPerSecond;
+    private final byte[] chunk;
+    private InputStream body;
+    private OutputStream outputStream;
+    private long startNanos;
+    private long bytesWritten;
+    private volatile HashedTimerWheel.Timeout nextChunk;
+    private volatile boolean cancelled;
+
+    ThrottledBodyWriter(AsyncContext asyncContext, HashedTimerWheel timer, EmulatorClock clock, long bytesPerSecond, int chunkSize) {
+        this.asyncContext = asyncContext;
+        this.timer = timer;
+        this.clock = clock;
+        this.bytesPerSecond = bytesPerSecond;
+        this.chunk = new byte[chunkSize];
+    }
+
+    /**
+     * Writes the first chunk straight away and schedules the rest. Takes ownership of the body, which is closed once
+     * it has all been written.
+     */
+    void start(InputStream body, OutputStream outputStream) {
+        this.body = body;
+        this.outputStream = outputStream;
+        this.startNanos = clock.nanoTime();
+        writeChunk();
+    }
+
+    /**
+     * Stops writing the body, e.g. because the request has timed out or the application has gone away.
+     * @return true if the writer was waiting to write the next chunk and has been stopped, in which case the caller
+     * completes the async request. Otherwise a chunk is being written, or is about to be, and the writer completes
+     * the request itself once it sees it has been cancelled.
+     */
+    boolean cancel() {
+        cancelled = true;
+        return stopNextChunk();
+    }
+
+    private boolean stopNextChunk() {
+        HashedTimerWheel.Timeout timeout = nextChunk;
+        if (timeout != null && timeout.cancel()) {
+            closeBody();
+            return true;
+        }
+        return false;
+    }
+
+    private void writeChunk() {
+        if (cancelled) {
+            finish();
+            return;
+        }
+        try {
+            int read = IOUtils.read(body, chunk);
+            if (read > 0) {
+                outputStream.write(chunk, 0, read);
+                outputStream.flush();
+                bytesWritten += read;
+            }
+            if (read < chunk.length) {
+                LOG.info("Throttled response sent, [{}] bytes", bytesWritten);
+                finish();
+                return;
+            }
+            long dueNanos = startNanos + bytesWritten * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+            nextChunk = timer.schedule(this::startNextChunk, dueNanos - clock.nanoTime(), TimeUnit.NANOSECONDS);
+            // cancelled while this chunk was being written, so cancel() may have missed the chunk just scheduled
+            if (cancelled && stopNextChunk()) {
+                complete();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("There was an error writing a throttled response body after [{}] bytes", bytesWritten, e);
+            finish();
+        }
+    }
+
+    /**
+     * Runs on the timer wheel, handing the next chunk to a servlet container thread
+     */
+    private void startNextChunk() {
+        try {
+            asyncContext.start(this::writeChunk);
+        } catch (IllegalStateException e) {
+            // the async request has already been completed, e.g. by the servlet container after an error
+            LOG.debug("Throttled response was completed before its body was written", e);
+            closeBody();
+        }
+    }
+
+    private void finish() {
+        closeBody();
+        complete();
+    }
+
+    private void complete() {
+        try {
+            asyncContext.complete();
+        } catch (IllegalStateException e) {
+            // the servlet container completes the request itself after a timeout or error nobody else completed
+            LOG.debug("Throttled response was already completed", e);
+        }
+    }
+
+    private void closeBody() {
+        try {
+            body.close();
+        } catch (IOException e) {
+            LOG.debug("Could not close throttled response body", e);
+        }
+    }
+}
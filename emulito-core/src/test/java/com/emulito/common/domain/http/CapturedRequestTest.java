@@ -0,0 +1,36 @@
+package com.emulito.common.domain.http;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CapturedRequestTest {
+
+    private static final String TEST_REQUEST_TYPE = "testRequestType";
+    private static final String TEST_URL = "testUrl";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void serializeAndDeserialize() throws IOException {
+        HttpRequestContainer request = new HttpRequestContainer();
+        request.setUrl(TEST_URL);
+        CapturedRequest capturedRequest = new CapturedRequest(1571402400000L, TEST_REQUEST_TYPE, request);
+
+        String json = objectMapper.writeValueAsString(capturedRequest);
+        JsonNode node = objectMapper.readTree(json);
+        CapturedRequest deserialized = objectMapper.readValue(json, CapturedRequest.class);
+
+        assertThat(node.get(CapturedRequest.TIMESTAMP_NODE_KEY).asLong(), is(1571402400000L));
+        assertThat(node.get(CapturedRequest.REQUEST_TYPE_NODE_KEY).asText(), is(TEST_REQUEST_TYPE));
+        assertThat(node.get(CapturedRequest.REQUEST_NODE_KEY).get(HttpRequestContainer.URL_NODE_KEY).asText(), is(TEST_URL));
+        assertThat(deserialized.getTimestamp(), is(1571402400000L));
+        assertThat(deserialized.getRequestType(), is(TEST_REQUEST_TYPE));
+        assertThat(deserialized.getRequest().getUrl(), is(TEST_URL));
+    }
+}
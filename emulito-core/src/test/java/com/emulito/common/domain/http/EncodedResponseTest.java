@@ -0,0 +1,275 @@
+package com.emulito.common.domain.http;
+
+import com.emulito.common.exception.EmulatorException;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class EncodedResponseTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private Path bodyFileDirectory;
+
+    @Before
+    public void setup() {
+        bodyFileDirectory = temporaryFolder.getRoot().toPath();
+    }
+
+    @Test
+    public void headersFlattenedWithoutContentLength() {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        headers.put("firstHeaderKey", newArrayList("firstHeaderValue", "secondHeaderValue"));
+        headers.put("Content-Length", newArrayList("555"));
+        headers.put("secondHeaderKey", newArrayList("thirdHeaderValue"));
+
+        EncodedResponse encodedResponse = new EncodedResponse(200, headers, "testBody");
+
+        assertThat(encodedResponse.getStatusCode(), is(200));
+        assertThat(encodedResponse.getHeaderCount(), is(3));
+        assertThat(encodedResponse.getHeaderName(0), is("firstHeaderKey"));
+        assertThat(encodedResponse.getHeaderValue(0), is("firstHeaderValue"));
+        assertThat(encodedResponse.getHeaderName(1), is("firstHeaderKey"));
+        assertThat(encodedResponse.getHeaderValue(1), is("secondHeaderValue"));
+        assertThat(encodedResponse.getHeaderName(2), is("secondHeaderKey"));
+        assertThat(encodedResponse.getHeaderValue(2), is("thirdHeaderValue"));
+    }
+
+    @Test
+    public void bodyEncodedAsUtf8ByDefault() throws IOException {
+        EncodedResponse encodedResponse = new EncodedResponse(200, new LinkedHashMap<>(), "caf\u00e9");
+
+        assertThat(encodedResponse.getContentLength(), is(5L));
+        assertThat(writeBody(encodedResponse), is("caf\u00e9".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void bodyEncodedWithContentTypeCharset() throws IOException {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        headers.put("content-type", newArrayList("text/plain; charset=ISO-8859-1"));
+
+        EncodedResponse encodedResponse = new EncodedResponse(200, headers, "caf\u00e9");
+
+        assertThat(encodedResponse.getContentLength(), is(4L));
+        assertThat(writeBody(encodedResponse), is("caf\u00e9".getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    public void unknownContentTypeCharsetFallsBackToUtf8() throws IOException {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", newArrayList("text/plain;charset=not-a-charset"));
+
+        EncodedResponse encodedResponse = new EncodedResponse(200, headers, "caf\u00e9");
+
+        assertThat(encodedResponse.getContentLength(), is(5L));
+    }
+
+    @Test
+    public void nullBodyIsEmpty() throws IOException {
+        EncodedResponse encodedResponse = new EncodedResponse(204, new LinkedHashMap<>(), null);
+
+        assertThat(encodedResponse.getContentLength(), is(0L));
+        assertThat(writeBody(encodedResponse).length, is(0));
+    }
+
+    @Test
+    public void bodyFromFile() throws IOException {
+        File bodyFile = temporaryFolder.newFile("body.json");
+        byte[] fileContents = new byte[100_000];
+        new Random(1).nextBytes(fileContents);
+        Files.write(bodyFile.toPath(), fileContents);
+
+        EncodedResponse encodedResponse = new EncodedResponse(200, new LinkedHashMap<>(), null, bodyFile.getPath(), null, bodyFileDirectory);
+
+        assertThat(encodedResponse.getBodyFile(), is(bodyFile.toPath().toAbsolutePath()));
+        assertThat(encodedResponse.getContentLength(), is(100_000L));
+        assertThat(writeBody(encodedResponse), is(fileContents));
+    }
+
+    @Test
+    public void bodyFromClasspathResource() throws IOException {
+        EncodedResponse encodedResponse = new EncodedResponse(200, new LinkedHashMap<>(), null, "classpath:responses/bodies/testBody.txt", null, bodyFileDirectory);
+
+        assertThat(encodedResponse.getContentLength(), is(14L));
+        assertThat(new String(writeBody(encodedResponse), StandardCharsets.UTF_8), is("classpath body"));
+    }
+
+    @Test
+    public void bodyFromClasspathResourceOutsideResponsesDirectory() {
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("Classpath response body file [classpath:responses/../logback.xml] must be under the 'responses/' directory");
+
+        new EncodedResponse(200, new LinkedHashMap<>(), null, "classpath:responses/../logback.xml", null, bodyFileDirectory);
+    }
+
+    @Test
+    public void bodyFromMissingFile() {
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("Response body file [missing.json] does not exist or cannot be read");
+
+        new EncodedResponse(200, new LinkedHashMap<>(), null, "missing.json", null, bodyFileDirectory);
+    }
+
+    @Test
+    public void bodyFromFileRelativeToBodyFileDirectory() throws IOException {
+        File bodyFile = temporaryFolder.newFile("relative.json");
+        Files.write(bodyFile.toPath(), "relative".getBytes(StandardCharsets.UTF_8));
+
+        EncodedResponse encodedResponse = new EncodedResponse(200, new LinkedHashMap<>(), null, "relative.json", null, bodyFileDirectory);
+
+        assertThat(encodedResponse.getBodyFile(), is(bodyFile.toPath().toAbsolutePath()));
+    }
+
+    @Test
+    public void bodyFileOutsideBodyFileDirectory() throws IOException {
+        File directory = temporaryFolder.newFolder("bodies");
+        temporaryFolder.newFile("secret.txt");
+        bodyFileDirectory = directory.toPath();
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("Response body file [../secret.txt] must be inside the body file directory");
+
+        new EncodedResponse(200, new LinkedHashMap<>(), null, "../secret.txt", null, bodyFileDirectory);
+    }
+
+    @Test
+    public void bodyFileAbsolutePathOutsideBodyFileDirectory() {
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("Response body file [/etc/passwd] must be inside the body file directory");
+
+        new EncodedResponse(200, new LinkedHashMap<>(), null, "/etc/passwd", null, bodyFileDirectory);
+    }
+
+    @Test
+    public void bodyFileSymbolicLinkOutOfBodyFileDirectory() throws IOException {
+        File directory = temporaryFolder.newFolder("linked");
+        File secret = temporaryFolder.newFile("linked-secret.txt");
+        Files.createSymbolicLink(directory.toPath().resolve("link.txt"), secret.toPath());
+        bodyFileDirectory = directory.toPath();
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("Response body file [link.txt] must be inside the body file directory");
+
+        new EncodedResponse(200, new LinkedHashMap<>(), null, "link.txt", null, bodyFileDirectory);
+    }
+
+    @Test
+    public void bodyAndBodyFile() {
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("A response can have a body or a body file but not both, body file [/some/file.json]");
+
+        new EncodedResponse(200, new LinkedHashMap<>(), "testBody", "/some/file.json", null, bodyFileDirectory);
+    }
+
+    @Test
+    public void compressedBodiesDecompressToBody() throws IOException {
+        EncodedResponse encodedResponse = new EncodedResponse(200, new LinkedHashMap<>(), "caf\u00e9 caf\u00e9 caf\u00e9", null,
+                newArrayList("gzip", "deflate"), bodyFileDirectory);
+
+        byte[] gzipBody = writeBody(encodedResponse, "gzip");
+        byte[] deflateBody = writeBody(encodedResponse, "deflate");
+
+        assertThat(encodedResponse.isCompressible(), is(true));
+        assertThat(encodedResponse.getContentLength("gzip"), is((long) gzipBody.length));
+        assertThat(encodedResponse.getContentLength("deflate"), is((long) deflateBody.length));
+        assertThat(encodedResponse.getContentLength(null), is(encodedResponse.getContentLength()));
+        assertThat(decompress(new GZIPInputStream(new ByteArrayInputStream(gzipBody))), is("caf\u00e9 caf\u00e9 caf\u00e9"));
+        assertThat(decompress(new InflaterInputStream(new ByteArrayInputStream(deflateBody))), is("caf\u00e9 caf\u00e9 caf\u00e9"));
+    }
+
+    @Test
+    public void selectContentEncoding() {
+        EncodedResponse encodedResponse = new EncodedResponse(200, new LinkedHashMap<>(), "testBody", null,
+                newArrayList("gzip", "deflate"), bodyFileDirectory);
+
+        assertThat(encodedResponse.selectContentEncoding(null), is(nullValue()));
+        assertThat(encodedResponse.selectContentEncoding("identity"), is(nullValue()));
+        assertThat(encodedResponse.selectContentEncoding("br"), is(nullValue()));
+        assertThat(encodedResponse.selectContentEncoding("gzip, deflate, br"), is("gzip"));
+        assertThat(encodedResponse.selectContentEncoding("deflate"), is("deflate"));
+        assertThat(encodedResponse.selectContentEncoding("GZIP"), is("gzip"));
+        assertThat(encodedResponse.selectContentEncoding("gzip;q=0.5, deflate"), is("deflate"));
+        assertThat(encodedResponse.selectContentEncoding("gzip;q=0, *"), is("deflate"));
+        assertThat(encodedResponse.selectContentEncoding("*"), is("gzip"));
+        assertThat(encodedResponse.selectContentEncoding("*;q=0"), is(nullValue()));
+    }
+
+    @Test
+    public void selectContentEncodingWithoutCompression() {
+        EncodedResponse encodedResponse = new EncodedResponse(200, new LinkedHashMap<>(), "testBody");
+
+        assertThat(encodedResponse.isCompressible(), is(false));
+        assertThat(encodedResponse.selectContentEncoding("gzip"), is(nullValue()));
+    }
+
+    @Test
+    public void openBody() throws IOException {
+        File bodyFile = temporaryFolder.newFile("body.json");
+        Files.write(bodyFile.toPath(), "file body".getBytes(StandardCharsets.UTF_8));
+        EncodedResponse compressedResponse = new EncodedResponse(200, new LinkedHashMap<>(), "testBody", null, newArrayList("gzip"), bodyFileDirectory);
+        EncodedResponse fileResponse = new EncodedResponse(200, new LinkedHashMap<>(), null, bodyFile.getPath(), null, bodyFileDirectory);
+
+        assertThat(decompress(compressedResponse.openBody(null)), is("testBody"));
+        assertThat(decompress(new GZIPInputStream(compressedResponse.openBody("gzip"))), is("testBody"));
+        assertThat(decompress(fileResponse.openBody(null)), is("file body"));
+    }
+
+    @Test
+    public void unsupportedCompression() {
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("Compression [br] is not supported, supported values are [gzip, deflate]");
+
+        new EncodedResponse(200, new LinkedHashMap<>(), "testBody", null, newArrayList("br"), bodyFileDirectory);
+    }
+
+    @Test
+    public void compressedBodyFile() {
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("A response with a body file can not be compressed, body file [/some/file.json]");
+
+        new EncodedResponse(200, new LinkedHashMap<>(), null, "/some/file.json", newArrayList("gzip"), bodyFileDirectory);
+    }
+
+    private static String decompress(InputStream inputStream) throws IOException {
+        try (InputStream decompressingStream = inputStream) {
+            return new String(IOUtils.toByteArray(decompressingStream), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] writeBody(EncodedResponse encodedResponse, String contentEncoding) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        encodedResponse.writeBody(outputStream, contentEncoding);
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] writeBody(EncodedResponse encodedResponse) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        encodedResponse.writeBody(outputStream);
+        return outputStream.toByteArray();
+    }
+}
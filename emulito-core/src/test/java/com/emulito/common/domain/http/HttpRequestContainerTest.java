@@ -1,5 +1,7 @@
 package com.emulito.common.domain.http;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import org.junit.Before;
@@ -10,9 +12,16 @@ import org.mockito.junit.MockitoRule;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
 
 public class HttpRequestContainerTest {
 
@@ -68,6 +77,24 @@ public class HttpRequestContainerTest {
         assertThat(httpRequestContainer.getBody(), is(TEST_BODY));
     }
 
+    @Test
+    public void asViewReturnsSameViewUntilRequestChanges() {
+        httpRequestContainer.setHeaders(TEST_HEADERS);
+        HttpRequestView view = httpRequestContainer.asView();
+        assertThat(httpRequestContainer.asView(), is(sameInstance(view)));
+
+        httpRequestContainer.setBody(TEST_BODY);
+        assertThat(httpRequestContainer.asView(), is(not(sameInstance(view))));
+        assertThat(httpRequestContainer.asView().getBody(), is(TEST_BODY));
+    }
+
+    @Test
+    public void toStringExcludesView() {
+        httpRequestContainer.setUrl(TEST_URL);
+        httpRequestContainer.asView();
+        assertThat(httpRequestContainer.toString(), is("{\"httpMethod\":null,\"url\":\"testUrl\",\"params\":{},\"headers\":{},\"body\":null}"));
+    }
+
     @Test
     public void toStringTest() {
         httpRequestContainer.setUrl(TEST_URL);
@@ -77,4 +104,96 @@ public class HttpRequestContainerTest {
         httpRequestContainer.setBody(TEST_BODY);
         assertThat(httpRequestContainer.toString(), is("{\"httpMethod\":\"testHttpMethod\",\"url\":\"testUrl\",\"params\":{firstUrlParameterKey=[firstUrlParameterValue], secondUrlParameterKey=[secondUrlParameterValue]},\"headers\":{firstHeaderKey=[firstHeaderValue], secondHeaderKey=[secondHeaderValue]},\"body\":\"testBody\"}"));
     }
+
+    @Test
+    public void compressBodyOverThresholdIsDecompressedWhenRead() throws Exception {
+        // Given
+        String body = Strings.repeat(TEST_BODY, 1000);
+        httpRequestContainer.setBody(body);
+        long uncompressedSize = httpRequestContainer.estimateSize();
+
+        // When
+        httpRequestContainer.compressBody(100);
+
+        // Then
+        assertThat(httpRequestContainer.isBodyCompressed(), is(true));
+        assertThat(httpRequestContainer.estimateSize(), is(lessThan(uncompressedSize)));
+        assertThat(httpRequestContainer.getBody(), is(body));
+        String json = new ObjectMapper().writeValueAsString(httpRequestContainer);
+        assertThat(json, containsString("\"body\":\"" + body + "\""));
+        assertThat(json, not(containsString("bodyCompressed")));
+    }
+
+    @Test
+    public void compressBodyUnderThresholdLeavesBody() {
+        httpRequestContainer.setBody(TEST_BODY);
+        httpRequestContainer.compressBody(100);
+        assertThat(httpRequestContainer.isBodyCompressed(), is(false));
+        assertThat(httpRequestContainer.getBody(), is(TEST_BODY));
+    }
+
+    @Test
+    public void compressBodyThresholdIsInUtf8Bytes() {
+        // 60 characters, but 120 bytes
+        String body = Strings.repeat("\u00e9", 60);
+        httpRequestContainer.setBody(body);
+        httpRequestContainer.compressBody(100);
+        assertThat(httpRequestContainer.isBodyCompressed(), is(true));
+        assertThat(httpRequestContainer.getBody(), is(body));
+    }
+
+    @Test
+    public void toStringShowsCompressedBody() {
+        httpRequestContainer.setBody(Strings.repeat(TEST_BODY, 100));
+        httpRequestContainer.compressBody(100);
+        assertThat(httpRequestContainer.toString(), containsString("\"body\":\"" + Strings.repeat(TEST_BODY, 100) + "\""));
+    }
+
+    @Test
+    public void setBodyReplacesCompressedBody() {
+        httpRequestContainer.setBody(Strings.repeat(TEST_BODY, 1000));
+        httpRequestContainer.compressBody(100);
+        httpRequestContainer.setBody(TEST_BODY);
+        assertThat(httpRequestContainer.isBodyCompressed(), is(false));
+        assertThat(httpRequestContainer.getBody(), is(TEST_BODY));
+    }
+
+    @Test
+    public void bodyReadWhileCompressingIsNeverNull() throws Exception {
+        // Given
+        String body = Strings.repeat(TEST_BODY, 1000);
+        AtomicBoolean nullRead = new AtomicBoolean();
+        for (int i = 0; i < 50; i++) {
+            HttpRequestContainer request = new HttpRequestContainer();
+            request.setBody(body);
+            CountDownLatch started = new CountDownLatch(1);
+            Thread reader = new Thread(() -> {
+                started.countDown();
+                while (!request.isBodyCompressed()) {
+                    if (request.getBody() == null) {
+                        nullRead.set(true);
+                    }
+                }
+            });
+            reader.start();
+            started.await();
+
+            // When
+            request.compressBody(100);
+            reader.join();
+        }
+
+        // Then
+        assertThat(nullRead.get(), is(false));
+    }
+
+    @Test
+    public void estimateSizeCountsEveryPart() {
+        long emptySize = httpRequestContainer.estimateSize();
+        httpRequestContainer.setHeaders(TEST_HEADERS);
+        long withHeadersSize = httpRequestContainer.estimateSize();
+        httpRequestContainer.setBody(TEST_BODY);
+        assertThat(withHeadersSize, is(greaterThan(emptySize)));
+        assertThat(httpRequestContainer.estimateSize(), is(greaterThan(withHeadersSize)));
+    }
 }
@@ -0,0 +1,76 @@
+package com.emulito.common.domain.http;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class HttpRequestViewTest {
+
+    private HttpRequestContainer httpRequestContainer;
+    private Map<String, List<String>> headers;
+    private Map<String, List<String>> params;
+
+    @Before
+    public void setup() {
+        headers = new HashMap<>();
+        headers.put("bookType", Lists.newArrayList("hardback", "paperback"));
+        headers.put("emptyHeader", Lists.newArrayList());
+        params = new HashMap<>();
+        params.put("bookId", Lists.newArrayList("123"));
+
+        httpRequestContainer = new HttpRequestContainer();
+        httpRequestContainer.setHttpMethod("POST");
+        httpRequestContainer.setUrl("/books");
+        httpRequestContainer.setBody("testBody");
+        httpRequestContainer.setHeaders(headers);
+        httpRequestContainer.setParams(params);
+    }
+
+    @Test
+    public void getRequestValues() {
+        HttpRequestView view = httpRequestContainer.asView();
+
+        assertThat(view.getHttpMethod(), is("POST"));
+        assertThat(view.getUrl(), is("/books"));
+        assertThat(view.getBody(), is("testBody"));
+        assertThat(view.getHeader("bookType"), is("hardback"));
+        assertThat(view.getHeader("emptyHeader"), is(nullValue()));
+        assertThat(view.getHeader("unknownHeader"), is(nullValue()));
+        assertThat(view.getParam("bookId"), is("123"));
+        assertThat(view.getParam("unknownParam"), is(nullValue()));
+    }
+
+    @Test
+    public void getHeaderAndParamLookedUpOnce() {
+        HttpRequestView view = httpRequestContainer.asView();
+        assertThat(view.getHeader("bookType"), is("hardback"));
+        assertThat(view.getHeader("authorName"), is(nullValue()));
+        assertThat(view.getParam("bookId"), is("123"));
+
+        // changes made directly to the maps are not seen once a value has been looked up
+        headers.put("bookType", Lists.newArrayList("paperback"));
+        headers.put("authorName", Lists.newArrayList("Joyce"));
+        params.put("bookId", Lists.newArrayList("456"));
+
+        assertThat(view.getHeader("bookType"), is("hardback"));
+        assertThat(view.getHeader("authorName"), is(nullValue()));
+        assertThat(view.getParam("bookId"), is("123"));
+    }
+
+    @Test
+    public void getHeaderWithNullMaps() {
+        httpRequestContainer.setHeaders(null);
+        httpRequestContainer.setParams(null);
+
+        assertThat(httpRequestContainer.asView().getHeader("bookType"), is(nullValue()));
+        assertThat(httpRequestContainer.asView().getParam("bookId"), is(nullValue()));
+    }
+}
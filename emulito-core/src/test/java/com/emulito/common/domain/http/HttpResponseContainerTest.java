@@ -1,12 +1,19 @@
 package com.emulito.common.domain.http;
 
+import com.emulito.common.exception.EmulatorException;
 import com.google.common.collect.ImmutableMap;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
@@ -20,6 +27,12 @@ public class HttpResponseContainerTest {
     @Rule
     public MockitoRule mockitoRule = MockitoJUnit.rule();
 
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     public static final int TEST_STATUS_CODE = 333;
     public static final Map<String, List<String>> TEST_HEADERS = ImmutableMap.<String, List<String>>builder().
             put("firstHeaderKey", newArrayList("firstHeaderValue")).
@@ -61,6 +74,71 @@ public class HttpResponseContainerTest {
         assertThat(httpResponseContainer.getBody(), is(TEST_BODY));
     }
 
+    @Test
+    public void encodeReturnsSameInstanceUntilResponseChanges() throws IOException {
+        httpResponseContainer.setStatusCode(TEST_STATUS_CODE);
+        httpResponseContainer.setBody(TEST_BODY);
+        EncodedResponse encodedResponse = httpResponseContainer.encode(null);
+        assertThat(httpResponseContainer.encode(null), is(sameInstance(encodedResponse)));
+        assertThat(encodedResponse.getContentLength(), is((long) TEST_BODY.length()));
+
+        httpResponseContainer.addHeader("newHeaderKey", "newHeaderValue");
+        EncodedResponse changedEncodedResponse = httpResponseContainer.encode(null);
+        assertThat(changedEncodedResponse, is(not(sameInstance(encodedResponse))));
+        assertThat(changedEncodedResponse.getHeaderCount(), is(1));
+    }
+
+    @Test
+    public void encodeAgainForOtherBodyFileDirectory() throws IOException {
+        Path directory = temporaryFolder.getRoot().toPath();
+        Path otherDirectory = temporaryFolder.newFolder("other").toPath();
+        Files.write(directory.resolve("body.json"), TEST_BODY.getBytes(StandardCharsets.UTF_8));
+        Files.write(otherDirectory.resolve("body.json"), "other".getBytes(StandardCharsets.UTF_8));
+        httpResponseContainer.setBodyFile("body.json");
+
+        EncodedResponse encodedResponse = httpResponseContainer.encode(directory);
+        assertThat(httpResponseContainer.encode(directory), is(sameInstance(encodedResponse)));
+        assertThat(encodedResponse.getBodyFile(), is(directory.resolve("body.json").toAbsolutePath()));
+        // each directory is a separate boundary, so a response encoded for one is never served from another
+        assertThat(httpResponseContainer.encode(otherDirectory).getBodyFile(), is(otherDirectory.resolve("body.json").toAbsolutePath()));
+    }
+
+    @Test
+    public void encodeBodyFileWithoutBodyFileDirectory() {
+        httpResponseContainer.setBodyFile("body.json");
+
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("Response body file [body.json] can only be a classpath resource here");
+
+        httpResponseContainer.encode(null);
+    }
+
+    @Test
+    public void setAndGetBodyFile() {
+        httpResponseContainer.setBodyFile("classpath:responses/bodies/testBody.txt");
+        assertThat(httpResponseContainer.getBodyFile(), is("classpath:responses/bodies/testBody.txt"));
+    }
+
+    @Test
+    public void setAndGetCompression() {
+        httpResponseContainer.setCompression(newArrayList("gzip"));
+        assertThat(httpResponseContainer.getCompression(), is(newArrayList("gzip")));
+    }
+
+    @Test
+    public void toStringWithCompression() {
+        httpResponseContainer.setStatusCode(TEST_STATUS_CODE);
+        httpResponseContainer.setCompression(newArrayList("gzip", "deflate"));
+        assertThat(httpResponseContainer.toString(), is("{\"statusCode\":333,\"headers\":{},\"body\":null,\"compression\":[gzip, deflate]}"));
+    }
+
+    @Test
+    public void toStringWithBodyFile() {
+        httpResponseContainer.setStatusCode(TEST_STATUS_CODE);
+        httpResponseContainer.setBodyFile("/some/file.json");
+        assertThat(httpResponseContainer.toString(), is("{\"statusCode\":333,\"headers\":{},\"body\":null,\"bodyFile\":\"\\/some\\/file.json\"}"));
+    }
+
     @Test
     public void toStringTest() {
         httpResponseContainer.setStatusCode(TEST_STATUS_CODE);
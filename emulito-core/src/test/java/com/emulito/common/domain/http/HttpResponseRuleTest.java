@@ -1,24 +1,41 @@
 package com.emulito.common.domain.http;
 
+import com.emulito.common.exception.EmulatorException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import static com.emulito.common.domain.http.HttpResponseContainerTest.*;
+import static com.emulito.common.domain.http.HttpResponseRule.Distribution.Types.LOG_NORMAL;
+import static com.emulito.common.domain.http.HttpResponseRule.Distribution.Types.NORMAL;
+import static com.emulito.common.domain.http.HttpResponseRule.Distribution.Types.PERCENTILES;
+import static com.emulito.common.domain.http.HttpResponseRule.Distribution.Types.UNIFORM;
 import static java.lang.String.format;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 
 public class HttpResponseRuleTest {
 
     @Rule
     public MockitoRule mockitoRule = MockitoJUnit.rule();
 
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
     private static final long TEST_DELAY_TIME_IN_MILLIS = 4000L;
     private static final String TEST_REQUEST_TYPE = "TestRequestType";
     private static final HttpResponseRule.LifeTimes TEST_TIME_TO_LIVE = HttpResponseRule.LifeTimes.SINGLE_USE;
@@ -120,4 +137,167 @@ public class HttpResponseRuleTest {
         delay.setDelayTimeInMillis(TEST_DELAY_TIME_IN_MILLIS);
         assertThat(delay.toString(), is(format("{\"delayTimeInMillis\":%s}", TEST_DELAY_TIME_IN_MILLIS)));
     }
+
+    @Test
+    public void delayToStringWithDistribution() {
+        delay.setDistribution(new HttpResponseRule.Distribution().setType(UNIFORM).setMinMillis(10L).setMaxMillis(20L));
+        assertThat(delay.toString(), is("{\"delayTimeInMillis\":0,\"distribution\":{\"type\":\"UNIFORM\",\"minMillis\":10,\"maxMillis\":20," +
+                "\"meanMillis\":null,\"standardDeviationMillis\":null,\"medianMillis\":null,\"sigma\":null,\"p50Millis\":null,\"p95Millis\":null,\"p99Millis\":null}}"));
+    }
+
+    @Test
+    public void delayToStringThrottled() {
+        delay.setBytesPerSecond(50_000L).setChunkSize(512);
+        assertThat(delay.toString(), is("{\"delayTimeInMillis\":0,\"bytesPerSecond\":50000,\"chunkSize\":512}"));
+    }
+
+    @Test
+    public void throttledDelayChunkSize() {
+        assertThat(delay.isThrottled(), is(false));
+        assertThat(delay.setBytesPerSecond(50_000L).isThrottled(), is(true));
+        assertThat(delay.getEffectiveChunkSize(), is(1024));
+        assertThat(delay.setBytesPerSecond(100L).getEffectiveChunkSize(), is(100));
+        assertThat(delay.setChunkSize(10).getEffectiveChunkSize(), is(10));
+    }
+
+    @Test
+    public void validateThrottledDelayWithoutRate() {
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("A throttled response must have a bytesPerSecond greater than 0");
+
+        delay.setBytesPerSecond(0L).validate();
+    }
+
+    @Test
+    public void validateChunkSizeWithoutRate() {
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("A chunkSize must be greater than 0 and only set along with bytesPerSecond");
+
+        delay.setChunkSize(100).validate();
+    }
+
+    @Test
+    public void sampleFixedDelay() {
+        delay.setDelayTimeInMillis(TEST_DELAY_TIME_IN_MILLIS);
+        assertThat(delay.sampleDelayMillis(), is(TEST_DELAY_TIME_IN_MILLIS));
+    }
+
+    @Test
+    public void sampleDelayFromDistribution() {
+        delay.setDelayTimeInMillis(TEST_DELAY_TIME_IN_MILLIS);
+        delay.setDistribution(new HttpResponseRule.Distribution().setType(UNIFORM).setMinMillis(10L).setMaxMillis(20L));
+        for (int i = 0; i < 1000; i++) {
+            assertThat(delay.sampleDelayMillis(), is(both(greaterThanOrEqualTo(10L)).and(lessThanOrEqualTo(20L))));
+        }
+    }
+
+    @Test
+    public void sampleUniformDistribution() {
+        HttpResponseRule.Distribution distribution = new HttpResponseRule.Distribution().setType(UNIFORM)
+                .setMinMillis(100L).setMaxMillis(300L);
+
+        long[] samples = sample(distribution);
+
+        assertThat(samples[0], is(greaterThanOrEqualTo(100L)));
+        assertThat(samples[samples.length - 1], is(lessThanOrEqualTo(300L)));
+        assertThat((double) percentile(samples, 0.5), is(closeTo(200, 10)));
+    }
+
+    @Test
+    public void sampleNormalDistribution() {
+        HttpResponseRule.Distribution distribution = new HttpResponseRule.Distribution().setType(NORMAL)
+                .setMeanMillis(200L).setStandardDeviationMillis(50L);
+
+        long[] samples = sample(distribution);
+
+        assertThat(samples[0], is(greaterThanOrEqualTo(0L)));
+        assertThat((double) percentile(samples, 0.5), is(closeTo(200, 10)));
+        // 1.645 standard deviations above the mean
+        assertThat((double) percentile(samples, 0.95), is(closeTo(282, 10)));
+    }
+
+    @Test
+    public void sampleLogNormalDistribution() {
+        HttpResponseRule.Distribution distribution = new HttpResponseRule.Distribution().setType(LOG_NORMAL)
+                .setMedianMillis(100L).setSigma(1.0).setMaxMillis(5000L);
+
+        long[] samples = sample(distribution);
+
+        assertThat((double) percentile(samples, 0.5), is(closeTo(100, 10)));
+        // e^1.645 times the median
+        assertThat((double) percentile(samples, 0.95), is(closeTo(518, 50)));
+        assertThat(samples[samples.length - 1], is(lessThanOrEqualTo(5000L)));
+    }
+
+    @Test
+    public void samplePercentilesDistribution() {
+        HttpResponseRule.Distribution distribution = new HttpResponseRule.Distribution().setType(PERCENTILES)
+                .setP50Millis(100L).setP95Millis(400L).setP99Millis(1000L).setMaxMillis(3000L);
+
+        long[] samples = sample(distribution);
+
+        assertThat((double) percentile(samples, 0.5), is(closeTo(100, 10)));
+        assertThat((double) percentile(samples, 0.95), is(closeTo(400, 20)));
+        assertThat((double) percentile(samples, 0.99), is(closeTo(1000, 100)));
+        assertThat(samples[samples.length - 1], is(lessThanOrEqualTo(3000L)));
+    }
+
+    @Test
+    public void validateDistributionWithoutType() {
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("A delay distribution must have a type, one of [UNIFORM, NORMAL, LOG_NORMAL, PERCENTILES]");
+
+        new HttpResponseRule.Distribution().validate();
+    }
+
+    @Test
+    public void validateDistributionMissingValue() {
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("A LOG_NORMAL delay distribution is missing a required value");
+
+        new HttpResponseRule.Distribution().setType(LOG_NORMAL).setMedianMillis(100L).validate();
+    }
+
+    @Test
+    public void validateDistributionPercentilesOutOfOrder() {
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("The times of a PERCENTILES delay distribution must be positive and in ascending order");
+
+        new HttpResponseRule.Distribution().setType(PERCENTILES)
+                .setP50Millis(500L).setP95Millis(400L).setP99Millis(1000L).setMaxMillis(3000L).validate();
+    }
+
+    @Test
+    public void validateDistributionNegativeSpread() {
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("The spread of a delay distribution can not be negative");
+
+        new HttpResponseRule.Distribution().setType(NORMAL).setMeanMillis(100L).setStandardDeviationMillis(-1L).validate();
+    }
+
+    @Test
+    public void deserialiseDelayDistribution() throws IOException {
+        HttpResponseRule.Delay deserialisedDelay = new ObjectMapper().readValue(
+                "{\"distribution\":{\"type\":\"PERCENTILES\",\"p50Millis\":100,\"p95Millis\":400,\"p99Millis\":1000,\"maxMillis\":3000}}",
+                HttpResponseRule.Delay.class);
+
+        deserialisedDelay.validate();
+        assertThat(deserialisedDelay.getDistribution().getType(), is(PERCENTILES));
+        assertThat(deserialisedDelay.getDistribution().getP99Millis(), is(1000L));
+    }
+
+    private static long[] sample(HttpResponseRule.Distribution distribution) {
+        distribution.validate();
+        Random random = new Random(42);
+        long[] samples = new long[100_000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = distribution.sample(random);
+        }
+        Arrays.sort(samples);
+        return samples;
+    }
+
+    private static long percentile(long[] sortedSamples, double quantile) {
+        return sortedSamples[(int) (quantile * (sortedSamples.length - 1))];
+    }
 }
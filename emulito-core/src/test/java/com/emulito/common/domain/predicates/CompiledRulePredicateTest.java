@@ -0,0 +1,80 @@
+package com.emulito.common.domain.predicates;
+
+import com.emulito.common.domain.http.HttpRequestContainer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CompiledRulePredicateTest {
+
+    private static final List<String> TEST_RULES = Lists.newArrayList(
+            "httpMethod is 'POST'",
+            "httpMethod contains 'OS'",
+            "url is '/books'",
+            "url starts with '/bo'",
+            "url ends with 'ks'",
+            "url matches '/b[a-z]*'",
+            "url parameters contain parameter 'bookId' whose value is '123'",
+            "url parameters contain parameter 'bookId' whose value matches '[0-9]+'",
+            "headers contain entry 'bookType' whose value contains 'back'",
+            "headers contain entry 'bookType' whose value ends with 'back'",
+            "body contains 'hardback'",
+            "body matches '.*hardback.*'");
+
+    @Test
+    public void testSingleRulesMatchInterpretedPredicates() {
+        for (String requestRule : TEST_RULES) {
+            Rule rule = Rule.RuleBuilder.build(requestRule);
+            Predicate<HttpRequestContainer> interpretedPredicate = HttpRequestPredicateFactory.getPredicate(rule);
+            Predicate<HttpRequestContainer> compiledPredicate = new CompiledRulePredicate(Collections.singletonList(rule));
+            for (HttpRequestContainer requestContainer : buildRequests()) {
+                assertThat(requestRule + " " + requestContainer,
+                        compiledPredicate.test(requestContainer), is(interpretedPredicate.test(requestContainer)));
+            }
+        }
+    }
+
+    @Test
+    public void testRequiresEveryRuleToMatch() {
+        List<Rule> rules = Lists.newArrayList(
+                Rule.RuleBuilder.build("httpMethod is 'POST'"),
+                Rule.RuleBuilder.build("url is '/books'"),
+                Rule.RuleBuilder.build("body contains 'hardback'"));
+        Predicate<HttpRequestContainer> compiledPredicate = new CompiledRulePredicate(rules);
+
+        assertThat(compiledPredicate.test(buildRequest("POST", "/books", "123", "hardback", "hardback")), is(true));
+        assertThat(compiledPredicate.test(buildRequest("GET", "/books", "123", "hardback", "hardback")), is(false));
+        assertThat(compiledPredicate.test(buildRequest("POST", "/books", "123", "hardback", "paperback")), is(false));
+    }
+
+    private static List<HttpRequestContainer> buildRequests() {
+        List<HttpRequestContainer> requests = new ArrayList<>();
+        requests.add(new HttpRequestContainer());
+        requests.add(buildRequest("POST", "/books", "123", "hardback", "{\"bookType\":\"hardback\"}"));
+        requests.add(buildRequest("GET", "/books/123", "abc", "paperback", "{\"bookType\":\"paperback\"}"));
+        requests.add(buildRequest("POST", "/movies", null, null, null));
+        return requests;
+    }
+
+    private static HttpRequestContainer buildRequest(String httpMethod, String url, String bookId, String bookType, String body) {
+        HttpRequestContainer requestContainer = new HttpRequestContainer();
+        requestContainer.setHttpMethod(httpMethod);
+        requestContainer.setUrl(url);
+        if (bookId != null) {
+            requestContainer.setParams(ImmutableMap.of("bookId", Lists.newArrayList(bookId)));
+        }
+        if (bookType != null) {
+            requestContainer.setHeaders(ImmutableMap.of("bookType", Lists.newArrayList(bookType)));
+        }
+        requestContainer.setBody(body);
+        return requestContainer;
+    }
+}
@@ -28,6 +28,22 @@ public class HttpPredicateFactoryTest {
 
     private HttpRequestContainer testHttpRequestContainer;
 
+    @Test
+    public void getEvaluationCostOrdersCheapRulesFirst() {
+        int httpMethodCost = HttpRequestPredicateFactory.getEvaluationCost(Rule.RuleBuilder.build("httpMethod is 'GET'"));
+        int urlCost = HttpRequestPredicateFactory.getEvaluationCost(Rule.RuleBuilder.build("url is '/books'"));
+        int headerCost = HttpRequestPredicateFactory.getEvaluationCost(Rule.RuleBuilder.build("headers contain entry 'some header' whose value is 'some'"));
+        int urlParameterCost = HttpRequestPredicateFactory.getEvaluationCost(Rule.RuleBuilder.build("url parameters contain parameter 'some parameter' whose value is 'some'"));
+        int bodyCost = HttpRequestPredicateFactory.getEvaluationCost(Rule.RuleBuilder.build("body contains 'some'"));
+        int regularExpressionCost = HttpRequestPredicateFactory.getEvaluationCost(Rule.RuleBuilder.build("url matches '/b.*'"));
+
+        assertThat(httpMethodCost < urlCost, is(true));
+        assertThat(urlCost < headerCost, is(true));
+        assertThat(headerCost, is(urlParameterCost));
+        assertThat(headerCost < bodyCost, is(true));
+        assertThat(bodyCost < regularExpressionCost, is(true));
+    }
+
     @Test
     public void getPredicateHttpMethodContains() {
         Rule testRule = Rule.RuleBuilder.build("httpMethod contains 'some'");
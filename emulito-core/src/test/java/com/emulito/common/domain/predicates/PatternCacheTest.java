@@ -0,0 +1,31 @@
+package com.emulito.common.domain.predicates;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.regex.Pattern;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PatternCacheTest {
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Test
+    public void getPatternSameRegex() {
+        Pattern pattern = PatternCache.getPattern("test([a-zA-Z0-9]*)");
+        assertThat(PatternCache.getPattern("test([a-zA-Z0-9]*)"), is(sameInstance(pattern)));
+        assertThat(pattern.matcher("testBook").matches(), is(true));
+    }
+
+    @Test
+    public void getPatternDifferentRegex() {
+        assertThat(PatternCache.getPattern("([a-z]*)"), is(not(sameInstance(PatternCache.getPattern("([0-9]*)")))));
+    }
+}
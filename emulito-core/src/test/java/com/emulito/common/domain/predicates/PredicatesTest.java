@@ -1,8 +1,10 @@
 package com.emulito.common.domain.predicates;
 
 import com.emulito.common.domain.http.HttpRequestContainer;
+import com.emulito.common.exception.EmulatorException;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
@@ -16,6 +18,9 @@ public class PredicatesTest {
     @Rule
     public MockitoRule mockitoRule = MockitoJUnit.rule();
 
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
     @Test
     public void matchesPredicateMatchFound() {
         assertThat(Predicates.matchesPredicate(source -> TEST_HTTP_REQUEST_CONTAINER_VALUE, "([A-za-z]*)").test(TEST_HTTP_REQUEST_CONTAINER), is(true));
@@ -41,6 +46,19 @@ public class PredicatesTest {
         assertThat(Predicates.matchesPredicate(source -> null, "([A-za-z]*)").test(TEST_HTTP_REQUEST_CONTAINER), is(false));
     }
 
+    @Test
+    public void matchesPredicateValueExtractedNotNullRequiredValueNull() {
+        assertThat(Predicates.matchesPredicate(source -> TEST_HTTP_REQUEST_CONTAINER_VALUE, null).test(TEST_HTTP_REQUEST_CONTAINER), is(false));
+    }
+
+    @Test
+    public void matchesPredicateInvalidRegex() {
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("Rule value [([A-za-z]*] is not a valid regular expression");
+
+        Predicates.matchesPredicate(source -> TEST_HTTP_REQUEST_CONTAINER_VALUE, "([A-za-z]*");
+    }
+
     @Test
     public void startsWithPredicateMatchFound() {
         assertThat(Predicates.startsWithPredicate(source -> TEST_HTTP_REQUEST_CONTAINER_VALUE, "Test").test(TEST_HTTP_REQUEST_CONTAINER), is(true));
@@ -0,0 +1,86 @@
+package com.emulito.common.service;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.BitSet;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AhoCorasickAutomatonTest {
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Test
+    public void scan() {
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(ImmutableMap.<Integer, String>builder()
+                .put(0, "he")
+                .put(1, "she")
+                .put(2, "his")
+                .put(3, "hers")
+                .put(7, "unused")
+                .build());
+
+        BitSet found = automaton.scan("ushers");
+
+        assertThat(found.get(0), is(true));
+        assertThat(found.get(1), is(true));
+        assertThat(found.get(2), is(false));
+        assertThat(found.get(3), is(true));
+        assertThat(found.get(7), is(false));
+    }
+
+    @Test
+    public void scanOverlappingNeedles() {
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(ImmutableMap.of(
+                0, "\"bookType\":\"hardback\"",
+                1, "hardback\"}",
+                2, "paperback"));
+
+        BitSet found = automaton.scan("{\"bookType\":\"hardback\"}");
+
+        assertThat(found.get(0), is(true));
+        assertThat(found.get(1), is(true));
+        assertThat(found.get(2), is(false));
+    }
+
+    @Test
+    public void scanNeedleAfterFailedPartialMatch() {
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(ImmutableMap.of(0, "aab", 1, "ab"));
+
+        BitSet found = automaton.scan("aaab");
+
+        assertThat(found.get(0), is(true));
+        assertThat(found.get(1), is(true));
+    }
+
+    @Test
+    public void scanNonAsciiText() {
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(ImmutableMap.of(0, "\u00e9t\u00e9", 1, "hiver"));
+
+        BitSet found = automaton.scan("Bon \u00e9t\u00e9");
+
+        assertThat(found.get(0), is(true));
+        assertThat(found.get(1), is(false));
+    }
+
+    @Test
+    public void scanNullText() {
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(ImmutableMap.of(0, "some"));
+
+        assertThat(automaton.scan(null).isEmpty(), is(true));
+    }
+
+    @Test
+    public void scanNoNeedles() {
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(Collections.singletonMap(0, ""));
+
+        assertThat(automaton.scan("some text").isEmpty(), is(true));
+    }
+}
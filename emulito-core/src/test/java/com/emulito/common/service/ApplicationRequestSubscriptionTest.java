@@ -0,0 +1,179 @@
+package com.emulito.common.service;
+
+import com.emulito.common.domain.http.CapturedRequest;
+import com.emulito.common.domain.http.HttpRequestContainer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+
+public class ApplicationRequestSubscriptionTest {
+
+    private static final String TEST_REQUEST_TYPE = "TestRequestType";
+    private static final String OTHER_REQUEST_TYPE = "OtherRequestType";
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private ApplicationRequestSubscription.Listener listener;
+
+    // holds the drain task until the test runs it, as though the listener thread were busy
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final Executor heldExecutor = tasks::add;
+
+    private CapturedRequest buildCapturedRequest(String requestType) {
+        return new CapturedRequest(System.currentTimeMillis(), requestType, new HttpRequestContainer());
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void offerPassesRequestsToListenerInOrder() throws IOException {
+        // Given
+        ApplicationRequestSubscription subscription = new ApplicationRequestSubscription(
+                null, 10, ApplicationRequestSubscription.DropPolicy.OLDEST, listener, heldExecutor);
+        CapturedRequest first = buildCapturedRequest(TEST_REQUEST_TYPE);
+        CapturedRequest second = buildCapturedRequest(OTHER_REQUEST_TYPE);
+
+        // When
+        subscription.offer(first);
+        subscription.offer(second);
+        runTasks();
+
+        // Then
+        // only one drain task is needed however many requests are offered
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).onRequest(first, 0);
+        inOrder.verify(listener).onRequest(second, 0);
+    }
+
+    @Test
+    public void offerFiltersByRequestType() throws IOException {
+        // Given
+        ApplicationRequestSubscription subscription = new ApplicationRequestSubscription(
+                TEST_REQUEST_TYPE, 10, ApplicationRequestSubscription.DropPolicy.OLDEST, listener, heldExecutor);
+        CapturedRequest matching = buildCapturedRequest(TEST_REQUEST_TYPE);
+
+        // When
+        subscription.offer(buildCapturedRequest(OTHER_REQUEST_TYPE));
+        subscription.offer(matching);
+        runTasks();
+
+        // Then
+        then(listener).should().onRequest(matching, 0);
+        then(listener).shouldHaveNoMoreInteractions();
+    }
+
+    @Test
+    public void offerDropsOldestWhenBufferFull() throws IOException {
+        // Given
+        ApplicationRequestSubscription subscription = new ApplicationRequestSubscription(
+                null, 2, ApplicationRequestSubscription.DropPolicy.OLDEST, listener, heldExecutor);
+        CapturedRequest second = buildCapturedRequest(TEST_REQUEST_TYPE);
+        CapturedRequest third = buildCapturedRequest(TEST_REQUEST_TYPE);
+
+        // When
+        subscription.offer(buildCapturedRequest(TEST_REQUEST_TYPE));
+        subscription.offer(second);
+        subscription.offer(third);
+        runTasks();
+
+        // Then
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).onRequest(second, 1);
+        inOrder.verify(listener).onRequest(third, 0);
+        then(listener).shouldHaveNoMoreInteractions();
+    }
+
+    @Test
+    public void offerDropsNewestWhenBufferFull() throws IOException {
+        // Given
+        ApplicationRequestSubscription subscription = new ApplicationRequestSubscription(
+                null, 2, ApplicationRequestSubscription.DropPolicy.NEWEST, listener, heldExecutor);
+        CapturedRequest first = buildCapturedRequest(TEST_REQUEST_TYPE);
+        CapturedRequest second = buildCapturedRequest(TEST_REQUEST_TYPE);
+
+        // When
+        subscription.offer(first);
+        subscription.offer(second);
+        subscription.offer(buildCapturedRequest(TEST_REQUEST_TYPE));
+        runTasks();
+
+        // Then
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).onRequest(first, 1);
+        inOrder.verify(listener).onRequest(second, 0);
+        then(listener).shouldHaveNoMoreInteractions();
+    }
+
+    @Test
+    public void listenerFailureCancelsSubscription() throws IOException {
+        // Given
+        ApplicationRequestSubscription subscription = new ApplicationRequestSubscription(
+                null, 10, ApplicationRequestSubscription.DropPolicy.OLDEST, listener, heldExecutor);
+        willThrow(new IOException("Broken pipe")).given(listener).onRequest(any(CapturedRequest.class), anyLong());
+
+        // When
+        subscription.offer(buildCapturedRequest(TEST_REQUEST_TYPE));
+        subscription.offer(buildCapturedRequest(TEST_REQUEST_TYPE));
+        runTasks();
+
+        // Then
+        assertThat(subscription.isCancelled(), is(true));
+        then(listener).should().onRequest(any(CapturedRequest.class), anyLong());
+    }
+
+    @Test
+    public void cancelStopsRequestsBeingPassedOn() throws IOException {
+        // Given
+        ApplicationRequestSubscription subscription = new ApplicationRequestSubscription(
+                null, 10, ApplicationRequestSubscription.DropPolicy.OLDEST, listener, heldExecutor);
+        subscription.offer(buildCapturedRequest(TEST_REQUEST_TYPE));
+
+        // When
+        subscription.cancel();
+        subscription.offer(buildCapturedRequest(TEST_REQUEST_TYPE));
+        runTasks();
+
+        // Then
+        then(listener).should(never()).onRequest(any(CapturedRequest.class), anyLong());
+    }
+
+    @Test
+    public void rejectedExecutionCancelsSubscription() {
+        // Given
+        ApplicationRequestSubscription subscription = new ApplicationRequestSubscription(
+                null, 10, ApplicationRequestSubscription.DropPolicy.OLDEST, listener, task -> {
+                    throw new RejectedExecutionException("Shut down");
+                });
+
+        // When
+        subscription.offer(buildCapturedRequest(TEST_REQUEST_TYPE));
+
+        // Then
+        assertThat(subscription.isCancelled(), is(true));
+    }
+}
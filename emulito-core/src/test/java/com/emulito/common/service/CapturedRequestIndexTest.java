@@ -0,0 +1,130 @@
+package com.emulito.common.service;
+
+import com.emulito.common.domain.http.CapturedRequest;
+import com.emulito.common.domain.http.HttpRequestContainer;
+import com.emulito.common.domain.predicates.Rule;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+
+public class CapturedRequestIndexTest {
+
+    private static final String TEST_REQUEST_TYPE = "TestRequestType";
+    private static final String CORRELATION_ID_HEADER = "X-Correlation-Id";
+
+    private final RequestCaptureBuffer buffer = new RequestCaptureBuffer(10);
+    private final CapturedRequestIndex index = new CapturedRequestIndex(
+            Collections.singletonList(CORRELATION_ID_HEADER), Collections.singletonList("bookId"));
+
+    private RequestCaptureBuffer.Entry add(String correlationId, String bookId) {
+        HttpRequestContainer request = new HttpRequestContainer();
+        request.setHeaders(Collections.singletonMap(CORRELATION_ID_HEADER, Lists.newArrayList(correlationId)));
+        request.setParams(Collections.singletonMap("bookId", Lists.newArrayList(bookId)));
+        RequestCaptureBuffer.Entry entry = buffer.newEntry(new CapturedRequest(1L, TEST_REQUEST_TYPE, request));
+        index.add(entry);
+        buffer.addLast(entry);
+        return entry;
+    }
+
+    @Test
+    public void findHeaderIsRule() {
+        // Given
+        RequestCaptureBuffer.Entry first = add("abc", "1");
+        add("def", "2");
+        RequestCaptureBuffer.Entry third = add("abc", "3");
+
+        // When
+        List<RequestCaptureBuffer.Entry> found = index.find(
+                Rule.RuleBuilder.build("headers contain entry 'X-Correlation-Id' whose value is 'abc'"));
+
+        // Then
+        assertThat(found, contains(first, third));
+    }
+
+    @Test
+    public void findUrlParameterIsRule() {
+        // Given
+        add("abc", "1");
+        RequestCaptureBuffer.Entry second = add("def", "2");
+
+        // When / Then
+        assertThat(index.find(Rule.RuleBuilder.build("url parameters contain parameter 'bookId' whose value is '2'")),
+                contains(second));
+        assertThat(index.find(Rule.RuleBuilder.build("url parameters contain parameter 'bookId' whose value is '4'")),
+                is(empty()));
+    }
+
+    @Test
+    public void findRulesWhichAreNotIndexed() {
+        add("abc", "1");
+
+        // other match types, other keys and other rule types all have to be tested against every request
+        assertThat(index.find(Rule.RuleBuilder.build("headers contain entry 'X-Correlation-Id' whose value contains 'abc'")),
+                is(nullValue()));
+        assertThat(index.find(Rule.RuleBuilder.build("headers contain entry 'Accept' whose value is 'abc'")),
+                is(nullValue()));
+        assertThat(index.find(Rule.RuleBuilder.build("url is '/abc'")), is(nullValue()));
+    }
+
+    @Test
+    public void removeTakesRequestOutOfEveryIndex() {
+        // Given
+        RequestCaptureBuffer.Entry first = add("abc", "1");
+        RequestCaptureBuffer.Entry second = add("abc", "2");
+
+        // When
+        index.remove(first.getCapturedRequest());
+
+        // Then
+        assertThat(index.find(Rule.RuleBuilder.build("headers contain entry 'X-Correlation-Id' whose value is 'abc'")),
+                contains(second));
+        assertThat(index.find(Rule.RuleBuilder.build("url parameters contain parameter 'bookId' whose value is '1'")),
+                is(empty()));
+    }
+
+    @Test
+    public void requestPutBackIsFoundOnceWithItsNewEntry() {
+        // Given
+        RequestCaptureBuffer.Entry first = add("abc", "1");
+        index.remove(first.getCapturedRequest());
+        RequestCaptureBuffer.Entry putBack = buffer.newEntry(first.getCapturedRequest());
+
+        // When
+        index.add(putBack);
+
+        // Then
+        assertThat(index.find(Rule.RuleBuilder.build("headers contain entry 'X-Correlation-Id' whose value is 'abc'")),
+                contains(putBack));
+    }
+
+    @Test
+    public void addAndRemoveReadHeadersOncePerRequest() {
+        // Given
+        CapturedRequestIndex twoHeaderIndex = new CapturedRequestIndex(
+                Arrays.asList(CORRELATION_ID_HEADER, "Accept"), Collections.emptyList());
+        HttpRequestContainer request = spy(new HttpRequestContainer());
+        request.setHeaders(Collections.singletonMap(CORRELATION_ID_HEADER, Lists.newArrayList("abc")));
+        CapturedRequest capturedRequest = new CapturedRequest(1L, TEST_REQUEST_TYPE, request);
+
+        // When
+        twoHeaderIndex.add(buffer.newEntry(capturedRequest));
+        twoHeaderIndex.remove(capturedRequest);
+
+        // Then
+        then(request).should(times(2)).getHeaders();
+        assertThat(twoHeaderIndex.find(Rule.RuleBuilder.build("headers contain entry 'X-Correlation-Id' whose value is 'abc'")),
+                is(empty()));
+    }
+}
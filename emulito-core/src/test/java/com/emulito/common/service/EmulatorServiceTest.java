@@ -1,11 +1,18 @@
 package com.emulito.common.service;
 
+import com.emulito.common.domain.http.CapturedRequest;
 import com.emulito.common.domain.http.HttpRequestContainer;
 import com.emulito.common.domain.http.HttpResponseContainer;
 import com.emulito.common.domain.http.HttpResponseRule;
 import com.emulito.common.domain.predicates.RequestPredicate;
 import com.emulito.common.exception.EmulatorException;
+import com.emulito.common.exception.ResponseRuleNotFoundException;
 import com.emulito.common.test.utils.TestUtils;
+import com.emulito.common.utils.VirtualClock;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.hamcrest.MatcherAssert;
 import org.junit.Before;
 import org.junit.Rule;
@@ -16,12 +23,26 @@ import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.core.IsNot.not;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
 import static org.mockito.Mockito.times;
@@ -45,31 +66,43 @@ public class EmulatorServiceTest {
     @Mock
     private PredicateBuilder predicateBuilder;
 
+    @Spy
+    private VirtualClock emulatorClock = new VirtualClock();
+
     @InjectMocks
     private EmulatorService emulatorService = new EmulatorService();
 
-    private Set<RequestPredicate> requestPredicates;
+    private RequestPredicateIndex requestPredicates;
     private HttpRequestContainer testHttpRequestContainer;
     private HttpResponseRule testResponseRule;
 
     @Before
-    @SuppressWarnings("unchecked")
     public void setup() {
-        requestPredicates = (Set<RequestPredicate>) ReflectionTestUtils.getField(emulatorService, "requestPredicates");
+        requestPredicates = (RequestPredicateIndex) ReflectionTestUtils.getField(emulatorService, "requestPredicateIndex");
 
         testHttpRequestContainer = new HttpRequestContainer();
         given(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_TYPE)).willReturn(testHttpRequestContainer);
 
     }
 
+    private void addPredicate(RequestPredicate requestPredicate) {
+        HttpResponseRule responseRule = new HttpResponseRule();
+        given(predicateBuilder.buildPredicate(responseRule)).willReturn(requestPredicate);
+        emulatorService.addResponseRule(responseRule);
+    }
+
+    private RequestPredicateSnapshot getSnapshot() {
+        return (RequestPredicateSnapshot) ReflectionTestUtils.getField(emulatorService, "requestPredicateSnapshot");
+    }
+
     @Test
     public void reset() {
         TestUtils.TestRequestPredicate foreverPredicate = TestUtils.buildRequestPredicate().setTimeToLive(HttpResponseRule.LifeTimes.FOREVER);
         TestUtils.TestRequestPredicate untilRestPredicate = TestUtils.buildRequestPredicate().setTimeToLive(HttpResponseRule.LifeTimes.UNTIL_RESET);
         TestUtils.TestRequestPredicate singleUsePredicate = TestUtils.buildRequestPredicate().setTimeToLive(HttpResponseRule.LifeTimes.SINGLE_USE);
-        requestPredicates.add(foreverPredicate);
-        requestPredicates.add(untilRestPredicate);
-        requestPredicates.add(singleUsePredicate);
+        addPredicate(foreverPredicate);
+        addPredicate(untilRestPredicate);
+        addPredicate(singleUsePredicate);
 
         emulatorService.reset();
 
@@ -84,6 +117,11 @@ public class EmulatorServiceTest {
         MatcherAssert.assertThat(requestPredicates, not(hasItem(singleUsePredicate)));
         MatcherAssert.assertThat(requestPredicates, not(hasItem(untilRestPredicate)));
         MatcherAssert.assertThat(requestPredicates, hasItem(foreverPredicate));
+
+        // The published snapshot reflects the reset
+        assertThat(getSnapshot().contains(singleUsePredicate), is(false));
+        assertThat(getSnapshot().contains(untilRestPredicate), is(false));
+        assertThat(getSnapshot().contains(foreverPredicate), is(true));
     }
 
     @Test
@@ -97,20 +135,54 @@ public class EmulatorServiceTest {
         testResponseRule = new HttpResponseRule();
         given(predicateBuilder.buildPredicate(testResponseRule)).willReturn(testRequestPredicate);
 
-        emulatorService.addResponseRule(testResponseRule);
+        long ruleId = emulatorService.addResponseRule(testResponseRule);
 
+        assertThat(ruleId, is(testRequestPredicate.getId()));
         then(predicateBuilder).should().buildPredicate(testResponseRule);
         MatcherAssert.assertThat(requestPredicates, hasItem(testRequestPredicate));
         then(requestResponseHandler).should().setNextResponse(testRequestPredicate, testResponseRule);
     }
 
+    @Test
+    public void addResponseRulePublishesNewSnapshot() {
+        RequestPredicateSnapshot initialSnapshot = getSnapshot();
+
+        TestUtils.TestRequestPredicate testRequestPredicate = TestUtils.buildRequestPredicate();
+        addPredicate(testRequestPredicate);
+
+        assertThat(getSnapshot().getVersion(), is(initialSnapshot.getVersion() + 1));
+        assertThat(getSnapshot().contains(testRequestPredicate), is(true));
+        // previously published snapshots are never changed
+        assertThat(initialSnapshot.contains(testRequestPredicate), is(false));
+    }
+
+    @Test
+    public void removeResponseRule() {
+        TestUtils.TestRequestPredicate testRequestPredicate = TestUtils.buildRequestPredicate().setTimeToLive(HttpResponseRule.LifeTimes.FOREVER);
+        addPredicate(testRequestPredicate);
+
+        emulatorService.removeResponseRule(testRequestPredicate.getId());
+
+        assertThat(requestPredicates.contains(testRequestPredicate), is(false));
+        assertThat(getSnapshot().contains(testRequestPredicate), is(false));
+        then(requestResponseHandler).should().removeNextResponse(testRequestPredicate);
+    }
+
+    @Test
+    public void removeResponseRuleNotFound() {
+        thrown.expect(ResponseRuleNotFoundException.class);
+        thrown.expectMessage("Response rule [-1] is not installed in the emulator");
+
+        emulatorService.removeResponseRule(-1L);
+    }
+
     @Test
     public void getResponseSingleUse() {
         TestUtils.TestRequestPredicate testRequestPredicate = TestUtils.buildRequestPredicate();
         testRequestPredicate.setTimeToLive(HttpResponseRule.LifeTimes.SINGLE_USE);
         testRequestPredicate.setRequestType(TEST_REQUEST_TYPE);
         testRequestPredicate.setResult(true);
-        requestPredicates.add(testRequestPredicate);
+        addPredicate(testRequestPredicate);
 
         HttpResponseRule testHttpResponseRule = new HttpResponseRule();
         HttpResponseContainer testResponse = new HttpResponseContainer();
@@ -122,8 +194,145 @@ public class EmulatorServiceTest {
         assertThat(response, is(testResponse));
         then(requestResponseHandler).should().removeNextResponse(testRequestPredicate);
         then(requestResponseHandler).should(times(0)).getNextResponse(testRequestPredicate);
-        assertThat(requestPredicates.size(), is(0));
         then(requestResponseHandler).should().setLastApplicationRequest(testRequestPredicate.getRequestType(), testHttpRequestContainer);
+        // the used predicate is only hidden by the request, it is removed when the rules next change
+        RequestPredicateSnapshot consumedSnapshot = getSnapshot();
+        assertThat(requestPredicates.size(), is(1));
+        addPredicate(TestUtils.buildRequestPredicate());
+        assertThat(requestPredicates.contains(testRequestPredicate), is(false));
+        assertThat(getSnapshot().contains(testRequestPredicate), is(false));
+        assertThat(consumedSnapshot.claim(testRequestPredicate), is(false));
+    }
+
+    @Test
+    public void getResponseSingleUseRemovedInBatches() {
+        List<TestUtils.TestRequestPredicate> singleUsePredicates = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            TestUtils.TestRequestPredicate singleUsePredicate = TestUtils.buildRequestPredicate()
+                    .setTimeToLive(HttpResponseRule.LifeTimes.SINGLE_USE).setRequestType(TEST_REQUEST_TYPE).setResult(true);
+            addPredicate(singleUsePredicate);
+            singleUsePredicates.add(singleUsePredicate);
+        }
+        given(requestResponseHandler.removeNextResponse(ArgumentMatchers.any())).willReturn(new HttpResponseRule());
+        long version = getSnapshot().getVersion();
+
+        for (int i = 0; i < 63; i++) {
+            emulatorService.matchResponse(testHttpRequestContainer);
+        }
+        assertThat(getSnapshot().getVersion(), is(version));
+        emulatorService.matchResponse(testHttpRequestContainer);
+
+        assertThat(getSnapshot().getVersion(), is(version + 1));
+        assertThat(requestPredicates.size(), is(0));
+    }
+
+    @Test
+    public void removeResponseRuleAlreadyUsed() {
+        TestUtils.TestRequestPredicate testRequestPredicate = TestUtils.buildRequestPredicate()
+                .setTimeToLive(HttpResponseRule.LifeTimes.SINGLE_USE).setRequestType(TEST_REQUEST_TYPE).setResult(true);
+        addPredicate(testRequestPredicate);
+        given(requestResponseHandler.removeNextResponse(testRequestPredicate)).willReturn(new HttpResponseRule());
+        emulatorService.matchResponse(testHttpRequestContainer);
+
+        thrown.expect(ResponseRuleNotFoundException.class);
+
+        emulatorService.removeResponseRule(testRequestPredicate.getId());
+    }
+
+    @Test
+    public void getResponseSingleUseAlreadyClaimedFallsThroughToNextMatch() {
+        TestUtils.TestRequestPredicate claimedPredicate = TestUtils.buildRequestPredicate()
+                .setTimeToLive(HttpResponseRule.LifeTimes.SINGLE_USE).setRequestType(TEST_REQUEST_TYPE).setPriority(2).setResult(true);
+        TestUtils.TestRequestPredicate foreverPredicate = TestUtils.buildRequestPredicate()
+                .setTimeToLive(HttpResponseRule.LifeTimes.FOREVER).setRequestType(TEST_REQUEST_TYPE).setPriority(1).setResult(true);
+        addPredicate(claimedPredicate);
+        addPredicate(foreverPredicate);
+        // simulate another request having claimed the single use response just before this one
+        assertThat(getSnapshot().claim(claimedPredicate), is(true));
+
+        HttpResponseRule testHttpResponseRule = new HttpResponseRule();
+        HttpResponseContainer testResponse = new HttpResponseContainer();
+        testHttpResponseRule.setResponse(testResponse);
+        given(requestResponseHandler.getNextResponse(foreverPredicate)).willReturn(testHttpResponseRule);
+
+        HttpResponseContainer response = emulatorService.getResponse(testHttpRequestContainer);
+
+        assertThat(response, is(testResponse));
+        then(requestResponseHandler).should(times(0)).removeNextResponse(claimedPredicate);
+    }
+
+    @Test
+    public void getResponseSingleUseServedExactlyOnceUnderConcurrentRequests() throws Exception {
+        int singleUseResponseCount = 50;
+        int requestCount = 5000;
+        EmulatorService concurrentEmulatorService = new EmulatorService();
+        ReflectionTestUtils.setField(concurrentEmulatorService, "requestResponseHandler", new RequestResponseHandler());
+        ReflectionTestUtils.setField(concurrentEmulatorService, "predicateBuilder", new PredicateBuilder());
+        concurrentEmulatorService.addResponseRule(buildConcurrentResponseRule("fallback", 1, HttpResponseRule.LifeTimes.FOREVER));
+        for (int i = 0; i < singleUseResponseCount; i++) {
+            concurrentEmulatorService.addResponseRule(buildConcurrentResponseRule("single-use-" + i, 2, HttpResponseRule.LifeTimes.SINGLE_USE));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(16);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Future<String>> responseBodies = new ArrayList<>();
+        try {
+            for (int i = 0; i < requestCount; i++) {
+                responseBodies.add(executorService.submit(() -> {
+                    HttpRequestContainer requestContainer = new HttpRequestContainer();
+                    requestContainer.setHttpMethod("GET");
+                    requestContainer.setUrl("/books");
+                    startLatch.await();
+                    return concurrentEmulatorService.getResponse(requestContainer).getBody();
+                }));
+            }
+            startLatch.countDown();
+
+            Map<String, Integer> servedCounts = new HashMap<>();
+            for (Future<String> responseBody : responseBodies) {
+                servedCounts.merge(responseBody.get(30, TimeUnit.SECONDS), 1, Integer::sum);
+            }
+            for (int i = 0; i < singleUseResponseCount; i++) {
+                assertThat(servedCounts.get("single-use-" + i), is(1));
+            }
+            assertThat(servedCounts.get("fallback"), is(requestCount - singleUseResponseCount));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void addResponseRuleCompilesRulesWhenEnabled() {
+        EmulatorService compilingEmulatorService = new EmulatorService();
+        ReflectionTestUtils.setField(compilingEmulatorService, "requestResponseHandler", new RequestResponseHandler());
+        ReflectionTestUtils.setField(compilingEmulatorService, "predicateBuilder", new PredicateBuilder());
+        // compile on the calling thread so that the result can be checked straight away
+        ReflectionTestUtils.setField(compilingEmulatorService, "ruleCompiler", MoreExecutors.newDirectExecutorService());
+        compilingEmulatorService.addResponseRule(buildConcurrentResponseRule("forever", 1, HttpResponseRule.LifeTimes.FOREVER));
+        compilingEmulatorService.addResponseRule(buildConcurrentResponseRule("single-use", 2, HttpResponseRule.LifeTimes.SINGLE_USE));
+
+        RequestPredicateIndex compilingRequestPredicates =
+                (RequestPredicateIndex) ReflectionTestUtils.getField(compilingEmulatorService, "requestPredicateIndex");
+        for (RequestPredicate requestPredicate : compilingRequestPredicates) {
+            boolean expectCompiled = requestPredicate.getTimeToLive() != HttpResponseRule.LifeTimes.SINGLE_USE;
+            assertThat(requestPredicate.toString().contains("CompiledRulePredicate"), is(expectCompiled));
+        }
+
+        HttpRequestContainer requestContainer = new HttpRequestContainer();
+        requestContainer.setUrl("/books");
+        assertThat(compilingEmulatorService.getResponse(requestContainer).getBody(), is("single-use"));
+        assertThat(compilingEmulatorService.getResponse(requestContainer).getBody(), is("forever"));
+    }
+
+    private static HttpResponseRule buildConcurrentResponseRule(String body, int priority, HttpResponseRule.LifeTimes timeToLive) {
+        HttpResponseRule responseRule = TestUtils.buildHttpResponseRule();
+        responseRule.getResponse().setBody(body);
+        responseRule.getPredicate().setRequestType(body);
+        responseRule.getPredicate().setRules(Lists.newArrayList("url is '/books'"));
+        responseRule.setPriority(priority);
+        responseRule.setTimeToLive(timeToLive);
+        responseRule.setDelay(null);
+        return responseRule;
     }
 
     @Test
@@ -132,7 +341,7 @@ public class EmulatorServiceTest {
         testRequestPredicate.setTimeToLive(HttpResponseRule.LifeTimes.FOREVER);
         testRequestPredicate.setRequestType(TEST_REQUEST_TYPE);
         testRequestPredicate.setResult(true);
-        requestPredicates.add(testRequestPredicate);
+        addPredicate(testRequestPredicate);
 
         HttpResponseRule testHttpResponseRule = new HttpResponseRule();
         HttpResponseContainer testResponse = new HttpResponseContainer();
@@ -155,14 +364,14 @@ public class EmulatorServiceTest {
         testRequestPredicate1.setRequestType(TEST_REQUEST_TYPE);
         testRequestPredicate1.setResult(true);
         testRequestPredicate1.setPriority(1);
-        requestPredicates.add(testRequestPredicate1);
+        addPredicate(testRequestPredicate1);
 
         TestUtils.TestRequestPredicate testRequestPredicate2 = TestUtils.buildRequestPredicate();
         testRequestPredicate2.setTimeToLive(HttpResponseRule.LifeTimes.FOREVER);
         testRequestPredicate2.setRequestType(TEST_REQUEST_TYPE);
         testRequestPredicate2.setResult(true);
         testRequestPredicate2.setPriority(2);
-        requestPredicates.add(testRequestPredicate2);
+        addPredicate(testRequestPredicate2);
 
         HttpResponseRule testHttpResponseRule = new HttpResponseRule();
         HttpResponseContainer testResponse = new HttpResponseContainer();
@@ -187,7 +396,7 @@ public class EmulatorServiceTest {
         testRequestPredicate.setTimeToLive(HttpResponseRule.LifeTimes.FOREVER);
         testRequestPredicate.setRequestType(TEST_REQUEST_TYPE);
         testRequestPredicate.setResult(true);
-        requestPredicates.add(testRequestPredicate);
+        addPredicate(testRequestPredicate);
 
         given(requestResponseHandler.getNextResponse(testRequestPredicate)).willReturn(null);
 
@@ -207,7 +416,7 @@ public class EmulatorServiceTest {
         testRequestPredicate.setTimeToLive(HttpResponseRule.LifeTimes.FOREVER);
         testRequestPredicate.setRequestType(TEST_REQUEST_TYPE);
         testRequestPredicate.setResult(true);
-        requestPredicates.add(testRequestPredicate);
+        addPredicate(testRequestPredicate);
 
         HttpResponseRule testHttpResponseRule = new HttpResponseRule();
         testHttpResponseRule.setDelay(new HttpResponseRule.Delay().setDelayTimeInMillis(3000));
@@ -227,13 +436,90 @@ public class EmulatorServiceTest {
         then(requestResponseHandler).should().setLastApplicationRequest(testRequestPredicate.getRequestType(), testHttpRequestContainer);
     }
 
+    @Test
+    public void matchResponseDoesNotWaitForDelay() {
+        TestUtils.TestRequestPredicate testRequestPredicate = TestUtils.buildRequestPredicate();
+        testRequestPredicate.setTimeToLive(HttpResponseRule.LifeTimes.FOREVER);
+        testRequestPredicate.setRequestType(TEST_REQUEST_TYPE);
+        testRequestPredicate.setResult(true);
+        addPredicate(testRequestPredicate);
+
+        HttpResponseRule testHttpResponseRule = new HttpResponseRule();
+        testHttpResponseRule.setDelay(new HttpResponseRule.Delay().setDelayTimeInMillis(60_000));
+        testHttpResponseRule.setResponse(new HttpResponseContainer());
+        given(requestResponseHandler.getNextResponse(testRequestPredicate)).willReturn(testHttpResponseRule);
+
+        long startTime = System.currentTimeMillis();
+        HttpResponseRule responseRule = emulatorService.matchResponse(testHttpRequestContainer);
+        long stopTime = System.currentTimeMillis();
+
+        assertThat(responseRule, is(testHttpResponseRule));
+        assertThat(stopTime - startTime, is(not(greaterThan(30_000L))));
+        then(requestResponseHandler).should().setLastApplicationRequest(testRequestPredicate.getRequestType(), testHttpRequestContainer);
+    }
+
+    @Test
+    public void getResponseWithScaledClock() throws InterruptedException {
+        TestUtils.TestRequestPredicate testRequestPredicate = TestUtils.buildRequestPredicate();
+        testRequestPredicate.setTimeToLive(HttpResponseRule.LifeTimes.FOREVER);
+        testRequestPredicate.setRequestType(TEST_REQUEST_TYPE);
+        testRequestPredicate.setResult(true);
+        addPredicate(testRequestPredicate);
+
+        HttpResponseRule testHttpResponseRule = new HttpResponseRule();
+        testHttpResponseRule.setDelay(new HttpResponseRule.Delay().setDelayTimeInMillis(30_000));
+        testHttpResponseRule.setResponse(new HttpResponseContainer());
+        given(requestResponseHandler.getNextResponse(testRequestPredicate)).willReturn(testHttpResponseRule);
+        emulatorService.setClockScale(100);
+
+        long startTime = System.currentTimeMillis();
+        emulatorService.getResponse(testHttpRequestContainer);
+        long stopTime = System.currentTimeMillis();
+
+        // 30 seconds of emulator time is 0.3 seconds of real time
+        assertThat(stopTime - startTime, is(greaterThan(250L)));
+        assertThat(stopTime - startTime, is(not(greaterThan(10_000L))));
+        then(emulatorClock).should().sleep(30_000);
+    }
+
+    @Test
+    public void advanceClockEndsDelay() throws Exception {
+        TestUtils.TestRequestPredicate testRequestPredicate = TestUtils.buildRequestPredicate();
+        testRequestPredicate.setTimeToLive(HttpResponseRule.LifeTimes.FOREVER);
+        testRequestPredicate.setRequestType(TEST_REQUEST_TYPE);
+        testRequestPredicate.setResult(true);
+        addPredicate(testRequestPredicate);
+
+        HttpResponseRule testHttpResponseRule = new HttpResponseRule();
+        testHttpResponseRule.setDelay(new HttpResponseRule.Delay().setDelayTimeInMillis(600_000));
+        HttpResponseContainer testResponse = new HttpResponseContainer();
+        testHttpResponseRule.setResponse(testResponse);
+        given(requestResponseHandler.getNextResponse(testRequestPredicate)).willReturn(testHttpResponseRule);
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<HttpResponseContainer> response = executorService.submit(() -> emulatorService.getResponse(testHttpRequestContainer));
+            then(emulatorClock).should(Mockito.timeout(5000)).sleep(600_000);
+
+            // advanced again until the wait is over, in case the first advance came before the wait had started
+            for (int i = 0; i < 100 && !response.isDone(); i++) {
+                emulatorService.advanceClock(600_000);
+                Thread.sleep(50);
+            }
+
+            assertThat(response.get(5, TimeUnit.SECONDS), is(testResponse));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
     @Test
     public void getResponseWithNullSleep() {
         TestUtils.TestRequestPredicate testRequestPredicate = TestUtils.buildRequestPredicate();
         testRequestPredicate.setTimeToLive(HttpResponseRule.LifeTimes.FOREVER);
         testRequestPredicate.setRequestType(TEST_REQUEST_TYPE);
         testRequestPredicate.setResult(true);
-        requestPredicates.add(testRequestPredicate);
+        addPredicate(testRequestPredicate);
 
         HttpResponseRule testHttpResponseRule = new HttpResponseRule();
         testHttpResponseRule.setDelay(null);
@@ -259,11 +545,11 @@ public class EmulatorServiceTest {
         testRequestPredicate.setTimeToLive(HttpResponseRule.LifeTimes.FOREVER);
         testRequestPredicate.setRequestType(TEST_REQUEST_TYPE);
         testRequestPredicate.setResult(true);
-        requestPredicates.add(testRequestPredicate);
+        addPredicate(testRequestPredicate);
 
         HttpResponseRule testHttpResponseRule = new HttpResponseRule();
         HttpResponseRule.Delay mockedDelayObject = Mockito.mock(HttpResponseRule.Delay.class);
-        given(mockedDelayObject.getDelayTimeInMillis()).willReturn(1L).willReturn(1L).willThrow(new RuntimeException());
+        given(mockedDelayObject.sampleDelayMillis()).willReturn(1L);
         testHttpResponseRule.setDelay(mockedDelayObject);
         HttpResponseContainer testResponse = new HttpResponseContainer();
         testHttpResponseRule.setResponse(testResponse);
@@ -273,6 +559,121 @@ public class EmulatorServiceTest {
         thrown.expect(EmulatorException.class);
         thrown.expectMessage("The thread was interrupted while implementing a response wait time");
 
+        // the interrupt is cleared again by the sleep it breaks out of
+        Thread.currentThread().interrupt();
         emulatorService.getResponse(testHttpRequestContainer);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void addResponseRuleWithInvalidDelayDistribution() {
+        HttpResponseRule responseRule = buildConcurrentResponseRule("delayed", 1, HttpResponseRule.LifeTimes.FOREVER);
+        responseRule.setDelay(new HttpResponseRule.Delay().setDistribution(
+                new HttpResponseRule.Distribution().setType(HttpResponseRule.Distribution.Types.NORMAL).setMeanMillis(100L)));
+
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("A NORMAL delay distribution is missing a required value");
+
+        emulatorService.addResponseRule(responseRule);
+    }
+
+    @Test
+    public void writeJournalledRequests() throws Exception {
+        // Given
+        OutputStream outputStream = new ByteArrayOutputStream();
+        given(requestResponseHandler.writeJournalledRequests(TEST_REQUEST_TYPE, 1L, 2L, 3, outputStream)).willReturn(3);
+
+        // When
+        int written = emulatorService.writeJournalledRequests(TEST_REQUEST_TYPE, 1L, 2L, 3, outputStream);
+
+        // Then
+        assertThat(written, is(3));
+    }
+
+    @Test
+    public void writeJournalledRequestsWriteFails() throws Exception {
+        // Given
+        OutputStream outputStream = new ByteArrayOutputStream();
+        given(requestResponseHandler.writeJournalledRequests(TEST_REQUEST_TYPE, 1L, 2L, 3, outputStream))
+                .willThrow(new IOException("Broken pipe"));
+
+        // Then
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("Could not write the journalled [TestRequestType] requests");
+
+        // When
+        emulatorService.writeJournalledRequests(TEST_REQUEST_TYPE, 1L, 2L, 3, outputStream);
+    }
+
+    @Test
+    public void writeApplicationRequestsAsJsonArray() throws Exception {
+        // Given
+        HttpRequestContainer request = new HttpRequestContainer();
+        request.setUrl("/first");
+        List<String> requestTypes = Lists.newArrayList(TEST_REQUEST_TYPE);
+        given(requestResponseHandler.getApplicationRequests(requestTypes, 0, 10, true)).willReturn(Lists.newArrayList(
+                new CapturedRequest(1L, TEST_REQUEST_TYPE, request), new CapturedRequest(2L, TEST_REQUEST_TYPE, request)));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // When
+        int written = emulatorService.writeApplicationRequests(requestTypes, 0, 10, true, false, outputStream);
+
+        // Then
+        assertThat(written, is(2));
+        JsonNode json = new ObjectMapper().readTree(outputStream.toByteArray());
+        assertThat(json.isArray(), is(true));
+        assertThat(json.size(), is(2));
+        assertThat(json.get(1).get(CapturedRequest.TIMESTAMP_NODE_KEY).asLong(), is(2L));
+        assertThat(json.get(0).get(CapturedRequest.REQUEST_NODE_KEY).get(HttpRequestContainer.URL_NODE_KEY).asText(), is("/first"));
+    }
+
+    @Test
+    public void writeApplicationRequestsNewlineDelimited() throws Exception {
+        // Given
+        List<String> requestTypes = Lists.newArrayList(TEST_REQUEST_TYPE);
+        given(requestResponseHandler.getApplicationRequests(requestTypes, 0, 10, false)).willReturn(Lists.newArrayList(
+                new CapturedRequest(1L, TEST_REQUEST_TYPE, new HttpRequestContainer()),
+                new CapturedRequest(2L, TEST_REQUEST_TYPE, new HttpRequestContainer())));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // When
+        emulatorService.writeApplicationRequests(requestTypes, 0, 10, false, true, outputStream);
+
+        // Then
+        String[] lines = outputStream.toString("UTF-8").split("\n", -1);
+        assertThat(lines.length, is(3));
+        assertThat(new ObjectMapper().readTree(lines[0]).get(CapturedRequest.TIMESTAMP_NODE_KEY).asLong(), is(1L));
+        assertThat(new ObjectMapper().readTree(lines[1]).get(CapturedRequest.TIMESTAMP_NODE_KEY).asLong(), is(2L));
+        assertThat(lines[2], is(""));
+    }
+
+    @Test
+    public void queryApplicationRequests() {
+        // Given
+        HttpResponseRule.CustomRequestPredicateDefinition query = new HttpResponseRule.CustomRequestPredicateDefinition();
+        query.setRequestType(TEST_REQUEST_TYPE);
+        query.setRules(Lists.newArrayList("headers contain entry 'X-Correlation-Id' whose value is 'abc'"));
+        List<CapturedRequest> capturedRequests = Lists.newArrayList(
+                new CapturedRequest(1L, TEST_REQUEST_TYPE, new HttpRequestContainer()));
+        given(requestResponseHandler.queryApplicationRequests(eq(TEST_REQUEST_TYPE), anyList(), eq(10), eq(true)))
+                .willReturn(capturedRequests);
+
+        // When
+        List<CapturedRequest> found = emulatorService.queryApplicationRequests(query, 10, true);
+
+        // Then
+        assertThat(found, is(capturedRequests));
+        then(requestResponseHandler).should().queryApplicationRequests(eq(TEST_REQUEST_TYPE),
+                ArgumentMatchers.argThat(rules -> rules.size() == 1 && "X-Correlation-Id".equals(rules.get(0).getRequiredKey())),
+                eq(10), eq(true));
+    }
+
+    @Test
+    public void queryApplicationRequestsWithoutRules() {
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("A request type and at least one rule must be supplied to query application requests");
+
+        HttpResponseRule.CustomRequestPredicateDefinition query = new HttpResponseRule.CustomRequestPredicateDefinition();
+        query.setRequestType(TEST_REQUEST_TYPE);
+        emulatorService.queryApplicationRequests(query, 10, false);
+    }
+}
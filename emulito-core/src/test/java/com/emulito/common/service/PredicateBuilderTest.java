@@ -5,8 +5,8 @@ import com.emulito.common.domain.http.HttpResponseRule;
 import com.emulito.common.domain.predicates.RequestPredicate;
 import com.emulito.common.exception.EmulatorException;
 import com.emulito.common.test.utils.TestUtils;
+import com.google.common.collect.Lists;
 import org.junit.Before;
-import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -15,9 +15,11 @@ import org.mockito.junit.MockitoRule;
 
 import java.util.Collections;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
 
 public class PredicateBuilderTest {
 
@@ -110,22 +112,68 @@ public class PredicateBuilderTest {
     }
 
     @Test
-    @Ignore
-    public void hashCodeTest() {
+    public void buildPredicateEvaluatesCheapestRulesFirst() {
+        HttpResponseRule httpResponseRule = TestUtils.buildHttpResponseRule();
+        httpResponseRule.getPredicate().setRules(Lists.newArrayList(
+                "body matches '.*hardback.*'", "body contains 'bookType'", "url is '/books'", "httpMethod is 'POST'"));
+        RequestPredicate requestPredicate = predicateBuilder.buildPredicate(httpResponseRule);
+
+        assertThat(requestPredicate.toString(), containsString(
+                "\"evaluationOrder\":[httpMethod is 'POST', url is '/books', body contains 'bookType', body matches '.*hardback.*']"));
+        // the rules as written are left untouched
+        assertThat(requestPredicate.getRules(), is(httpResponseRule.getPredicate().getRules()));
+    }
+
+    @Test
+    public void compile() {
+        HttpResponseRule httpResponseRule = TestUtils.buildHttpResponseRule();
+        RequestPredicate requestPredicate = predicateBuilder.buildPredicate(httpResponseRule);
+        HttpRequestContainer testHttpRequestContainer = new HttpRequestContainer();
+        testHttpRequestContainer.setUrl("someValue");
+
+        predicateBuilder.compile(requestPredicate);
+
+        assertThat(requestPredicate.toString(), containsString("CompiledRulePredicate"));
+        testHttpRequestContainer.setBody("someValue");
+        assertThat(requestPredicate.test(testHttpRequestContainer), is(true));
+        testHttpRequestContainer.setBody("someOtherValue");
+        assertThat(requestPredicate.test(testHttpRequestContainer), is(false));
+    }
+
+    @Test
+    public void compileIgnoresOtherPredicates() {
+        TestUtils.TestRequestPredicate testRequestPredicate = TestUtils.buildRequestPredicate().setResult(true);
+
+        predicateBuilder.compile(testRequestPredicate);
+
+        assertThat(testRequestPredicate.test(new HttpRequestContainer()), is(true));
+    }
+
+    @Test
+    public void buildPredicateAssignsIncreasingIds() {
         HttpResponseRule httpResponseRule = TestUtils.buildHttpResponseRule();
         RequestPredicate requestPredicate = predicateBuilder.buildPredicate(httpResponseRule);
         RequestPredicate requestPredicate2 = predicateBuilder.buildPredicate(httpResponseRule);
 
-        assertThat(requestPredicate.hashCode(), is(equalTo(requestPredicate2.hashCode())));
+        assertThat(requestPredicate2.getId(), is(greaterThan(requestPredicate.getId())));
+    }
+
+    @Test
+    public void hashCodeTest() {
+        HttpResponseRule httpResponseRule = TestUtils.buildHttpResponseRule();
+        RequestPredicate requestPredicate = predicateBuilder.buildPredicate(httpResponseRule);
+
+        assertThat(requestPredicate.hashCode(), is(equalTo(Long.hashCode(requestPredicate.getId()))));
     }
 
     @Test
-    @Ignore
     public void equalsTest() {
         HttpResponseRule httpResponseRule = TestUtils.buildHttpResponseRule();
         RequestPredicate requestPredicate = predicateBuilder.buildPredicate(httpResponseRule);
         RequestPredicate requestPredicate2 = predicateBuilder.buildPredicate(httpResponseRule);
 
-        assertThat(requestPredicate.equals(requestPredicate2), is(true));
+        // every installed rule is distinct, even if it was built from the same definition
+        assertThat(requestPredicate.equals(requestPredicate), is(true));
+        assertThat(requestPredicate.equals(requestPredicate2), is(false));
     }
 }
@@ -0,0 +1,285 @@
+package com.emulito.common.service;
+
+import com.emulito.common.domain.http.CapturedRequest;
+import com.emulito.common.domain.http.HttpRequestContainer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RequestCaptureBufferTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static CapturedRequest capture() {
+        return new CapturedRequest(System.currentTimeMillis(), "TestRequestType", new HttpRequestContainer());
+    }
+
+    @Test
+    public void pollLastIsLastInFirstOut() {
+        // Given
+        RequestCaptureBuffer buffer = new RequestCaptureBuffer(3);
+        CapturedRequest first = capture();
+        CapturedRequest second = capture();
+        buffer.addLast(first);
+        buffer.addLast(second);
+
+        // When / Then
+        assertThat(buffer.pollLast(), is(second));
+        assertThat(buffer.pollLast(), is(first));
+        assertThat(buffer.pollLast(), is(nullValue()));
+    }
+
+    @Test
+    public void addLastReturnsOverwrittenRequest() {
+        // Given
+        RequestCaptureBuffer buffer = new RequestCaptureBuffer(1);
+        CapturedRequest first = capture();
+        CapturedRequest second = capture();
+
+        // When / Then
+        assertThat(buffer.addLast(first), is(nullValue()));
+        assertThat(buffer.addLast(second), is(first));
+    }
+
+    @Test
+    public void containsUntilTakenOrOverwritten() {
+        // Given
+        RequestCaptureBuffer buffer = new RequestCaptureBuffer(1);
+        RequestCaptureBuffer.Entry first = buffer.newEntry(capture());
+        buffer.addLast(first);
+        assertThat(buffer.contains(first), is(true));
+
+        // When
+        buffer.addLast(capture());
+
+        // Then
+        assertThat(buffer.contains(first), is(false));
+        RequestCaptureBuffer.Entry second = buffer.snapshot().get(0);
+        assertThat(buffer.take(second), is(true));
+        assertThat(buffer.contains(second), is(false));
+    }
+
+    @Test
+    public void pollFirstIsFirstInFirstOut() {
+        // Given
+        RequestCaptureBuffer buffer = new RequestCaptureBuffer(3);
+        CapturedRequest first = capture();
+        CapturedRequest second = capture();
+        buffer.addLast(first);
+        buffer.addLast(second);
+
+        // When / Then
+        assertThat(buffer.isEmpty(), is(false));
+        assertThat(buffer.pollFirst(), is(first));
+        assertThat(buffer.pollFirst(), is(second));
+        assertThat(buffer.pollFirst(), is(nullValue()));
+        assertThat(buffer.isEmpty(), is(true));
+    }
+
+    @Test
+    public void pollFirstSkipsTakenRequests() {
+        // Given
+        RequestCaptureBuffer buffer = new RequestCaptureBuffer(4);
+        CapturedRequest third = capture();
+        buffer.addLast(capture());
+        buffer.addLast(capture());
+        buffer.addLast(third);
+        List<RequestCaptureBuffer.Entry> entries = buffer.snapshot();
+        buffer.take(entries.get(0));
+        buffer.take(entries.get(1));
+
+        // When / Then
+        assertThat(buffer.isEmpty(), is(false));
+        assertThat(buffer.pollFirst(), is(third));
+        assertThat(buffer.isEmpty(), is(true));
+        assertThat(buffer.pollFirst(), is(nullValue()));
+    }
+
+    @Test
+    public void pollFirstFindsRequestAddedAfterLaterOne() {
+        // Given
+        RequestCaptureBuffer buffer = new RequestCaptureBuffer(4);
+        CapturedRequest first = capture();
+        CapturedRequest second = capture();
+        // numbered first, but not added until after the second has been polled
+        RequestCaptureBuffer.Entry firstEntry = buffer.newEntry(first);
+        buffer.addLast(second);
+        assertThat(buffer.pollFirst(), is(second));
+
+        // When
+        buffer.addLast(firstEntry);
+
+        // Then
+        assertThat(buffer.isEmpty(), is(false));
+        assertThat(buffer.pollFirst(), is(first));
+        assertThat(buffer.isEmpty(), is(true));
+    }
+
+    @Test
+    public void addLastOverwritesOldestWhenFull() {
+        // Given
+        RequestCaptureBuffer buffer = new RequestCaptureBuffer(2);
+        CapturedRequest first = capture();
+        CapturedRequest second = capture();
+        CapturedRequest third = capture();
+
+        // When
+        buffer.addLast(first);
+        buffer.addLast(second);
+        buffer.addLast(third);
+
+        // Then
+        assertThat(buffer.pollLast(), is(third));
+        assertThat(buffer.pollLast(), is(second));
+        assertThat(buffer.pollLast(), is(nullValue()));
+    }
+
+    @Test
+    public void addLastAfterPollLast() {
+        // Given
+        RequestCaptureBuffer buffer = new RequestCaptureBuffer(2);
+        CapturedRequest first = capture();
+        CapturedRequest second = capture();
+        buffer.addLast(first);
+        buffer.pollLast();
+
+        // When
+        buffer.addLast(second);
+
+        // Then
+        assertThat(buffer.pollLast(), is(second));
+        assertThat(buffer.pollLast(), is(nullValue()));
+    }
+
+    @Test
+    public void snapshotListsOldestFirstWithoutTaking() {
+        // Given
+        RequestCaptureBuffer buffer = new RequestCaptureBuffer(2);
+        CapturedRequest second = capture();
+        CapturedRequest third = capture();
+        buffer.addLast(capture());
+        buffer.addLast(second);
+        buffer.addLast(third);
+
+        // When
+        List<RequestCaptureBuffer.Entry> entries = buffer.snapshot();
+
+        // Then
+        assertThat(entries.size(), is(2));
+        assertThat(entries.get(0).getCapturedRequest(), is(second));
+        assertThat(entries.get(1).getCapturedRequest(), is(third));
+        assertThat(buffer.snapshot().size(), is(2));
+    }
+
+    @Test
+    public void takeOnlyOnce() {
+        // Given
+        RequestCaptureBuffer buffer = new RequestCaptureBuffer(2);
+        CapturedRequest first = capture();
+        CapturedRequest second = capture();
+        buffer.addLast(first);
+        buffer.addLast(second);
+        RequestCaptureBuffer.Entry firstEntry = buffer.snapshot().get(0);
+
+        // When / Then
+        assertThat(buffer.take(firstEntry), is(true));
+        assertThat(buffer.take(firstEntry), is(false));
+        assertThat(buffer.pollLast(), is(second));
+        assertThat(buffer.pollLast(), is(nullValue()));
+    }
+
+    @Test
+    public void takeOverwrittenEntry() {
+        // Given
+        RequestCaptureBuffer buffer = new RequestCaptureBuffer(1);
+        buffer.addLast(capture());
+        RequestCaptureBuffer.Entry overwritten = buffer.snapshot().get(0);
+        buffer.addLast(capture());
+
+        // When / Then
+        assertThat(buffer.take(overwritten), is(false));
+    }
+
+    @Test
+    public void capacityMustBePositive() {
+        // Then
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Request capture capacity [0] must be greater than 0");
+
+        // When
+        new RequestCaptureBuffer(0);
+    }
+
+    @Test
+    public void concurrentAddAndPollTakeEachRequestOnce() throws Exception {
+        // Given
+        int threads = 4;
+        int requestsPerThread = 5000;
+        RequestCaptureBuffer buffer = new RequestCaptureBuffer(threads * requestsPerThread);
+        ExecutorService executor = Executors.newFixedThreadPool(threads * 2);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<CapturedRequest>>> pollers = new ArrayList<>();
+        try {
+            for (int thread = 0; thread < threads; thread++) {
+                executor.submit(() -> {
+                    start.await();
+                    for (int count = 0; count < requestsPerThread; count++) {
+                        buffer.addLast(capture());
+                    }
+                    return null;
+                });
+                pollers.add(executor.submit(() -> {
+                    start.await();
+                    List<CapturedRequest> taken = new ArrayList<>();
+                    for (int count = 0; count < requestsPerThread; count++) {
+                        CapturedRequest request = buffer.pollLast();
+                        if (request != null) {
+                            taken.add(request);
+                        }
+                    }
+                    return taken;
+                }));
+            }
+
+            // When
+            start.countDown();
+            Set<CapturedRequest> allTaken = Collections.newSetFromMap(new IdentityHashMap<>());
+            int takenCount = 0;
+            for (Future<List<CapturedRequest>> poller : pollers) {
+                List<CapturedRequest> taken = poller.get(10, TimeUnit.SECONDS);
+                allTaken.addAll(taken);
+                takenCount += taken.size();
+            }
+            executor.shutdown();
+            assertThat(executor.awaitTermination(10, TimeUnit.SECONDS), is(true));
+            CapturedRequest request;
+            while ((request = buffer.pollLast()) != null) {
+                allTaken.add(request);
+                takenCount++;
+            }
+
+            // Then
+            // nothing is lost, since the buffer never fills, and nothing is taken twice
+            assertThat(takenCount, is(threads * requestsPerThread));
+            assertThat(allTaken.size(), is(threads * requestsPerThread));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.emulito.common.service;
+
+import com.emulito.common.domain.http.CapturedRequest;
+import com.emulito.common.domain.http.HttpRequestContainer;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+
+public class RequestCapturePipelineTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private final List<CapturedRequest> stored = Collections.synchronizedList(new ArrayList<>());
+    private RequestCapturePipeline pipeline;
+
+    @After
+    public void tearDown() {
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+    }
+
+    private static CapturedRequest capture() {
+        return new CapturedRequest(System.currentTimeMillis(), "TestRequestType", new HttpRequestContainer());
+    }
+
+    @Test
+    public void flushWaitsForSubmittedRequests() {
+        // Given
+        // a slow consumer, so that requests are still queued when flush is called
+        Consumer<CapturedRequest> slowConsumer = capturedRequest -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stored.add(capturedRequest);
+        };
+        pipeline = new RequestCapturePipeline(slowConsumer);
+        CapturedRequest first = capture();
+        CapturedRequest second = capture();
+        CapturedRequest third = capture();
+
+        // When
+        pipeline.submit(first);
+        pipeline.submit(second);
+        pipeline.submit(third);
+        pipeline.flush();
+
+        // Then
+        assertThat(stored, contains(first, second, third));
+    }
+
+    @Test
+    public void flushWithNothingSubmitted() {
+        // Given
+        pipeline = new RequestCapturePipeline(stored::add);
+
+        // When
+        pipeline.flush();
+
+        // Then
+        assertThat(stored.isEmpty(), is(true));
+    }
+
+    @Test
+    public void consumerFailureDoesNotStopPipeline() {
+        // Given
+        CapturedRequest failing = capture();
+        CapturedRequest next = capture();
+        pipeline = new RequestCapturePipeline(capturedRequest -> {
+            if (capturedRequest == failing) {
+                throw new IllegalStateException("Store failed");
+            }
+            stored.add(capturedRequest);
+        });
+
+        // When
+        pipeline.submit(failing);
+        pipeline.submit(next);
+        pipeline.flush();
+
+        // Then
+        assertThat(stored, contains(next));
+    }
+
+    @Test
+    public void submitWhenFullStoresOnCallingThread() throws Exception {
+        // Given
+        CapturedRequest first = capture();
+        CountDownLatch firstTaken = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        pipeline = new RequestCapturePipeline(capturedRequest -> {
+            if (capturedRequest == first) {
+                // holds the worker up, so that the queue fills behind it
+                firstTaken.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            stored.add(capturedRequest);
+        }, 1);
+        pipeline.submit(first);
+        assertThat(firstTaken.await(10, TimeUnit.SECONDS), is(true));
+        CapturedRequest second = capture();
+        CapturedRequest third = capture();
+
+        // When
+        pipeline.submit(second);
+        pipeline.submit(third);
+
+        // Then
+        // the second waits in the queue, which is then full, so the third is stored straight away
+        assertThat(stored, contains(third));
+        assertThat(pipeline.getOverflowed(), is(1L));
+        release.countDown();
+        pipeline.flush();
+        assertThat(stored, contains(third, first, second));
+    }
+
+    @Test
+    public void zeroCapacity() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Request capture queue capacity [0] must be greater than 0");
+
+        new RequestCapturePipeline(stored::add, 0);
+    }
+
+    @Test
+    public void submitAfterStopStoresOnCallingThread() {
+        // Given
+        pipeline = new RequestCapturePipeline(stored::add);
+        pipeline.stop();
+        CapturedRequest capturedRequest = capture();
+
+        // When
+        pipeline.submit(capturedRequest);
+
+        // Then
+        assertThat(stored, contains(capturedRequest));
+    }
+
+    @Test
+    public void concurrentSubmitsAreAllStoredByFlush() throws Exception {
+        // Given
+        pipeline = new RequestCapturePipeline(stored::add);
+        int threads = 4;
+        int requestsPerThread = 5000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch submitted = new CountDownLatch(threads);
+        try {
+            for (int thread = 0; thread < threads; thread++) {
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                        for (int count = 0; count < requestsPerThread; count++) {
+                            pipeline.submit(capture());
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        submitted.countDown();
+                    }
+                });
+            }
+
+            // When
+            start.countDown();
+            assertThat(submitted.await(10, TimeUnit.SECONDS), is(true));
+            pipeline.flush();
+
+            // Then
+            assertThat(stored.size(), is(threads * requestsPerThread));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
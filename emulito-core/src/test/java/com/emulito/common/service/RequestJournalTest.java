@@ -0,0 +1,273 @@
+package com.emulito.common.service;
+
+import com.emulito.common.domain.http.HttpRequestContainer;
+import com.emulito.common.exception.EmulatorException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayWithSize;
+
+public class RequestJournalTest {
+
+    private static final String TEST_REQUEST_TYPE = "TestRequestType";
+    private static final String OTHER_REQUEST_TYPE = "OtherRequestType";
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private RequestJournal requestJournal;
+    private File directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = temporaryFolder.newFolder("journal");
+        requestJournal = buildJournal();
+    }
+
+    private RequestJournal buildJournal() {
+        RequestJournal journal = new RequestJournal();
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "directory", directory.getPath());
+        ReflectionTestUtils.setField(journal, "segmentMegabytes", 1);
+        return journal;
+    }
+
+    private File getJournalDirectory() {
+        return ((Path) ReflectionTestUtils.getField(requestJournal, "journalDirectory")).toFile();
+    }
+
+    @After
+    public void tearDown() {
+        requestJournal.close();
+    }
+
+    private HttpRequestContainer buildRequest(String body) {
+        HttpRequestContainer request = new HttpRequestContainer();
+        request.setHttpMethod("POST");
+        request.setUrl("/test");
+        request.setBody(body);
+        return request;
+    }
+
+    private List<Map<String, Object>> readRequests(String requestType, long fromMillis, long toMillis, int limit) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        requestJournal.writeRequests(requestType, fromMillis, toMillis, limit, outputStream);
+        return objectMapper.readValue(outputStream.toByteArray(), new TypeReference<List<Map<String, Object>>>() {});
+    }
+
+    @SuppressWarnings("unchecked")
+    private String getBody(Map<String, Object> journalledRequest) {
+        return (String) ((Map<String, Object>) journalledRequest.get("request")).get("body");
+    }
+
+    @Test
+    public void appendDoesNothingWhenDisabled() throws IOException {
+        // Given
+        ReflectionTestUtils.setField(requestJournal, "enabled", false);
+        requestJournal.open();
+
+        // When
+        requestJournal.append(System.currentTimeMillis(), TEST_REQUEST_TYPE, buildRequest("body"));
+
+        // Then
+        assertThat(requestJournal.isEnabled(), is(false));
+        assertThat(readRequests(TEST_REQUEST_TYPE, 0, Long.MAX_VALUE, Integer.MAX_VALUE).isEmpty(), is(true));
+        assertThat(directory.listFiles(), arrayWithSize(0));
+    }
+
+    @Test
+    public void writeRequestsOldestFirstForRequestType() throws IOException {
+        // Given
+        requestJournal.open();
+        requestJournal.append(System.currentTimeMillis(), TEST_REQUEST_TYPE, buildRequest("first"));
+        requestJournal.append(System.currentTimeMillis(), OTHER_REQUEST_TYPE, buildRequest("other"));
+        requestJournal.append(System.currentTimeMillis(), TEST_REQUEST_TYPE, buildRequest("second"));
+
+        // When
+        List<Map<String, Object>> journalledRequests = readRequests(TEST_REQUEST_TYPE, 0, Long.MAX_VALUE, Integer.MAX_VALUE);
+
+        // Then
+        assertThat(journalledRequests.size(), is(2));
+        assertThat(getBody(journalledRequests.get(0)), is("first"));
+        assertThat(getBody(journalledRequests.get(1)), is("second"));
+        assertThat(journalledRequests.get(0).get("requestType"), is(TEST_REQUEST_TYPE));
+    }
+
+    @Test
+    public void appendKeepsReceivedTimestampInOrder() throws IOException {
+        // Given
+        requestJournal.open();
+
+        // When
+        requestJournal.append(1000L, TEST_REQUEST_TYPE, buildRequest("first"));
+        requestJournal.append(3000L, TEST_REQUEST_TYPE, buildRequest("second"));
+        // stored after the second, so never journalled as earlier than it
+        requestJournal.append(2000L, TEST_REQUEST_TYPE, buildRequest("third"));
+
+        // Then
+        List<Map<String, Object>> journalledRequests = readRequests(TEST_REQUEST_TYPE, 0, Long.MAX_VALUE, Integer.MAX_VALUE);
+        assertThat(((Number) journalledRequests.get(0).get("timestamp")).longValue(), is(1000L));
+        assertThat(((Number) journalledRequests.get(1).get("timestamp")).longValue(), is(3000L));
+        assertThat(((Number) journalledRequests.get(2).get("timestamp")).longValue(), is(3000L));
+    }
+
+    @Test
+    public void appendKeepsEachRequestTypesTimestampsInOrderSeparately() throws IOException {
+        // Given
+        requestJournal.open();
+
+        // When
+        requestJournal.append(3000L, TEST_REQUEST_TYPE, buildRequest("first"));
+        // earlier than the other type's request, but the first of its own type
+        requestJournal.append(1000L, OTHER_REQUEST_TYPE, buildRequest("other first"));
+        requestJournal.append(2000L, TEST_REQUEST_TYPE, buildRequest("second"));
+        requestJournal.append(2000L, OTHER_REQUEST_TYPE, buildRequest("other second"));
+
+        // Then
+        List<Map<String, Object>> journalledRequests = readRequests(TEST_REQUEST_TYPE, 0, Long.MAX_VALUE, Integer.MAX_VALUE);
+        List<Map<String, Object>> otherJournalledRequests = readRequests(OTHER_REQUEST_TYPE, 0, Long.MAX_VALUE, Integer.MAX_VALUE);
+        assertThat(((Number) journalledRequests.get(0).get("timestamp")).longValue(), is(3000L));
+        assertThat(((Number) journalledRequests.get(1).get("timestamp")).longValue(), is(3000L));
+        assertThat(((Number) otherJournalledRequests.get(0).get("timestamp")).longValue(), is(1000L));
+        assertThat(((Number) otherJournalledRequests.get(1).get("timestamp")).longValue(), is(2000L));
+    }
+
+    @Test
+    public void writeRequestsUnknownRequestType() throws IOException {
+        // Given
+        requestJournal.open();
+        requestJournal.append(System.currentTimeMillis(), TEST_REQUEST_TYPE, buildRequest("first"));
+
+        // When / Then
+        assertThat(readRequests(OTHER_REQUEST_TYPE, 0, Long.MAX_VALUE, Integer.MAX_VALUE).isEmpty(), is(true));
+    }
+
+    @Test
+    public void writeRequestsWithinTimeRangeAndLimit() throws Exception {
+        // Given
+        requestJournal.open();
+        for (String body : new String[]{"first", "second", "third"}) {
+            requestJournal.append(System.currentTimeMillis(), TEST_REQUEST_TYPE, buildRequest(body));
+            Thread.sleep(5);
+        }
+        List<Map<String, Object>> allRequests = readRequests(TEST_REQUEST_TYPE, 0, Long.MAX_VALUE, Integer.MAX_VALUE);
+        long secondTimestamp = ((Number) allRequests.get(1).get("timestamp")).longValue();
+        long thirdTimestamp = ((Number) allRequests.get(2).get("timestamp")).longValue();
+
+        // When
+        List<Map<String, Object>> inRange = readRequests(TEST_REQUEST_TYPE, secondTimestamp, thirdTimestamp, Integer.MAX_VALUE);
+        List<Map<String, Object>> limited = readRequests(TEST_REQUEST_TYPE, secondTimestamp, Long.MAX_VALUE, 1);
+
+        // Then
+        // from is inclusive and to is exclusive
+        assertThat(inRange.size(), is(1));
+        assertThat(getBody(inRange.get(0)), is("second"));
+        assertThat(limited.size(), is(1));
+        assertThat(getBody(limited.get(0)), is("second"));
+    }
+
+    @Test
+    public void appendStartsNewSegmentWhenFull() throws IOException {
+        // Given
+        requestJournal.open();
+        String largeBody = StringUtils.repeat('a', 700 * 1024);
+        String oversizedBody = StringUtils.repeat('b', 1536 * 1024);
+
+        // When
+        requestJournal.append(System.currentTimeMillis(), TEST_REQUEST_TYPE, buildRequest(largeBody));
+        requestJournal.append(System.currentTimeMillis(), TEST_REQUEST_TYPE, buildRequest(largeBody));
+        requestJournal.append(System.currentTimeMillis(), TEST_REQUEST_TYPE, buildRequest(oversizedBody));
+
+        // Then
+        assertThat(getJournalDirectory().listFiles(), arrayWithSize(3));
+        List<Map<String, Object>> journalledRequests = readRequests(TEST_REQUEST_TYPE, 0, Long.MAX_VALUE, Integer.MAX_VALUE);
+        assertThat(journalledRequests.size(), is(3));
+        assertThat(getBody(journalledRequests.get(1)), is(largeBody));
+        assertThat(getBody(journalledRequests.get(2)), is(oversizedBody));
+    }
+
+    @Test
+    public void journalsSharingDirectoryKeepTheirOwnSegments() throws IOException {
+        // Given
+        File otherSegment = new File(directory, "requests-00001.journal");
+        assertThat(otherSegment.createNewFile(), is(true));
+        RequestJournal otherJournal = buildJournal();
+        requestJournal.open();
+        otherJournal.open();
+
+        // When
+        for (int i = 0; i < 3; i++) {
+            requestJournal.append(System.currentTimeMillis(), TEST_REQUEST_TYPE, buildRequest(StringUtils.repeat('a', 700 * 1024)));
+            otherJournal.append(System.currentTimeMillis(), TEST_REQUEST_TYPE, buildRequest(StringUtils.repeat('b', 700 * 1024)));
+        }
+        otherJournal.close();
+
+        // Then
+        assertThat(readRequests(TEST_REQUEST_TYPE, 0, Long.MAX_VALUE, Integer.MAX_VALUE).size(), is(3));
+        assertThat(getJournalDirectory().listFiles(), arrayWithSize(3));
+        // the other journal's directory is gone, everything it didn't create is left alone
+        assertThat(directory.listFiles(), arrayWithSize(2));
+        assertThat(otherSegment.exists(), is(true));
+    }
+
+    @Test
+    public void closeDeletesJournal() throws IOException {
+        // Given
+        requestJournal.open();
+        requestJournal.append(System.currentTimeMillis(), TEST_REQUEST_TYPE, buildRequest("first"));
+
+        // When
+        requestJournal.close();
+
+        // Then
+        assertThat(directory.listFiles(), arrayWithSize(0));
+    }
+
+    @Test
+    public void openFailsForSegmentTooLargeToMap() {
+        // Given
+        ReflectionTestUtils.setField(requestJournal, "segmentMegabytes", 2048);
+
+        // Then
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("Request journal segment size [2048] megabytes must be from 1 to 2047");
+
+        // When
+        requestJournal.open();
+    }
+
+    @Test
+    public void openFailsForUnusableDirectory() throws IOException {
+        // Given
+        File file = temporaryFolder.newFile("notADirectory");
+        ReflectionTestUtils.setField(requestJournal, "directory", file.getPath());
+
+        // Then
+        thrown.expect(EmulatorException.class);
+        thrown.expectMessage("Could not open the request journal in directory");
+
+        // When
+        requestJournal.open();
+    }
+}
@@ -0,0 +1,243 @@
+package com.emulito.common.service;
+
+import com.emulito.common.domain.http.HttpRequestContainer;
+import com.emulito.common.domain.http.HttpResponseRule;
+import com.emulito.common.domain.predicates.RequestPredicate;
+import com.emulito.common.test.utils.TestUtils;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RequestPredicateIndexTest {
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    private PredicateBuilder predicateBuilder = new PredicateBuilder();
+
+    private RequestPredicateIndex requestPredicateIndex;
+
+    @Before
+    public void setup() {
+        requestPredicateIndex = new RequestPredicateIndex();
+    }
+
+    @Test
+    public void findByUrl() {
+        RequestPredicate booksPredicate = buildPredicate(1, "url is '/books'");
+        RequestPredicate moviesPredicate = buildPredicate(1, "url is '/movies'");
+        requestPredicateIndex.add(booksPredicate);
+        requestPredicateIndex.add(moviesPredicate);
+
+        assertThat(requestPredicateIndex.find(buildRequest("GET", "/movies")), is(moviesPredicate));
+        assertThat(requestPredicateIndex.find(buildRequest("GET", "/books")), is(booksPredicate));
+        assertThat(requestPredicateIndex.find(buildRequest("GET", "/films")), is(nullValue()));
+    }
+
+    @Test
+    public void findByHttpMethod() {
+        RequestPredicate getPredicate = buildPredicate(1, "httpMethod is 'GET'");
+        RequestPredicate postPredicate = buildPredicate(1, "httpMethod is 'POST'");
+        requestPredicateIndex.add(getPredicate);
+        requestPredicateIndex.add(postPredicate);
+
+        assertThat(requestPredicateIndex.find(buildRequest("POST", "/books")), is(postPredicate));
+        assertThat(requestPredicateIndex.find(buildRequest("GET", "/books")), is(getPredicate));
+    }
+
+    @Test
+    public void findHighestPriorityAcrossBuckets() {
+        RequestPredicate urlPredicate = buildPredicate(1, "url is '/books'");
+        RequestPredicate httpMethodPredicate = buildPredicate(2, "httpMethod is 'GET'");
+        RequestPredicate unindexedPredicate = buildPredicate(3, "url ends with 'ks'");
+        requestPredicateIndex.add(urlPredicate);
+        requestPredicateIndex.add(httpMethodPredicate);
+
+        assertThat(requestPredicateIndex.find(buildRequest("GET", "/books")), is(httpMethodPredicate));
+
+        requestPredicateIndex.add(unindexedPredicate);
+        assertThat(requestPredicateIndex.find(buildRequest("GET", "/books")), is(unindexedPredicate));
+    }
+
+    @Test
+    public void findByUrlPrefix() {
+        RequestPredicate accountsPredicate = buildPredicate(2, "url starts with '/api/v2/accounts'");
+        RequestPredicate apiPredicate = buildPredicate(1, "url starts with '/api'");
+        RequestPredicate cardsPredicate = buildPredicate(3, "url starts with '/api/v2/accounts/123/cards'");
+        requestPredicateIndex.add(accountsPredicate);
+        requestPredicateIndex.add(apiPredicate);
+        requestPredicateIndex.add(cardsPredicate);
+
+        assertThat(requestPredicateIndex.find(buildRequest("GET", "/api/v2/accounts/123")), is(accountsPredicate));
+        assertThat(requestPredicateIndex.find(buildRequest("GET", "/api/v2/accounts/123/cards/1")), is(cardsPredicate));
+        assertThat(requestPredicateIndex.find(buildRequest("GET", "/api/v2/orders")), is(apiPredicate));
+        assertThat(requestPredicateIndex.find(buildRequest("GET", "/books")), is(nullValue()));
+    }
+
+    @Test
+    public void findByUrlPrefixAfterRemove() {
+        RequestPredicate accountsPredicate = buildPredicate(2, "url starts with '/api/v2/accounts'");
+        RequestPredicate apiPredicate = buildPredicate(1, "url starts with '/api'");
+        requestPredicateIndex.add(accountsPredicate);
+        requestPredicateIndex.add(apiPredicate);
+
+        requestPredicateIndex.remove(accountsPredicate);
+
+        assertThat(requestPredicateIndex.find(buildRequest("GET", "/api/v2/accounts/123")), is(apiPredicate));
+    }
+
+    @Test
+    public void findSamePriorityMostRecentlyAddedFirst() {
+        RequestPredicate firstPredicate = buildPredicate(1, "url is '/books'");
+        RequestPredicate secondPredicate = buildPredicate(1, "url is '/books'");
+        requestPredicateIndex.add(firstPredicate);
+        requestPredicateIndex.add(secondPredicate);
+
+        assertThat(requestPredicateIndex.find(buildRequest("GET", "/books")), is(secondPredicate));
+    }
+
+    @Test
+    public void findChecksRemainingRulesOfIndexedPredicate() {
+        RequestPredicate bodyPredicate = buildPredicate(2, "url is '/books'", "body contains 'hardback'");
+        RequestPredicate defaultPredicate = buildPredicate(1, "url is '/books'");
+        requestPredicateIndex.add(bodyPredicate);
+        requestPredicateIndex.add(defaultPredicate);
+
+        HttpRequestContainer request = buildRequest("POST", "/books");
+        request.setBody("paperback");
+        assertThat(requestPredicateIndex.find(request), is(defaultPredicate));
+        request.setBody("hardback");
+        assertThat(requestPredicateIndex.find(request), is(bodyPredicate));
+    }
+
+    @Test
+    public void findRejectsPredicateWhenBodyDoesNotContainValue() {
+        TestUtils.TestRequestPredicate hardbackPredicate = TestUtils.buildRequestPredicate()
+                .setRules(Lists.newArrayList("body contains 'hardback'")).setPriority(2).setResult(true);
+        TestUtils.TestRequestPredicate defaultPredicate = TestUtils.buildRequestPredicate()
+                .setRules(Lists.newArrayList("url contains 'books'")).setPriority(1).setResult(true);
+        requestPredicateIndex.add(hardbackPredicate);
+        requestPredicateIndex.add(defaultPredicate);
+
+        HttpRequestContainer request = buildRequest("POST", "/books");
+        request.setBody("{\"bookType\":\"paperback\"}");
+        assertThat(requestPredicateIndex.find(request), is(defaultPredicate));
+        request.setBody("{\"bookType\":\"hardback\"}");
+        assertThat(requestPredicateIndex.find(request), is(hardbackPredicate));
+        request.setBody(null);
+        assertThat(requestPredicateIndex.find(request), is(defaultPredicate));
+    }
+
+    @Test
+    public void findBodyContainsAfterRulesChange() {
+        RequestPredicate hardbackPredicate = buildPredicate(2, "body contains 'hardback'", "body contains 'bookType'");
+        RequestPredicate paperbackPredicate = buildPredicate(2, "body contains 'paperback'");
+        requestPredicateIndex.add(hardbackPredicate);
+
+        HttpRequestContainer request = buildRequest("POST", "/books");
+        request.setBody("{\"bookType\":\"paperback\"}");
+        assertThat(requestPredicateIndex.find(request), is(nullValue()));
+
+        requestPredicateIndex.add(paperbackPredicate);
+        assertThat(requestPredicateIndex.find(request), is(paperbackPredicate));
+
+        requestPredicateIndex.remove(paperbackPredicate);
+        assertThat(requestPredicateIndex.find(request), is(nullValue()));
+
+        request.setBody("{\"bookType\":\"hardback\"}");
+        assertThat(requestPredicateIndex.find(request), is(hardbackPredicate));
+    }
+
+    @Test
+    public void remove() {
+        RequestPredicate booksPredicate = buildPredicate(1, "url is '/books'");
+        requestPredicateIndex.add(booksPredicate);
+
+        assertThat(requestPredicateIndex.remove(booksPredicate), is(true));
+        assertThat(requestPredicateIndex.remove(booksPredicate), is(false));
+        assertThat(requestPredicateIndex.find(buildRequest("GET", "/books")), is(nullValue()));
+        assertThat(requestPredicateIndex.size(), is(0));
+    }
+
+    @Test
+    public void removeIf() {
+        TestUtils.TestRequestPredicate foreverPredicate = TestUtils.buildRequestPredicate().setTimeToLive(HttpResponseRule.LifeTimes.FOREVER);
+        TestUtils.TestRequestPredicate singleUsePredicate = TestUtils.buildRequestPredicate().setTimeToLive(HttpResponseRule.LifeTimes.SINGLE_USE);
+        requestPredicateIndex.add(foreverPredicate);
+        requestPredicateIndex.add(singleUsePredicate);
+
+        Set<RequestPredicate> removed = requestPredicateIndex.removeIf(
+                requestPredicate -> requestPredicate.getTimeToLive() != HttpResponseRule.LifeTimes.FOREVER);
+
+        assertThat(removed, hasItem(singleUsePredicate));
+        assertThat(removed, not(hasItem(foreverPredicate)));
+        assertThat(requestPredicateIndex, hasItem(foreverPredicate));
+        assertThat(requestPredicateIndex.contains(singleUsePredicate), is(false));
+    }
+
+    @Test
+    public void copyIsIndependentOfOriginal() {
+        RequestPredicate booksPredicate = buildPredicate(1, "url is '/books'");
+        RequestPredicate apiPredicate = buildPredicate(1, "url starts with '/api'");
+        RequestPredicate hardbackPredicate = buildPredicate(1, "body contains 'hardback'");
+        requestPredicateIndex.add(booksPredicate);
+        requestPredicateIndex.add(apiPredicate);
+
+        RequestPredicateIndex copy = requestPredicateIndex.copy();
+        requestPredicateIndex.remove(booksPredicate);
+        requestPredicateIndex.remove(apiPredicate);
+        requestPredicateIndex.add(hardbackPredicate);
+
+        HttpRequestContainer request = buildRequest("POST", "/books");
+        request.setBody("hardback");
+        assertThat(copy.size(), is(2));
+        assertThat(copy.find(request), is(booksPredicate));
+        assertThat(copy.find(buildRequest("GET", "/api/orders")), is(apiPredicate));
+        assertThat(requestPredicateIndex.find(request), is(hardbackPredicate));
+        assertThat(requestPredicateIndex.find(buildRequest("GET", "/api/orders")), is(nullValue()));
+    }
+
+    @Test
+    public void copiesShareBodyNeedleAutomatonUntilValuesChange() {
+        RequestPredicate hardbackPredicate = buildPredicate(1, "body contains 'hardback'");
+        requestPredicateIndex.add(hardbackPredicate);
+
+        Object automaton = ReflectionTestUtils.getField(requestPredicateIndex.copy(), "bodyNeedleAutomaton");
+        requestPredicateIndex.add(buildPredicate(1, "url is '/books'"));
+        assertThat(ReflectionTestUtils.getField(requestPredicateIndex.copy(), "bodyNeedleAutomaton"), is(sameInstance(automaton)));
+
+        requestPredicateIndex.add(buildPredicate(1, "body contains 'paperback'"));
+        RequestPredicateIndex copy = requestPredicateIndex.copy();
+        assertThat(ReflectionTestUtils.getField(copy, "bodyNeedleAutomaton"), is(not(sameInstance(automaton))));
+        HttpRequestContainer request = buildRequest("POST", "/orders");
+        request.setBody("hardback");
+        assertThat(copy.find(request), is(hardbackPredicate));
+    }
+
+    private RequestPredicate buildPredicate(int priority, String... rules) {
+        HttpResponseRule httpResponseRule = TestUtils.buildHttpResponseRule();
+        httpResponseRule.setPriority(priority);
+        httpResponseRule.getPredicate().setRules(Lists.newArrayList(rules));
+        return predicateBuilder.buildPredicate(httpResponseRule);
+    }
+
+    private static HttpRequestContainer buildRequest(String httpMethod, String url) {
+        HttpRequestContainer requestContainer = new HttpRequestContainer();
+        requestContainer.setHttpMethod(httpMethod);
+        requestContainer.setUrl(url);
+        return requestContainer;
+    }
+}
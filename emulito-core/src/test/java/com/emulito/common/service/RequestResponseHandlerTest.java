@@ -1,22 +1,43 @@
 package com.emulito.common.service;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.Sets;
+import com.emulito.common.domain.http.CapturedRequest;
 import com.emulito.common.domain.http.HttpRequestContainer;
 import com.emulito.common.domain.http.HttpResponseRule;
 import com.emulito.common.domain.predicates.RequestPredicate;
 import com.emulito.common.test.utils.TestUtils;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
+import org.springframework.mock.env.MockEnvironment;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.then;
 
 public class RequestResponseHandlerTest {
 
@@ -26,12 +47,21 @@ public class RequestResponseHandlerTest {
     @Rule
     public MockitoRule mockitoRule = MockitoJUnit.rule();
 
+    @Mock
+    private RequestJournal requestJournal;
+
     private RequestResponseHandler requestResponseHandler = new RequestResponseHandler();
 
+    @After
+    public void tearDown() {
+        requestResponseHandler.destroy();
+    }
+
     @Before
     public void setup() {
         ReflectionTestUtils.setField(requestResponseHandler, "nextResponses", new HashMap<>());
         ReflectionTestUtils.setField(requestResponseHandler, "applicationRequests", new ConcurrentHashMap<>());
+        ReflectionTestUtils.setField(requestResponseHandler, "requestJournal", requestJournal);
     }
 
     @Test
@@ -101,6 +131,401 @@ public class RequestResponseHandlerTest {
         assertThat(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME), is(nullValue()));
     }
 
+    @Test
+    public void setAndGetLastApplicationRequestCapacityForRequestType() {
+        // Given
+        MockEnvironment environment = new MockEnvironment();
+        environment.setProperty("emulito.requests.capacity." + TEST_REQUEST_NAME, "1");
+        ReflectionTestUtils.setField(requestResponseHandler, "environment", environment);
+        HttpRequestContainer httpRequestContainer = new HttpRequestContainer();
+        HttpRequestContainer otherTypeHttpRequestContainer = new HttpRequestContainer();
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, new HttpRequestContainer());
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, httpRequestContainer);
+        requestResponseHandler.setLastApplicationRequest("OtherRequestName", otherTypeHttpRequestContainer);
+        requestResponseHandler.setLastApplicationRequest("OtherRequestName", new HttpRequestContainer());
+
+        // When / Then
+        // Only one request of the overridden type is kept
+        assertThat(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME), is(httpRequestContainer));
+        assertThat(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME), is(nullValue()));
+        // Other request types keep the default number
+        requestResponseHandler.getLastApplicationRequest("OtherRequestName");
+        assertThat(requestResponseHandler.getLastApplicationRequest("OtherRequestName"), is(otherTypeHttpRequestContainer));
+    }
+
+    @Test
+    public void setLastApplicationRequestEvictsLeastRecentlyUsedTypeOverBudget() {
+        // Given
+        ReflectionTestUtils.setField(requestResponseHandler, "asyncCapture", false);
+        HttpRequestContainer oldest = new HttpRequestContainer();
+        HttpRequestContainer newest = new HttpRequestContainer();
+        long maxStoredBytes = 3 * oldest.estimateSize();
+        ReflectionTestUtils.setField(requestResponseHandler, "maxStoredBytes", maxStoredBytes);
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, oldest);
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, newest);
+        requestResponseHandler.setLastApplicationRequest("OtherRequestName", new HttpRequestContainer());
+
+        // When
+        // the other request type has now been used more recently, so the first type is evicted from
+        requestResponseHandler.setLastApplicationRequest("OtherRequestName", new HttpRequestContainer());
+
+        // Then
+        assertThat(requestResponseHandler.getStoredBytes(), is(lessThanOrEqualTo(maxStoredBytes)));
+        assertThat(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME), is(newest));
+        assertThat(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME), is(nullValue()));
+        assertThat(requestResponseHandler.getLastApplicationRequest("OtherRequestName"), is(notNullValue()));
+        assertThat(requestResponseHandler.getLastApplicationRequest("OtherRequestName"), is(notNullValue()));
+        assertThat(requestResponseHandler.getStoredBytes(), is(0L));
+    }
+
+    @Test
+    public void setLastApplicationRequestInternsHeadersAndCompressesLargeBody() {
+        // Given
+        ReflectionTestUtils.setField(requestResponseHandler, "asyncCapture", false);
+        ReflectionTestUtils.setField(requestResponseHandler, "compressBodiesOver", 100);
+        String body = Strings.repeat("testBody", 1000);
+        HttpRequestContainer first = new HttpRequestContainer();
+        first.setHeaders(Collections.singletonMap(new String("Content-Type"), Arrays.asList(new String("text/plain"))));
+        first.setBody(body);
+        HttpRequestContainer second = new HttpRequestContainer();
+        second.setHeaders(Collections.singletonMap(new String("Content-Type"), Arrays.asList(new String("text/plain"))));
+
+        // When
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, first);
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, second);
+
+        // Then
+        assertThat(first.isBodyCompressed(), is(true));
+        assertThat(first.getBody(), is(body));
+        assertThat(second.getHeaders().keySet().iterator().next(),
+                is(sameInstance(first.getHeaders().keySet().iterator().next())));
+        assertThat(second.getHeaders().get("Content-Type").get(0), is(sameInstance(first.getHeaders().get("Content-Type").get(0))));
+    }
+
+    @Test
+    public void resetReleasesStoredBytes() {
+        // Given
+        ReflectionTestUtils.setField(requestResponseHandler, "asyncCapture", false);
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, new HttpRequestContainer());
+
+        // When
+        requestResponseHandler.reset(Collections.emptySet());
+
+        // Then
+        assertThat(requestResponseHandler.getStoredBytes(), is(0L));
+    }
+
+    @Test
+    public void setLastApplicationRequestOnManyThreadsKeepsWithinBudget() throws Exception {
+        // Given
+        ReflectionTestUtils.setField(requestResponseHandler, "asyncCapture", false);
+        long maxStoredBytes = 10 * new HttpRequestContainer().estimateSize();
+        ReflectionTestUtils.setField(requestResponseHandler, "maxStoredBytes", maxStoredBytes);
+        List<Thread> storers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            String requestType = TEST_REQUEST_NAME + i;
+            Thread storer = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    requestResponseHandler.setLastApplicationRequest(requestType, new HttpRequestContainer());
+                }
+            });
+            storer.start();
+            storers.add(storer);
+        }
+
+        // When
+        for (Thread storer : storers) {
+            storer.join();
+        }
+
+        // Then
+        assertThat(requestResponseHandler.getStoredBytes(), is(lessThanOrEqualTo(maxStoredBytes)));
+        requestResponseHandler.reset(Collections.emptySet());
+        assertThat(requestResponseHandler.getStoredBytes(), is(0L));
+    }
+
+    @Test
+    public void resetWhileStoringReleasesStoredBytes() throws Exception {
+        // Given
+        ReflectionTestUtils.setField(requestResponseHandler, "asyncCapture", false);
+        AtomicBoolean storing = new AtomicBoolean(true);
+        List<Thread> storers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread storer = new Thread(() -> {
+                while (storing.get()) {
+                    requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, new HttpRequestContainer());
+                }
+            });
+            storer.start();
+            storers.add(storer);
+        }
+
+        // When
+        for (int i = 0; i < 1000; i++) {
+            requestResponseHandler.reset(Collections.emptySet());
+        }
+        storing.set(false);
+        for (Thread storer : storers) {
+            storer.join();
+        }
+        requestResponseHandler.reset(Collections.emptySet());
+
+        // Then
+        assertThat(requestResponseHandler.getStoredBytes(), is(0L));
+    }
+
+    private static List<com.emulito.common.domain.predicates.Rule> buildRules(String... ruleText) {
+        return Arrays.stream(ruleText)
+                .map(com.emulito.common.domain.predicates.Rule.RuleBuilder::build)
+                .collect(Collectors.toList());
+    }
+
+    private static HttpRequestContainer requestWithCorrelationId(String correlationId, String url) {
+        HttpRequestContainer request = new HttpRequestContainer();
+        request.setUrl(url);
+        request.setHeaders(Collections.singletonMap("X-Correlation-Id", Arrays.asList(correlationId)));
+        return request;
+    }
+
+    @Test
+    public void queryApplicationRequestsScansWithoutIndex() {
+        // Given
+        HttpRequestContainer first = requestWithCorrelationId("abc", "/books");
+        HttpRequestContainer second = requestWithCorrelationId("def", "/books");
+        HttpRequestContainer third = requestWithCorrelationId("abc", "/authors");
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, first);
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, second);
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, third);
+
+        // When
+        List<CapturedRequest> found = requestResponseHandler.queryApplicationRequests(TEST_REQUEST_NAME,
+                buildRules("headers contain entry 'X-Correlation-Id' whose value is 'abc'", "url starts with '/book'"),
+                10, false);
+
+        // Then
+        assertThat(found.stream().map(CapturedRequest::getRequest).collect(Collectors.toList()), contains(first));
+        // nothing is taken
+        assertThat(requestResponseHandler.getApplicationRequests(
+                Collections.singletonList(TEST_REQUEST_NAME), 0, 10, false).size(), is(3));
+        assertThat(requestResponseHandler.queryApplicationRequests("OtherRequestName",
+                buildRules("url starts with '/book'"), 10, false).isEmpty(), is(true));
+    }
+
+    @Test
+    public void queryApplicationRequestsUsesIndexAndDrains() {
+        // Given
+        ReflectionTestUtils.setField(requestResponseHandler, "indexedHeaders", new String[] {"X-Correlation-Id"});
+        HttpRequestContainer first = requestWithCorrelationId("abc", "/books");
+        HttpRequestContainer second = requestWithCorrelationId("def", "/books");
+        HttpRequestContainer third = requestWithCorrelationId("abc", "/authors");
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, first);
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, second);
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, third);
+        List<com.emulito.common.domain.predicates.Rule> rules =
+                buildRules("headers contain entry 'X-Correlation-Id' whose value is 'abc'");
+
+        // When
+        List<CapturedRequest> found = requestResponseHandler.queryApplicationRequests(TEST_REQUEST_NAME, rules, 1, true);
+
+        // Then
+        // oldest first, and taken so that the next query finds the next one
+        assertThat(found.stream().map(CapturedRequest::getRequest).collect(Collectors.toList()), contains(first));
+        found = requestResponseHandler.queryApplicationRequests(TEST_REQUEST_NAME, rules, 10, true);
+        assertThat(found.stream().map(CapturedRequest::getRequest).collect(Collectors.toList()), contains(third));
+        assertThat(requestResponseHandler.queryApplicationRequests(TEST_REQUEST_NAME, rules, 10, true).isEmpty(), is(true));
+        assertThat(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME), is(second));
+    }
+
+    @Test
+    public void queryApplicationRequestsIndexSkipsRequestsTakenElsewhere() {
+        // Given
+        ReflectionTestUtils.setField(requestResponseHandler, "indexedHeaders", new String[] {"X-Correlation-Id"});
+        HttpRequestContainer first = requestWithCorrelationId("abc", "/books");
+        HttpRequestContainer second = requestWithCorrelationId("abc", "/books");
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, first);
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, second);
+
+        // When
+        requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME);
+
+        // Then
+        List<CapturedRequest> found = requestResponseHandler.queryApplicationRequests(TEST_REQUEST_NAME,
+                buildRules("headers contain entry 'X-Correlation-Id' whose value is 'abc'"), 10, false);
+        assertThat(found.stream().map(CapturedRequest::getRequest).collect(Collectors.toList()), contains(first));
+    }
+
+    @Test
+    public void setLastApplicationRequestIsJournalled() {
+        // Given
+        // stored on the calling thread so that the outcome can be checked straight away
+        ReflectionTestUtils.setField(requestResponseHandler, "asyncCapture", false);
+        HttpRequestContainer httpRequestContainer = new HttpRequestContainer();
+
+        // When
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, httpRequestContainer);
+
+        // Then
+        then(requestJournal).should().append(anyLong(), eq(TEST_REQUEST_NAME), eq(httpRequestContainer));
+    }
+
+    @Test
+    public void waitForApplicationRequestAlreadyStored() {
+        // Given
+        HttpRequestContainer httpRequestContainer = new HttpRequestContainer();
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, httpRequestContainer);
+        List<HttpRequestContainer> handedOver = new ArrayList<>();
+
+        // When
+        requestResponseHandler.waitForApplicationRequest(TEST_REQUEST_NAME, handedOver::add);
+
+        // Then
+        assertThat(handedOver, contains(httpRequestContainer));
+        assertThat(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME), is(nullValue()));
+    }
+
+    @Test
+    public void waitForApplicationRequestHandedOverWhenStored() {
+        // Given
+        // stored on the calling thread so that the outcome can be checked straight away
+        ReflectionTestUtils.setField(requestResponseHandler, "asyncCapture", false);
+        List<HttpRequestContainer> firstHandedOver = new ArrayList<>();
+        List<HttpRequestContainer> secondHandedOver = new ArrayList<>();
+        requestResponseHandler.waitForApplicationRequest(TEST_REQUEST_NAME, firstHandedOver::add);
+        requestResponseHandler.waitForApplicationRequest(TEST_REQUEST_NAME, secondHandedOver::add);
+        HttpRequestContainer httpRequestContainer = new HttpRequestContainer();
+        HttpRequestContainer httpRequestContainer2 = new HttpRequestContainer();
+
+        // When
+        requestResponseHandler.setLastApplicationRequest("OtherRequestName", new HttpRequestContainer());
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, httpRequestContainer);
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, httpRequestContainer2);
+
+        // Then
+        // The longest waiting is handed the first request, and each is only handed one
+        assertThat(firstHandedOver, contains(httpRequestContainer));
+        assertThat(secondHandedOver, contains(httpRequestContainer2));
+        assertThat(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME), is(nullValue()));
+    }
+
+    @Test
+    public void waitForApplicationRequestNoLongerWanted() {
+        // Given
+        requestResponseHandler.waitForApplicationRequest(TEST_REQUEST_NAME, request -> false);
+        HttpRequestContainer httpRequestContainer = new HttpRequestContainer();
+
+        // When
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, httpRequestContainer);
+
+        // Then
+        // The request is kept for the next caller
+        assertThat(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME), is(httpRequestContainer));
+    }
+
+    @Test
+    public void stopWaitingForApplicationRequest() {
+        // Given
+        List<HttpRequestContainer> handedOver = new ArrayList<>();
+        Predicate<HttpRequestContainer> waiter = handedOver::add;
+        requestResponseHandler.waitForApplicationRequest(TEST_REQUEST_NAME, waiter);
+        HttpRequestContainer httpRequestContainer = new HttpRequestContainer();
+
+        // When
+        requestResponseHandler.stopWaitingForApplicationRequest(TEST_REQUEST_NAME, waiter);
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, httpRequestContainer);
+
+        // Then
+        assertThat(handedOver.isEmpty(), is(true));
+        assertThat(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME), is(httpRequestContainer));
+    }
+
+    @Test
+    public void subscribeReceivesCapturedRequests() throws Exception {
+        // Given
+        BlockingQueue<CapturedRequest> received = new LinkedBlockingQueue<>();
+        ApplicationRequestSubscription subscription = requestResponseHandler.subscribe(
+                TEST_REQUEST_NAME, 10, ApplicationRequestSubscription.DropPolicy.OLDEST,
+                (capturedRequest, dropped) -> received.add(capturedRequest));
+        HttpRequestContainer httpRequestContainer = new HttpRequestContainer();
+
+        // When
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, httpRequestContainer);
+
+        // Then
+        CapturedRequest capturedRequest = received.poll(5, TimeUnit.SECONDS);
+        assertThat(capturedRequest.getRequest(), is(httpRequestContainer));
+        assertThat(capturedRequest.getRequestType(), is(TEST_REQUEST_NAME));
+        // The subscriber only observes the request, it is still there to be retrieved
+        assertThat(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME), is(httpRequestContainer));
+
+        subscription.cancel();
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, httpRequestContainer);
+        assertThat(received.poll(100, TimeUnit.MILLISECONDS), is(nullValue()));
+    }
+
+    @Test
+    public void getApplicationRequestsPeek() {
+        // Given
+        HttpRequestContainer first = new HttpRequestContainer();
+        HttpRequestContainer second = new HttpRequestContainer();
+        HttpRequestContainer other = new HttpRequestContainer();
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, first);
+        requestResponseHandler.setLastApplicationRequest("OtherRequestName", other);
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, second);
+
+        // When
+        List<CapturedRequest> capturedRequests = requestResponseHandler.getApplicationRequests(
+                Arrays.asList(TEST_REQUEST_NAME, "OtherRequestName", "UnknownRequestName"), 0, Integer.MAX_VALUE, false);
+
+        // Then
+        // Every request type's requests, oldest first
+        assertThat(capturedRequests.stream().map(CapturedRequest::getRequest).collect(Collectors.toList()),
+                containsInAnyOrder(first, second, other));
+        assertThat(capturedRequests.stream().map(CapturedRequest::getRequest).filter(request -> request != other)
+                .collect(Collectors.toList()), contains(first, second));
+        // Nothing is taken
+        assertThat(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME), is(second));
+    }
+
+    @Test
+    public void getApplicationRequestsPage() {
+        // Given
+        List<HttpRequestContainer> requests = new ArrayList<>();
+        for (int count = 0; count < 5; count++) {
+            HttpRequestContainer httpRequestContainer = new HttpRequestContainer();
+            requests.add(httpRequestContainer);
+            requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, httpRequestContainer);
+        }
+
+        // When
+        List<CapturedRequest> capturedRequests = requestResponseHandler.getApplicationRequests(
+                Collections.singletonList(TEST_REQUEST_NAME), 1, 2, false);
+
+        // Then
+        assertThat(capturedRequests.stream().map(CapturedRequest::getRequest).collect(Collectors.toList()),
+                contains(requests.get(1), requests.get(2)));
+    }
+
+    @Test
+    public void getApplicationRequestsDrain() {
+        // Given
+        HttpRequestContainer first = new HttpRequestContainer();
+        HttpRequestContainer second = new HttpRequestContainer();
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, first);
+        requestResponseHandler.setLastApplicationRequest(TEST_REQUEST_NAME, second);
+
+        // When
+        List<CapturedRequest> drained = requestResponseHandler.getApplicationRequests(
+                Collections.singletonList(TEST_REQUEST_NAME), 0, 1, true);
+
+        // Then
+        assertThat(drained.size(), is(1));
+        assertThat(drained.get(0).getRequest(), is(first));
+        assertThat(drained.get(0).getRequestType(), is(TEST_REQUEST_NAME));
+        // Only the drained request is taken
+        assertThat(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME), is(second));
+        assertThat(requestResponseHandler.getLastApplicationRequest(TEST_REQUEST_NAME), is(nullValue()));
+    }
+
     @Test
     public void setAndGetNextResponse() {
         // Given
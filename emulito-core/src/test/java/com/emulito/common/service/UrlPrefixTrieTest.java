@@ -0,0 +1,88 @@
+package com.emulito.common.service;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+
+public class UrlPrefixTrieTest {
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    private UrlPrefixTrie<String> urlPrefixTrie;
+
+    @Before
+    public void setup() {
+        urlPrefixTrie = new UrlPrefixTrie<>();
+    }
+
+    @Test
+    public void computeIfAbsentAndGet() {
+        urlPrefixTrie.computeIfAbsent("/api/v2/accounts", prefix -> "accounts");
+        urlPrefixTrie.computeIfAbsent("/api/v2/accounts", prefix -> "replaced");
+
+        assertThat(urlPrefixTrie.get("/api/v2/accounts"), is("accounts"));
+        assertThat(urlPrefixTrie.get("/api/v2"), is(nullValue()));
+        assertThat(urlPrefixTrie.size(), is(1));
+    }
+
+    @Test
+    public void forEachPrefixOf() {
+        urlPrefixTrie.computeIfAbsent("/api/v2/accounts", prefix -> "accounts");
+        urlPrefixTrie.computeIfAbsent("/api/v2/accounts/123", prefix -> "account");
+        urlPrefixTrie.computeIfAbsent("/api", prefix -> "api");
+        urlPrefixTrie.computeIfAbsent("/api/v2/orders", prefix -> "orders");
+        urlPrefixTrie.computeIfAbsent("/boo", prefix -> "boo");
+
+        assertThat(collectPrefixesOf("/api/v2/accounts/123/cards"), contains("api", "accounts", "account"));
+        assertThat(collectPrefixesOf("/api/v2/ord"), contains("api"));
+        assertThat(collectPrefixesOf("/books"), contains("boo"));
+        assertThat(collectPrefixesOf("/bo"), is(empty()));
+        assertThat(collectPrefixesOf(null), is(empty()));
+    }
+
+    @Test
+    public void forEachPrefixOfEmptyPrefix() {
+        urlPrefixTrie.computeIfAbsent("", prefix -> "everything");
+
+        assertThat(collectPrefixesOf("/books"), contains("everything"));
+        assertThat(collectPrefixesOf(""), contains("everything"));
+    }
+
+    @Test
+    public void remove() {
+        urlPrefixTrie.computeIfAbsent("/api/v2/accounts", prefix -> "accounts");
+        urlPrefixTrie.computeIfAbsent("/api/v2/orders", prefix -> "orders");
+        urlPrefixTrie.computeIfAbsent("/api/v2", prefix -> "v2");
+
+        assertThat(urlPrefixTrie.remove("/api/v2"), is("v2"));
+        assertThat(urlPrefixTrie.remove("/api/v2"), is(nullValue()));
+        assertThat(urlPrefixTrie.remove("/api/v3"), is(nullValue()));
+        assertThat(collectPrefixesOf("/api/v2/orders/1"), contains("orders"));
+
+        assertThat(urlPrefixTrie.remove("/api/v2/orders"), is("orders"));
+        assertThat(collectPrefixesOf("/api/v2/accounts/1"), contains("accounts"));
+        assertThat(urlPrefixTrie.size(), is(1));
+
+        assertThat(urlPrefixTrie.remove("/api/v2/accounts"), is("accounts"));
+        assertThat(urlPrefixTrie.isEmpty(), is(true));
+        assertThat(collectPrefixesOf("/api/v2/accounts/1"), is(empty()));
+    }
+
+    private List<String> collectPrefixesOf(String url) {
+        List<String> values = new ArrayList<>();
+        urlPrefixTrie.forEachPrefixOf(url, values::add);
+        return values;
+    }
+}
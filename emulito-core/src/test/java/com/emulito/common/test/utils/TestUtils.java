@@ -7,6 +7,7 @@ import com.emulito.common.domain.http.HttpResponseRule;
 import com.emulito.common.domain.predicates.RequestPredicate;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.emulito.common.domain.http.HttpResponseContainerTest.*;
 
@@ -16,6 +17,7 @@ public class TestUtils {
     private static final String TEST_REQUEST_TYPE = "TestRequestType";
     private static final HttpResponseRule.LifeTimes TEST_TIME_TO_LIVE = HttpResponseRule.LifeTimes.SINGLE_USE;
     private static final int TEST_PRIORITY = 4;
+    private static final AtomicLong NEXT_PREDICATE_ID = new AtomicLong(1L);
     private static final List<String> TEST_RULES = ImmutableList.<String>builder().add("url contains 'someValue'").add("body contains 'someValue'").build();
 
     public static TestRequestPredicate buildRequestPredicate() {
@@ -23,6 +25,7 @@ public class TestUtils {
     }
 
     public static class TestRequestPredicate implements RequestPredicate {
+        long id = NEXT_PREDICATE_ID.getAndIncrement();
         List<String> rules;
         HttpResponseRule.LifeTimes timeToLive;
         String requestType;
@@ -54,6 +57,11 @@ public class TestUtils {
             return this;
         }
 
+        @Override
+        public long getId() {
+            return id;
+        }
+
         @Override
         public List<String> getRules() {
             return rules;
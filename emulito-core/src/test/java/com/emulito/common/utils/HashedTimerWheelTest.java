@@ -0,0 +1,123 @@
+package com.emulito.common.utils;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+public class HashedTimerWheelTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    // a small wheel so that the delays below take more than one turn of it
+    private final VirtualClock clock = new VirtualClock();
+    private final HashedTimerWheel hashedTimerWheel = new HashedTimerWheel(clock, 5, 4);
+
+    @After
+    public void tearDown() {
+        hashedTimerWheel.stop();
+    }
+
+    @Test
+    public void runsTaskAfterDelay() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        long startTime = System.nanoTime();
+
+        hashedTimerWheel.schedule(latch::countDown, 100, TimeUnit.MILLISECONDS);
+
+        assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), is(greaterThanOrEqualTo(100L)));
+    }
+
+    @Test
+    public void runsTasksInDeadlineOrder() throws InterruptedException {
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(3);
+
+        hashedTimerWheel.schedule(() -> { order.add(3); latch.countDown(); }, 150, TimeUnit.MILLISECONDS);
+        hashedTimerWheel.schedule(() -> { order.add(1); latch.countDown(); }, 0, TimeUnit.MILLISECONDS);
+        hashedTimerWheel.schedule(() -> { order.add(2); latch.countDown(); }, 60, TimeUnit.MILLISECONDS);
+
+        assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(order.toString(), is("[1, 2, 3]"));
+    }
+
+    @Test
+    public void runsManyTasksOnOneThread() throws InterruptedException {
+        int taskCount = 10_000;
+        CountDownLatch latch = new CountDownLatch(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            hashedTimerWheel.schedule(latch::countDown, i % 200, TimeUnit.MILLISECONDS);
+        }
+
+        assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void cancelledTaskDoesNotRun() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        HashedTimerWheel.Timeout timeout = hashedTimerWheel.schedule(runs::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+        hashedTimerWheel.schedule(latch::countDown, 100, TimeUnit.MILLISECONDS);
+
+        assertThat(timeout.cancel(), is(true));
+        assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(runs.get(), is(0));
+        assertThat(timeout.isCancelled(), is(true));
+    }
+
+    @Test
+    public void cancelAfterTaskRan() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+
+        HashedTimerWheel.Timeout timeout = hashedTimerWheel.schedule(latch::countDown, 0, TimeUnit.MILLISECONDS);
+
+        assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(timeout.cancel(), is(false));
+        assertThat(timeout.isCancelled(), is(false));
+    }
+
+    @Test
+    public void runsTaskAfterScaledDelay() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        clock.setScale(100);
+        long startTime = System.nanoTime();
+
+        hashedTimerWheel.schedule(latch::countDown, 10, TimeUnit.SECONDS);
+
+        assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), is(greaterThanOrEqualTo(100L)));
+    }
+
+    @Test
+    public void runsTaskWhenClockAdvanced() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+
+        hashedTimerWheel.schedule(latch::countDown, 1, TimeUnit.HOURS);
+        clock.advance(TimeUnit.HOURS.toMillis(1));
+
+        assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void scheduleAfterStop() {
+        hashedTimerWheel.stop();
+
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage("The timer wheel has been stopped");
+
+        hashedTimerWheel.schedule(() -> { }, 0, TimeUnit.MILLISECONDS);
+    }
+}
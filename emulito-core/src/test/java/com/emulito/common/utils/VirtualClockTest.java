@@ -0,0 +1,116 @@
+package com.emulito.common.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+
+public class VirtualClockTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private final VirtualClock virtualClock = new VirtualClock();
+
+    @Test
+    public void runsAtRealTimeByDefault() throws InterruptedException {
+        long startTime = virtualClock.nanoTime();
+        long realStartTime = System.nanoTime();
+
+        Thread.sleep(50);
+
+        long elapsed = virtualClock.nanoTime() - startTime;
+        assertThat(elapsed, is(greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50))));
+        assertThat(elapsed, is(lessThan(System.nanoTime() - realStartTime + 1)));
+        assertThat(virtualClock.getScale(), is(1.0));
+        assertThat(virtualClock.toRealNanos(1000), is(1000L));
+    }
+
+    @Test
+    public void runsAtScale() throws InterruptedException {
+        virtualClock.setScale(100);
+        long startTime = virtualClock.nanoTime();
+
+        Thread.sleep(50);
+
+        assertThat(virtualClock.nanoTime() - startTime, is(greaterThanOrEqualTo(TimeUnit.SECONDS.toNanos(5))));
+        assertThat(virtualClock.toRealNanos(TimeUnit.SECONDS.toNanos(5)), is(TimeUnit.MILLISECONDS.toNanos(50)));
+    }
+
+    @Test
+    public void scaleChangeCarriesOnFromCurrentTime() {
+        virtualClock.advance(60_000);
+        long beforeChange = virtualClock.nanoTime();
+
+        virtualClock.setScale(0.5);
+
+        assertThat(virtualClock.nanoTime(), is(greaterThanOrEqualTo(beforeChange)));
+        assertThat(virtualClock.nanoTime() - beforeChange, is(lessThan(TimeUnit.SECONDS.toNanos(1))));
+    }
+
+    @Test
+    public void advance() {
+        long startTime = virtualClock.nanoTime();
+
+        virtualClock.advance(60_000);
+
+        assertThat(virtualClock.nanoTime() - startTime, is(greaterThanOrEqualTo(TimeUnit.SECONDS.toNanos(60))));
+    }
+
+    @Test
+    public void sleepAtScale() throws InterruptedException {
+        virtualClock.setScale(100);
+        long realStartTime = System.nanoTime();
+
+        virtualClock.sleep(10_000);
+
+        long realElapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - realStartTime);
+        assertThat(realElapsedMillis, is(greaterThanOrEqualTo(99L)));
+        assertThat(realElapsedMillis, is(lessThan(5_000L)));
+    }
+
+    @Test
+    public void sleepEndedByAdvance() throws Exception {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> sleeper = executorService.submit(() -> {
+                virtualClock.sleep(TimeUnit.HOURS.toMillis(1));
+                return null;
+            });
+            // advanced again until the sleep is over, in case the first advance came before the sleep had started
+            for (int i = 0; i < 100 && !sleeper.isDone(); i++) {
+                virtualClock.advance(TimeUnit.HOURS.toMillis(1));
+                Thread.sleep(50);
+            }
+
+            sleeper.get(5, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void setScaleNotPositive() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Clock scale [-1.0] must be greater than 0");
+
+        virtualClock.setScale(-1);
+    }
+
+    @Test
+    public void advanceNegative() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Clock can not be advanced by [-1] milliseconds");
+
+        virtualClock.advance(-1);
+    }
+}
@@ -2,9 +2,12 @@ package com.emulito.common.web.controller;
 
 import com.emulito.common.exception.ApplicationRequestNotFoundException;
 import com.emulito.common.exception.EmulatorException;
+import com.emulito.common.service.ApplicationRequestSubscription;
 import com.emulito.common.service.EmulatorService;
+import com.emulito.common.utils.HashedTimerWheel;
 import com.emulito.common.utils.RequestUtils;
-import com.google.common.collect.Lists;
+import com.emulito.common.utils.VirtualClock;
+import com.emulito.common.domain.http.CapturedRequest;
 import com.emulito.common.domain.http.HttpRequestContainer;
 import com.emulito.common.domain.http.HttpResponseContainer;
 import com.emulito.common.domain.http.HttpResponseRule;
@@ -12,28 +15,50 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
+import static com.google.common.collect.Lists.newArrayList;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 
 public class EmulatorControllerTest {
@@ -57,6 +82,9 @@ public class EmulatorControllerTest {
     @Rule
     public ExpectedException thrown = ExpectedException.none();
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @InjectMocks
     private EmulatorController emulatorController;
 
@@ -67,7 +95,7 @@ public class EmulatorControllerTest {
     private HttpServletResponse httpServletResponse;
 
     @Mock
-    private PrintWriter printWriter;
+    private ServletOutputStream servletOutputStream;
 
     @Mock
     private EmulatorService mockEmulatorService;
@@ -75,15 +103,29 @@ public class EmulatorControllerTest {
     @Mock
     private RequestUtils mockRequestUtils;
 
+    @Mock
+    private HashedTimerWheel mockResponseDelayTimer;
+
+    @Spy
+    private VirtualClock emulatorClock = new VirtualClock();
+
+    @Mock
+    private AsyncContext asyncContext;
+
+    @Captor
+    private ArgumentCaptor<Runnable> runnableCaptor;
+
     private ArrayList<String> headerNames;
     private ArrayList<String> headerValues;
     private HttpResponseContainer httpResponseContainer;
+    private HttpResponseRule httpResponseRule;
     private HttpRequestContainer httpRequestContainer;
     private Map<String, List<String>> testUrlParams;
     private Map<String, List<String>> testHeaders;
 
     @Before
     public void setup() throws IOException {
+        given(mockEmulatorService.getBodyFileDirectory()).willReturn(temporaryFolder.getRoot().toPath());
         headerNames = new ArrayList<>();
         headerNames.add(TEST_HEADER_NAME);
 
@@ -92,7 +134,7 @@ public class EmulatorControllerTest {
         testHeaders = new HashMap<>();
         testHeaders.put(TEST_HEADER_NAME, headerValues);
 
-        given(httpServletResponse.getWriter()).willReturn(printWriter);
+        given(httpServletResponse.getOutputStream()).willReturn(servletOutputStream);
 
         httpRequestContainer = new HttpRequestContainer();
         httpRequestContainer.setUrl(TEST_REQUEST_URL);
@@ -107,64 +149,199 @@ public class EmulatorControllerTest {
         httpResponseContainer.setStatusCode(TEST_RESPONSE_STATUS_CODE);
         httpResponseContainer.setBody(TEST_RESPONSE_BODY);
         httpResponseContainer.addHeader(TEST_RESPONSE_HEADER_NAME, TEST_RESPONSE_HEADER_VALUE);
-        given(mockEmulatorService.getResponse(httpRequestContainer)).willReturn(httpResponseContainer);
+        httpResponseRule = new HttpResponseRule();
+        httpResponseRule.setResponse(httpResponseContainer);
+        given(mockEmulatorService.matchResponse(httpRequestContainer)).willReturn(httpResponseRule);
         given(mockEmulatorService.getLastApplicationRequest(TEST_REQUEST_NAME)).willReturn(httpRequestContainer);
 
     }
 
     @Test
-    public void handleRequest() {
+    public void handleRequest() throws IOException {
         emulatorController.handleRequest(httpServletRequest, httpServletResponse);
 
         then(mockRequestUtils).should().buildRequestContainer(httpServletRequest);
-        then(mockEmulatorService).should().getResponse(httpRequestContainer);
+        then(mockEmulatorService).should().matchResponse(httpRequestContainer);
         // assert response
         then(httpServletResponse).should(times(1)).setStatus(httpResponseContainer.getStatusCode());
         assertThat(httpResponseContainer.getHeaders().size(), is(not(0)));
         for(Map.Entry<String, List<String>> header : httpResponseContainer.getHeaders().entrySet()) {
             then(httpServletResponse).should(times(1)).addHeader(header.getKey(), header.getValue().get(0));
         }
-        then(printWriter).should(times(1)).write(httpResponseContainer.getBody());
-        then(printWriter).should(times(1)).flush();
+        then(httpServletResponse).should().setContentLengthLong(TEST_RESPONSE_BODY.length());
+        then(servletOutputStream).should(times(1)).write(TEST_RESPONSE_BODY.getBytes(StandardCharsets.UTF_8));
+        then(servletOutputStream).should(times(1)).flush();
     }
 
     @Test
-    public void handleRequestOverrideHeaderSet() {
+    public void handleRequestOverrideHeaderSet() throws IOException {
         String uriOverrideValue = "UriOverrideValue";
         given(httpServletRequest.getHeader(X_REQUEST_URI_OVERRIDE_HEADER_KEY)).willReturn(uriOverrideValue);
 
         emulatorController.handleRequest(httpServletRequest, httpServletResponse);
 
         then(mockRequestUtils).should().buildRequestContainer(httpServletRequest, uriOverrideValue);
-        then(mockEmulatorService).should().getResponse(httpRequestContainer);
+        then(mockEmulatorService).should().matchResponse(httpRequestContainer);
         // assert response
         then(httpServletResponse).should(times(1)).setStatus(httpResponseContainer.getStatusCode());
         then(httpServletResponse).should().addHeader(anyString(), anyString());
         for(Map.Entry<String, List<String>> header : httpResponseContainer.getHeaders().entrySet()) {
             then(httpServletResponse).should(times(1)).addHeader(header.getKey(), header.getValue().get(0));
         }
-        then(printWriter).should(times(1)).write(httpResponseContainer.getBody());
-        then(printWriter).should(times(1)).flush();
+        then(httpServletResponse).should().setContentLengthLong(TEST_RESPONSE_BODY.length());
+        then(servletOutputStream).should(times(1)).write(TEST_RESPONSE_BODY.getBytes(StandardCharsets.UTF_8));
+        then(servletOutputStream).should(times(1)).flush();
     }
 
     @Test
-    public void handleRequestContentLengthHeaderSet() {
-        httpResponseContainer.getHeaders().put(CONTENT_LENGTH_HEADER_KEY, Lists.newArrayList("555"));
+    public void handleRequestContentLengthHeaderSet() throws IOException {
+        httpResponseContainer.addHeader(CONTENT_LENGTH_HEADER_KEY, "555");
 
         emulatorController.handleRequest(httpServletRequest, httpServletResponse);
 
-        then(mockEmulatorService).should().getResponse(httpRequestContainer);
+        then(mockEmulatorService).should().matchResponse(httpRequestContainer);
 
         // assert response
         then(httpServletResponse).should(times(1)).setStatus(httpResponseContainer.getStatusCode());
-        then(httpServletResponse).should(times(0)).addHeader(CONTENT_LENGTH_HEADER_KEY, eq(anyString()));
-        then(printWriter).should(times(1)).write(httpResponseContainer.getBody());
-        then(printWriter).should(times(1)).flush();
+        then(httpServletResponse).should(times(0)).addHeader(eq(CONTENT_LENGTH_HEADER_KEY), anyString());
+        then(httpServletResponse).should().setContentLengthLong(TEST_RESPONSE_BODY.length());
+        then(servletOutputStream).should(times(1)).write(TEST_RESPONSE_BODY.getBytes(StandardCharsets.UTF_8));
+        then(servletOutputStream).should(times(1)).flush();
+    }
+
+    @Test
+    public void handleRequestCompressedBody() throws IOException {
+        httpResponseContainer.setCompression(newArrayList("gzip"));
+        given(httpServletRequest.getHeader("Accept-Encoding")).willReturn("gzip, deflate");
+        ByteArrayOutputStream gzipBody = new ByteArrayOutputStream();
+        httpResponseContainer.encode(null).writeBody(gzipBody, "gzip");
+
+        emulatorController.handleRequest(httpServletRequest, httpServletResponse);
+
+        then(httpServletResponse).should().addHeader("Vary", "Accept-Encoding");
+        then(httpServletResponse).should().addHeader("Content-Encoding", "gzip");
+        then(httpServletResponse).should().setContentLengthLong(gzipBody.size());
+        then(servletOutputStream).should().write(gzipBody.toByteArray());
+    }
+
+    @Test
+    public void handleRequestCompressedBodyNotAccepted() throws IOException {
+        httpResponseContainer.setCompression(newArrayList("gzip"));
+
+        emulatorController.handleRequest(httpServletRequest, httpServletResponse);
+
+        then(httpServletResponse).should().addHeader("Vary", "Accept-Encoding");
+        then(httpServletResponse).should(times(0)).addHeader(eq("Content-Encoding"), anyString());
+        then(httpServletResponse).should().setContentLengthLong(TEST_RESPONSE_BODY.length());
+        then(servletOutputStream).should().write(TEST_RESPONSE_BODY.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void handleRequestBodyFileWithSendfile() throws IOException {
+        File bodyFile = temporaryFolder.newFile("body.json");
+        Files.write(bodyFile.toPath(), TEST_RESPONSE_BODY.getBytes(StandardCharsets.UTF_8));
+        httpResponseContainer.setBody(null);
+        httpResponseContainer.setBodyFile(bodyFile.getPath());
+        given(httpServletRequest.getAttribute("org.apache.tomcat.sendfile.support")).willReturn(Boolean.TRUE);
+
+        emulatorController.handleRequest(httpServletRequest, httpServletResponse);
+
+        then(httpServletResponse).should().setContentLengthLong(TEST_RESPONSE_BODY.length());
+        then(httpServletRequest).should().setAttribute("org.apache.tomcat.sendfile.filename", bodyFile.getAbsolutePath());
+        then(httpServletRequest).should().setAttribute("org.apache.tomcat.sendfile.start", 0L);
+        then(httpServletRequest).should().setAttribute("org.apache.tomcat.sendfile.end", (long) TEST_RESPONSE_BODY.length());
+        then(httpServletResponse).should(times(0)).getOutputStream();
+    }
+
+    @Test
+    public void handleRequestBodyFileWithoutSendfile() throws IOException {
+        File bodyFile = temporaryFolder.newFile("body.json");
+        Files.write(bodyFile.toPath(), TEST_RESPONSE_BODY.getBytes(StandardCharsets.UTF_8));
+        httpResponseContainer.setBody(null);
+        httpResponseContainer.setBodyFile(bodyFile.getPath());
+        ByteArrayOutputStream writtenBody = new ByteArrayOutputStream();
+        given(httpServletResponse.getOutputStream()).willReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                writtenBody.write(b);
+            }
+        });
+
+        emulatorController.handleRequest(httpServletRequest, httpServletResponse);
+
+        then(httpServletResponse).should().setContentLengthLong(TEST_RESPONSE_BODY.length());
+        assertThat(new String(writtenBody.toByteArray(), StandardCharsets.UTF_8), is(TEST_RESPONSE_BODY));
+    }
+
+    @Test
+    public void handleRequestDelayedAsynchronously() throws IOException {
+        httpResponseRule.setDelay(new HttpResponseRule.Delay().setDelayTimeInMillis(10_000L));
+        given(httpServletRequest.isAsyncSupported()).willReturn(true);
+        given(httpServletRequest.startAsync(httpServletRequest, httpServletResponse)).willReturn(asyncContext);
+
+        emulatorController.handleRequest(httpServletRequest, httpServletResponse);
+
+        // nothing is written until the delay has passed, and the request thread is never blocked
+        then(mockEmulatorService).should(never()).waitForDelay(anyLong());
+        then(asyncContext).should().addListener(any(AsyncListener.class));
+        then(servletOutputStream).should(never()).write(any(byte[].class));
+        then(mockResponseDelayTimer).should().schedule(runnableCaptor.capture(), eq(10_000L), eq(TimeUnit.MILLISECONDS));
+
+        runnableCaptor.getValue().run();
+        then(asyncContext).should().start(runnableCaptor.capture());
+        runnableCaptor.getValue().run();
+
+        then(httpServletResponse).should().setStatus(TEST_RESPONSE_STATUS_CODE);
+        then(servletOutputStream).should().write(TEST_RESPONSE_BODY.getBytes(StandardCharsets.UTF_8));
+        then(asyncContext).should().complete();
+    }
+
+    @Test
+    public void handleRequestThrottled() throws IOException {
+        httpResponseRule.setDelay(new HttpResponseRule.Delay().setBytesPerSecond(4L).setChunkSize(4));
+        given(httpServletRequest.isAsyncSupported()).willReturn(true);
+        given(httpServletRequest.startAsync(httpServletRequest, httpServletResponse)).willReturn(asyncContext);
+
+        emulatorController.handleRequest(httpServletRequest, httpServletResponse);
+
+        // left to the timer wheel however long the body takes to write
+        then(asyncContext).should().setTimeout(0L);
+        then(mockResponseDelayTimer).should().schedule(runnableCaptor.capture(), eq(0L), eq(TimeUnit.MILLISECONDS));
+        runnableCaptor.getValue().run();
+        then(asyncContext).should().start(runnableCaptor.capture());
+        runnableCaptor.getValue().run();
+
+        // headers straight away, then the first chunk of the body with the rest scheduled
+        then(httpServletResponse).should().setStatus(TEST_RESPONSE_STATUS_CODE);
+        then(httpServletResponse).should().setContentLengthLong(TEST_RESPONSE_BODY.length());
+        then(servletOutputStream).should().write(aryEq("Test".getBytes(StandardCharsets.UTF_8)), eq(0), eq(4));
+        then(mockResponseDelayTimer).should().schedule(any(Runnable.class), anyLong(), eq(TimeUnit.NANOSECONDS));
+        then(asyncContext).should(never()).complete();
+    }
+
+    @Test
+    public void handleRequestDelayedWithoutAsyncSupport() throws IOException {
+        httpResponseRule.setDelay(new HttpResponseRule.Delay().setDelayTimeInMillis(10_000L));
+
+        emulatorController.handleRequest(httpServletRequest, httpServletResponse);
+
+        then(mockEmulatorService).should().waitForDelay(10_000L);
+        then(httpServletRequest).should(never()).startAsync(any(), any());
+        then(servletOutputStream).should().write(TEST_RESPONSE_BODY.getBytes(StandardCharsets.UTF_8));
     }
 
     @Test
     public void handleRequestIOException() throws IOException {
-        given(httpServletResponse.getWriter()).willThrow(new IOException());
+        given(httpServletResponse.getOutputStream()).willThrow(new IOException());
 
         thrown.expect(EmulatorException.class);
         thrown.expectMessage("There was an error writing the http response body");
@@ -179,6 +356,58 @@ public class EmulatorControllerTest {
         then(mockEmulatorService).should().reset();
     }
 
+    @Test
+    public void handleRequestDelayedWithScaledClock() {
+        httpResponseRule.setDelay(new HttpResponseRule.Delay().setDelayTimeInMillis(10_000L));
+        given(httpServletRequest.isAsyncSupported()).willReturn(true);
+        given(httpServletRequest.startAsync(httpServletRequest, httpServletResponse)).willReturn(asyncContext);
+        emulatorClock.setScale(100);
+
+        emulatorController.handleRequest(httpServletRequest, httpServletResponse);
+
+        // the delay is scheduled in emulator time, the servlet container's real time timeout is turned off so that
+        // changing the scale while the response waits can't time it out early
+        then(mockResponseDelayTimer).should().schedule(any(Runnable.class), eq(10_000L), eq(TimeUnit.MILLISECONDS));
+        then(asyncContext).should().setTimeout(0L);
+    }
+
+    @Test
+    public void setClockScale() {
+        emulatorController.setClockScale(100);
+
+        then(mockEmulatorService).should().setClockScale(100);
+    }
+
+    @Test
+    public void setClockScaleNotPositive() {
+        thrown.expect(HttpClientErrorException.class);
+        thrown.expectMessage("Clock scale factor [0.0] must be greater than 0");
+
+        emulatorController.setClockScale(0);
+    }
+
+    @Test
+    public void getClockScale() {
+        given(mockEmulatorService.getClockScale()).willReturn(100.0);
+
+        assertThat(emulatorController.getClockScale(), is(100.0));
+    }
+
+    @Test
+    public void advanceClock() {
+        emulatorController.advanceClock(30_000L);
+
+        then(mockEmulatorService).should().advanceClock(30_000L);
+    }
+
+    @Test
+    public void advanceClockNegative() {
+        thrown.expect(HttpClientErrorException.class);
+        thrown.expectMessage("Clock can not be advanced by [-1] milliseconds");
+
+        emulatorController.advanceClock(-1L);
+    }
+
     @Test
     public void getLastApplicationRequest() {
         HttpRequestContainer lastApplicationRequest = emulatorController.getLastApplicationRequest(TEST_REQUEST_NAME);
@@ -213,12 +442,194 @@ public class EmulatorControllerTest {
         emulatorController.getLastApplicationRequest(TEST_REQUEST_NAME);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getLastApplicationRequestWaitsForRequest() {
+        ArgumentCaptor<Predicate<HttpRequestContainer>> waiterCaptor = ArgumentCaptor.forClass(Predicate.class);
+
+        DeferredResult<HttpRequestContainer> lastApplicationRequest = emulatorController.getLastApplicationRequest(TEST_REQUEST_NAME, 5000L);
+
+        then(mockEmulatorService).should().waitForApplicationRequest(eq(TEST_REQUEST_NAME), waiterCaptor.capture());
+        assertThat(lastApplicationRequest.hasResult(), is(false));
+        // the request arrives
+        assertThat(waiterCaptor.getValue().test(httpRequestContainer), is(true));
+        assertThat(lastApplicationRequest.getResult(), is(httpRequestContainer));
+        // a waiter is only handed one request
+        assertThat(waiterCaptor.getValue().test(new HttpRequestContainer()), is(false));
+        assertThat(lastApplicationRequest.getResult(), is(httpRequestContainer));
+    }
+
+    @Test
+    public void getLastApplicationRequestWaitEmptyRequestType() {
+        thrown.expect(HttpClientErrorException.class);
+        thrown.expectMessage("'requestType' URL param was not set");
+
+        emulatorController.getLastApplicationRequest("", 5000L);
+    }
+
+    @Test
+    public void getLastApplicationRequestWaitNotPositive() {
+        thrown.expect(HttpClientErrorException.class);
+        thrown.expectMessage("'waitMillis' URL param [0] must be greater than 0");
+
+        emulatorController.getLastApplicationRequest(TEST_REQUEST_NAME, 0L);
+    }
+
+    @Test
+    public void streamApplicationRequests() throws IOException {
+        ArgumentCaptor<ApplicationRequestSubscription.Listener> listenerCaptor =
+                ArgumentCaptor.forClass(ApplicationRequestSubscription.Listener.class);
+        given(mockEmulatorService.subscribeToApplicationRequests(eq(TEST_REQUEST_NAME), eq(10),
+                eq(ApplicationRequestSubscription.DropPolicy.NEWEST), listenerCaptor.capture()))
+                .willReturn(mock(ApplicationRequestSubscription.class));
+
+        SseEmitter emitter = emulatorController.streamApplicationRequests(
+                TEST_REQUEST_NAME, 10, ApplicationRequestSubscription.DropPolicy.NEWEST);
+
+        assertThat(emitter.getTimeout(), is(0L));
+        // sent before the stream is opened, so held by the emitter until then
+        listenerCaptor.getValue().onRequest(new CapturedRequest(1L, TEST_REQUEST_NAME, httpRequestContainer), 2);
+    }
+
+    @Test
+    public void streamApplicationRequestsAllRequestTypes() {
+        given(mockEmulatorService.subscribeToApplicationRequests(isNull(), eq(1000),
+                eq(ApplicationRequestSubscription.DropPolicy.OLDEST), any(ApplicationRequestSubscription.Listener.class)))
+                .willReturn(mock(ApplicationRequestSubscription.class));
+
+        emulatorController.streamApplicationRequests("", 1000, ApplicationRequestSubscription.DropPolicy.OLDEST);
+
+        then(mockEmulatorService).should().subscribeToApplicationRequests(isNull(), eq(1000),
+                eq(ApplicationRequestSubscription.DropPolicy.OLDEST), any(ApplicationRequestSubscription.Listener.class));
+    }
+
+    @Test
+    public void streamApplicationRequestsBufferSizeNotPositive() {
+        thrown.expect(HttpClientErrorException.class);
+        thrown.expectMessage("Buffer size [0] must be greater than 0");
+
+        emulatorController.streamApplicationRequests(TEST_REQUEST_NAME, 0, ApplicationRequestSubscription.DropPolicy.OLDEST);
+    }
+
+    @Test
+    public void getApplicationRequests() throws IOException {
+        List<String> requestTypes = newArrayList(TEST_REQUEST_NAME, "Other Request Name");
+
+        emulatorController.getApplicationRequests(requestTypes, 0, null, false, null, httpServletResponse);
+
+        then(httpServletResponse).should().setContentType("application/json");
+        then(mockEmulatorService).should().writeApplicationRequests(
+                requestTypes, 0, Integer.MAX_VALUE, false, false, servletOutputStream);
+    }
+
+    @Test
+    public void getApplicationRequestsNewlineDelimitedPage() throws IOException {
+        List<String> requestTypes = newArrayList(TEST_REQUEST_NAME);
+
+        emulatorController.getApplicationRequests(requestTypes, 5, 10, true, "application/x-ndjson", httpServletResponse);
+
+        then(httpServletResponse).should().setContentType("application/x-ndjson");
+        then(mockEmulatorService).should().writeApplicationRequests(requestTypes, 5, 10, true, true, servletOutputStream);
+    }
+
+    @Test
+    public void getApplicationRequestsEmptyRequestType() throws IOException {
+        thrown.expect(HttpClientErrorException.class);
+        thrown.expectMessage("'requestType' URL param was not set");
+
+        emulatorController.getApplicationRequests(newArrayList(""), 0, null, false, null, httpServletResponse);
+    }
+
+    @Test
+    public void getApplicationRequestsNegativeOffset() throws IOException {
+        thrown.expect(HttpClientErrorException.class);
+        thrown.expectMessage("Offset [-1] and limit [null] can not be negative");
+
+        emulatorController.getApplicationRequests(newArrayList(TEST_REQUEST_NAME), -1, null, false, null, httpServletResponse);
+    }
+
+    @Test
+    public void queryApplicationRequests() {
+        HttpResponseRule.CustomRequestPredicateDefinition query = new HttpResponseRule.CustomRequestPredicateDefinition();
+        List<CapturedRequest> capturedRequests = newArrayList(new CapturedRequest(1L, TEST_REQUEST_NAME, new HttpRequestContainer()));
+        given(mockEmulatorService.queryApplicationRequests(query, Integer.MAX_VALUE, true)).willReturn(capturedRequests);
+
+        assertThat(emulatorController.queryApplicationRequests(query, null, true), is(capturedRequests));
+    }
+
+    @Test
+    public void queryApplicationRequestsInvalidRule() {
+        HttpResponseRule.CustomRequestPredicateDefinition query = new HttpResponseRule.CustomRequestPredicateDefinition();
+        given(mockEmulatorService.queryApplicationRequests(query, 10, false))
+                .willThrow(new EmulatorException("Unknown Rule type specified for rule [nonsense]"));
+        thrown.expect(HttpClientErrorException.class);
+        thrown.expectMessage("Unknown Rule type specified for rule [nonsense]");
+
+        emulatorController.queryApplicationRequests(query, 10, false);
+    }
+
+    @Test
+    public void getJournalledApplicationRequests() throws IOException {
+        given(mockEmulatorService.isRequestJournalEnabled()).willReturn(true);
+
+        emulatorController.getJournalledApplicationRequests(TEST_REQUEST_NAME, 5L, null, null, httpServletResponse);
+
+        then(httpServletResponse).should().setContentType("application/json");
+        then(mockEmulatorService).should().writeJournalledRequests(
+                TEST_REQUEST_NAME, 5L, Long.MAX_VALUE, Integer.MAX_VALUE, servletOutputStream);
+    }
+
+    @Test
+    public void getJournalledApplicationRequestsInRange() throws IOException {
+        given(mockEmulatorService.isRequestJournalEnabled()).willReturn(true);
+
+        emulatorController.getJournalledApplicationRequests(TEST_REQUEST_NAME, 5L, 10L, 2, httpServletResponse);
+
+        then(mockEmulatorService).should().writeJournalledRequests(TEST_REQUEST_NAME, 5L, 10L, 2, servletOutputStream);
+    }
+
+    @Test
+    public void getJournalledApplicationRequestsJournalNotEnabled() throws IOException {
+        given(mockEmulatorService.isRequestJournalEnabled()).willReturn(false);
+
+        thrown.expect(HttpClientErrorException.class);
+        thrown.expectMessage("The request journal is not enabled");
+
+        emulatorController.getJournalledApplicationRequests(TEST_REQUEST_NAME, 0L, null, null, httpServletResponse);
+    }
+
+    @Test
+    public void getJournalledApplicationRequestsEmptyRequestType() throws IOException {
+        thrown.expect(HttpClientErrorException.class);
+        thrown.expectMessage("'requestType' URL param was not set");
+
+        emulatorController.getJournalledApplicationRequests("", 0L, null, null, httpServletResponse);
+    }
+
+    @Test
+    public void getJournalledApplicationRequestsNegativeLimit() throws IOException {
+        thrown.expect(HttpClientErrorException.class);
+        thrown.expectMessage("Limit [-1] can not be negative");
+
+        emulatorController.getJournalledApplicationRequests(TEST_REQUEST_NAME, 0L, null, -1, httpServletResponse);
+    }
+
     @Test
     public void addResponseRule() {
         HttpResponseRule responseRule = new HttpResponseRule();
-        emulatorController.addResponseRule(responseRule);
+        given(mockEmulatorService.addResponseRule(responseRule)).willReturn(7L);
+
+        long ruleId = emulatorController.addResponseRule(responseRule);
 
         then(mockEmulatorService).should().addResponseRule(responseRule);
+        assertThat(ruleId, is(7L));
+    }
+
+    @Test
+    public void removeResponseRule() {
+        emulatorController.removeResponseRule(7L);
+
+        then(mockEmulatorService).should().removeResponseRule(7L);
     }
 
     @Test
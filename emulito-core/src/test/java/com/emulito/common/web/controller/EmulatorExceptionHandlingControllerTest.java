@@ -1,6 +1,7 @@
 package com.emulito.common.web.controller;
 
 import com.emulito.common.exception.ApplicationRequestNotFoundException;
+import com.emulito.common.exception.ResponseRuleNotFoundException;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -26,4 +27,11 @@ public class EmulatorExceptionHandlingControllerTest {
         String response = emulatorExceptionHandlingController.handleNotFoundRequest(applicationRequestNotFoundException);
         Assert.assertThat(response, is("{\"message\":\"" + TEST_MESSAGE + "\"}"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void handleResponseRuleNotFound() {
+        ResponseRuleNotFoundException responseRuleNotFoundException = new ResponseRuleNotFoundException(TEST_MESSAGE);
+        String response = emulatorExceptionHandlingController.handleResponseRuleNotFound(responseRuleNotFoundException);
+        Assert.assertThat(response, is("{\"message\":\"" + TEST_MESSAGE + "\"}"));
+    }
+}
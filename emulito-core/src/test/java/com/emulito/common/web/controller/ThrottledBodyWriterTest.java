@@ -0,0 +1,180 @@
+package com.emulito.common.web.controller;
+
+import com.emulito.common.utils.HashedTimerWheel;
+import com.emulito.common.utils.VirtualClock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import javax.servlet.AsyncContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+
+public class ThrottledBodyWriterTest {
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private AsyncContext asyncContext;
+
+    private final VirtualClock clock = new VirtualClock();
+    private final HashedTimerWheel timer = new HashedTimerWheel(clock, 1, 64);
+    private final CountDownLatch completed = new CountDownLatch(1);
+
+    @Before
+    public void setup() {
+        // run each chunk straight away on the timer thread in place of a servlet container thread
+        willAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).given(asyncContext).start(any(Runnable.class));
+        willAnswer(invocation -> {
+            completed.countDown();
+            return null;
+        }).given(asyncContext).complete();
+    }
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void writesWholeBodyAtThrottledRate() throws InterruptedException {
+        byte[] body = new byte[1000];
+        new Random(1).nextBytes(body);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ThrottledBodyWriter throttledBodyWriter = new ThrottledBodyWriter(asyncContext, timer, clock, 10_000, 100);
+
+        long startTime = System.nanoTime();
+        throttledBodyWriter.start(new ByteArrayInputStream(body), outputStream);
+
+        // the first chunk is written straight away, the rest only as the rate allows
+        assertThat(outputStream.size(), is(lessThan(body.length)));
+        assertThat(completed.await(5, TimeUnit.SECONDS), is(true));
+        // 9 more chunks of 100 bytes at 10,000 bytes per second
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), is(greaterThanOrEqualTo(90L)));
+        assertThat(outputStream.toByteArray(), is(body));
+    }
+
+    @Test
+    public void emptyBodyCompletesStraightAway() {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        new ThrottledBodyWriter(asyncContext, timer, clock, 10, 10).start(new ByteArrayInputStream(new byte[0]), outputStream);
+
+        then(asyncContext).should().complete();
+        assertThat(outputStream.size(), is(0));
+    }
+
+    @Test
+    public void cancelStopsWritingAndClosesBody() throws InterruptedException {
+        ClosingTrackedInputStream body = new ClosingTrackedInputStream(new byte[1000]);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ThrottledBodyWriter throttledBodyWriter = new ThrottledBodyWriter(asyncContext, timer, clock, 10, 10);
+
+        throttledBodyWriter.start(body, outputStream);
+
+        // the next chunk was waiting, so whoever cancelled it completes the request
+        assertThat(throttledBodyWriter.cancel(), is(true));
+        assertThat(completed.await(1100, TimeUnit.MILLISECONDS), is(false));
+        assertThat(outputStream.size(), is(10));
+        assertThat(body.closed, is(true));
+        then(asyncContext).should(never()).complete();
+    }
+
+    @Test
+    public void cancelAfterNextChunkDueLeavesCompletionToWriter() throws InterruptedException {
+        // Given
+        BlockingQueue<Runnable> dueChunks = new LinkedBlockingQueue<>();
+        willAnswer(invocation -> dueChunks.add(invocation.getArgument(0))).given(asyncContext).start(any(Runnable.class));
+        ClosingTrackedInputStream body = new ClosingTrackedInputStream(new byte[1000]);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ThrottledBodyWriter throttledBodyWriter = new ThrottledBodyWriter(asyncContext, timer, clock, 1000, 10);
+        throttledBodyWriter.start(body, outputStream);
+        Runnable dueChunk = dueChunks.poll(5, TimeUnit.SECONDS);
+
+        // When
+        boolean stopped = throttledBodyWriter.cancel();
+        dueChunk.run();
+
+        // Then
+        assertThat(stopped, is(false));
+        assertThat(outputStream.size(), is(10));
+        assertThat(body.closed, is(true));
+        then(asyncContext).should().complete();
+    }
+
+    @Test
+    public void nextChunkAfterCompleteClosesBody() throws InterruptedException {
+        // Given
+        CountDownLatch startFailed = new CountDownLatch(1);
+        willAnswer(invocation -> {
+            startFailed.countDown();
+            throw new IllegalStateException("Request already completed");
+        }).given(asyncContext).start(any(Runnable.class));
+        ClosingTrackedInputStream body = new ClosingTrackedInputStream(new byte[1000]);
+
+        // When
+        new ThrottledBodyWriter(asyncContext, timer, clock, 1000, 10).start(body, new ByteArrayOutputStream());
+
+        // Then
+        assertThat(startFailed.await(5, TimeUnit.SECONDS), is(true));
+        // closed on the timer thread just after start fails
+        for (int i = 0; i < 100 && !body.closed; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(body.closed, is(true));
+        then(asyncContext).should(never()).complete();
+    }
+
+    @Test
+    public void writeErrorCompletesRequest() throws IOException {
+        OutputStream outputStream = mock(OutputStream.class);
+        willThrow(new IOException("Broken pipe")).given(outputStream).write(any(byte[].class), anyInt(), anyInt());
+        ClosingTrackedInputStream body = new ClosingTrackedInputStream(new byte[1000]);
+
+        new ThrottledBodyWriter(asyncContext, timer, clock, 10, 10).start(body, outputStream);
+
+        assertThat(body.closed, is(true));
+        then(outputStream).should().write(any(byte[].class), anyInt(), anyInt());
+        then(asyncContext).should().complete();
+    }
+
+    private static class ClosingTrackedInputStream extends ByteArrayInputStream {
+        private volatile boolean closed;
+
+        ClosingTrackedInputStream(byte[] body) {
+            super(body);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}